@@ -152,12 +152,13 @@ public class BubbleActivity extends BaseActivity {
 	};
 
 	public void onMeClick(final View view) {
-		activeBubbleFragment.saveBubbles();
+		activeBubbleFragment.saveBubbles(new Runnable() {
 
-		activeBubbleFragment = new BubbleFragment();
-		activeBubbleFragment.setBubbleCursor(cms.getBubblesInContext(BubbleContexts.PEOPLE),
-				BubbleActivity.this);
-		animateFragmentChange(view);
+			@Override
+			public void run() {
+				openFragment(cms.getBubblesInContext(BubbleContexts.PEOPLE), view);
+			}
+		});
 
 		if(meOnSide) {
 			if(viewInMainContext != null) {
@@ -167,19 +168,42 @@ public class BubbleActivity extends BaseActivity {
 		}
 	}
 
-	public void onPeopleClick(View view) {
-		activeBubbleFragment.saveBubbles();
+	public void onPeopleClick(final View view) {
+		activeBubbleFragment.saveBubbles(new Runnable() {
 
-		activeBubbleFragment = new BubbleFragment();
-		activeBubbleFragment.setBubbleCursor(cms.getBubblesInContext(BubbleContexts.PEOPLE), this);
-		animateFragmentChange(view);
+			@Override
+			public void run() {
+				openFragment(cms.getBubblesInContext(BubbleContexts.PEOPLE), view);
+			}
+		});
 	}
 
-	public void onEventsClick(View view) {
-		activeBubbleFragment.saveBubbles();
+	public void onEventsClick(final View view) {
+		activeBubbleFragment.saveBubbles(new Runnable() {
+
+			@Override
+			public void run() {
+				openFragment(cms.getBubblesInContext(BubbleContexts.EVENTS), view);
+			}
+		});
+	}
 
+	/**
+	 * Replace the active fragment with one showing the bubbles of a cursor.
+	 * Called once the bubbles of the old fragment are saved, so the cursor
+	 * has their new positions.
+	 * 
+	 * @param c
+	 * @param view
+	 *            View the change animates from
+	 */
+	private void openFragment(Cursor c, View view) {
+		if(!started) {
+			c.close();
+			return;
+		}
 		activeBubbleFragment = new BubbleFragment();
-		activeBubbleFragment.setBubbleCursor(cms.getBubblesInContext(BubbleContexts.EVENTS), this);
+		activeBubbleFragment.setBubbleCursor(c, this);
 		animateFragmentChange(view);
 	}
 
@@ -333,6 +357,8 @@ public class BubbleActivity extends BaseActivity {
 	@Override
 	protected void onDestroy() {
 		activeBubbleFragment.saveBubbles();
+		// The process may end soon after, do not leave the save queued
+		cms.flush();
 		super.onDestroy();
 	}
 
@@ -419,13 +445,14 @@ public class BubbleActivity extends BaseActivity {
 
 	}
 
-	public void changeContext(BubbleView bv) {
-		activeBubbleFragment.saveBubbles();
+	public void changeContext(final BubbleView bv) {
+		activeBubbleFragment.saveBubbles(new Runnable() {
 
-		activeBubbleFragment = new BubbleFragment();
-		activeBubbleFragment.setBubbleCursor(cms.getBubblesCursor(bv.getLinks()),
-				BubbleActivity.this);
-		animateFragmentChange(bv);
+			@Override
+			public void run() {
+				openFragment(cms.getBubblesCursor(bv.getLinkList()), bv);
+			}
+		});
 	}
 
 	private void finishToSideContext() {
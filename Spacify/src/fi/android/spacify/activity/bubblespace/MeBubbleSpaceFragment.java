@@ -1,5 +1,6 @@
 package fi.android.spacify.activity.bubblespace;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
 
@@ -22,6 +23,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import fi.android.service.WorkService;
 import fi.android.spacify.R;
+import fi.android.spacify.engine.ReservedRegion;
 import fi.android.spacify.fragment.BaseFragment;
 import fi.android.spacify.gesture.GestureInterface;
 import fi.android.spacify.model.Bubble;
@@ -46,6 +48,7 @@ public class MeBubbleSpaceFragment extends BaseFragment implements ControlCallba
 	private BubbleSurface bSurface;
 	private ViewPager popupPager;
 	private PopupFragmentAdapter popupAdapter;
+	private ReservedRegion popupRegion;
 
 	private int height, width;
 
@@ -108,7 +111,11 @@ public class MeBubbleSpaceFragment extends BaseFragment implements ControlCallba
 							popupPager.setCurrentItem(position);
 						}
 
-						bSurface.pushBubblesVertically((int) (getResources().getDimension(R.dimen.popup_height) + b.radius));
+						if (popupRegion != null) {
+							bSurface.releaseRegion(popupRegion);
+						}
+						popupRegion = bSurface.reserveTop((int) (getResources().getDimension(R.dimen.popup_height) + b
+								.getRadius()));
 					}
 				}
 			}
@@ -161,7 +168,11 @@ public class MeBubbleSpaceFragment extends BaseFragment implements ControlCallba
 				// }
 				// });
 				// }
-				List<Integer> list = b.getLinks();
+				int[] links = b.getLinks();
+				List<Integer> list = new ArrayList<Integer>(links.length + 1);
+				for (int link : links) {
+					list.add(link);
+				}
 				list.add(b.getID());
 				bSurface.moveAllButTheseToCorner(list);
 				// }
@@ -193,6 +204,10 @@ public class MeBubbleSpaceFragment extends BaseFragment implements ControlCallba
 			if (popupAdapter.getCount() == 0) {
 				popupAdapter.clear();
 				popupPager.setVisibility(View.GONE);
+				if (popupRegion != null) {
+					bSurface.releaseRegion(popupRegion);
+					popupRegion = null;
+				}
 			}
 			return true;
 		}
@@ -1,6 +1,13 @@
 package fi.android.spacify.db;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -9,10 +16,14 @@ import org.json.JSONObject;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import fi.android.spacify.engine.IntSet;
 import fi.android.spacify.model.Bubble;
 import fi.android.spacify.view.BubbleView;
 import fi.android.spacify.view.BubbleView.BubbleContexts;
@@ -26,9 +37,15 @@ public class BubbleDatabase extends SQLiteOpenHelper {
 	private static BubbleDatabase instance;
 	private Context ctx;
 	
-	private static final int VERSION = 1;
+	private static final int VERSION = 4;
 	private static final String DB_NAME = "smartspace.db";
-	private static final String BUBBLE_TABLE = "bubble_tbl";
+	static final String BUBBLE_TABLE = "bubble_tbl";
+	static final String LINK_TABLE = "bubble_link";
+	private static final String LINK_REVERSE_INDEX = "bubble_link_to_idx";
+	private static final String CONTEXT_TABLE = "bubble_context";
+	private static final String CONTEXT_INDEX = "bubble_context_context_idx";
+	private static final String SEARCH_TABLE = "bubble_search";
+	private static final int SEARCH_LIMIT = 50;
 
 	
 	@SuppressWarnings("javadoc")
@@ -51,9 +68,165 @@ public class BubbleDatabase extends SQLiteOpenHelper {
 		// Custom fields
 		public static final String CONTEXT = "context";
 	}
+
+	/**
+	 * Columns of the link table. One row for each link from a bubble to
+	 * another.
+	 */
+	@SuppressWarnings("javadoc")
+	public static class LinkColumns {
+		public static final String FROM_ID = "from_id";
+		public static final String TO_ID = "to_id";
+	}
+
+	/**
+	 * Columns of the context table. One row for each context a bubble
+	 * belongs to.
+	 */
+	@SuppressWarnings("javadoc")
+	public static class ContextColumns {
+		public static final String BUBBLE_ID = "bubble_id";
+		public static final String CONTEXT = "context";
+	}
+
+	/**
+	 * Columns returned by all bubble queries. Links are collected from the
+	 * link table into the {@link BubbleColumns#LINKS} column as a comma
+	 * separated list of ids.
+	 */
+	private static final String BUBBLE_PROJECTION = "b." + BubbleColumns.ID + " AS " + BubbleColumns.ID + ", b."
+			+ BubbleColumns.TITLE + " AS " + BubbleColumns.TITLE + ", b." + BubbleColumns.STYLE + " AS "
+			+ BubbleColumns.STYLE + ", b." + BubbleColumns.CONTENTS + " AS " + BubbleColumns.CONTENTS + ", b."
+			+ BubbleColumns.PRIORITY + " AS " + BubbleColumns.PRIORITY + ", b." + BubbleColumns.TITLE_IMAGE_URL
+			+ " AS " + BubbleColumns.TITLE_IMAGE_URL + ", b." + BubbleColumns.TYPE + " AS " + BubbleColumns.TYPE
+			+ ", b." + BubbleColumns.DEBUG_ID + " AS " + BubbleColumns.DEBUG_ID + ", b."
+			+ BubbleColumns.CONTENT_IMAGE_URL + " AS " + BubbleColumns.CONTENT_IMAGE_URL + ", b."
+			+ BubbleColumns.LATITUDE + " AS " + BubbleColumns.LATITUDE + ", b." + BubbleColumns.LONGITUDE + " AS "
+			+ BubbleColumns.LONGITUDE + ", b." + BubbleColumns.X + " AS " + BubbleColumns.X + ", b."
+			+ BubbleColumns.Y + " AS " + BubbleColumns.Y + ", b." + BubbleColumns.CONTEXT + " AS "
+			+ BubbleColumns.CONTEXT + ", (SELECT group_concat(" + LinkColumns.TO_ID + ") FROM " + LINK_TABLE
+			+ " WHERE " + LinkColumns.FROM_ID + " = b." + BubbleColumns.ID + ") AS " + BubbleColumns.LINKS;
 	
+	/**
+	 * Operation run on the writer thread. Writes queued at the same time share
+	 * one transaction. A write may be run again if another write of the same
+	 * transaction fails.
+	 */
+	public interface Write {
+
+		/**
+		 * @param db
+		 *            Database in a transaction. The write must not begin or
+		 *            end transactions itself.
+		 */
+		void write(SQLiteDatabase db);
+	}
+
+	/**
+	 * Write that only marks a point in the queue. Released when the
+	 * transaction it was in has ended, then posts its callback if it has one.
+	 */
+	private static class Flush implements Write {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final Handler handler;
+		private final Runnable callback;
+
+		public Flush() {
+			this(null, null);
+		}
+
+		public Flush(Handler handler, Runnable callback) {
+			this.handler = handler;
+			this.callback = callback;
+		}
+
+		@Override
+		public void write(SQLiteDatabase db) {
+		}
+
+		public void release() {
+			done.countDown();
+			if(callback != null) {
+				handler.post(callback);
+			}
+		}
+	}
+
+	/**
+	 * Write that stops the writer thread after the writes queued before it.
+	 */
+	private static final Write STOP = new Write() {
+
+		@Override
+		public void write(SQLiteDatabase db) {
+		}
+	};
+
+	/**
+	 * Single thread writing to the database. Takes all writes queued so far,
+	 * up to {@link #MAX_BATCH}, and commits them in one transaction. Failed
+	 * writes are logged and dropped, the thread keeps running and always
+	 * releases the flushes of a batch. Ends after committing the batch with
+	 * {@link #STOP}.
+	 */
+	private class WriterThread extends Thread {
+
+		public WriterThread() {
+			super("BubbleDatabaseWriter");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<Write> batch = new ArrayList<Write>();
+			while(true) {
+				try {
+					batch.add(writes.take());
+				} catch(InterruptedException e) {
+					return;
+				}
+				writes.drainTo(batch, MAX_BATCH - 1);
+				boolean stop = batch.remove(STOP);
+				try {
+					if(!batch.isEmpty()) {
+						commit(batch);
+					}
+				} catch(RuntimeException e) {
+					Log.e(TAG, "Write to database failed", e);
+				} finally {
+					for(Write write : batch) {
+						if(write instanceof Flush) {
+							((Flush) write).release();
+						}
+					}
+					batch.clear();
+				}
+				if(stop) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static final int MAX_BATCH = 100;
+
+	private final LinkedBlockingQueue<Write> writes = new LinkedBlockingQueue<Write>();
+	private WriterThread writerThread;
+
 	private BubbleDatabase(Context context) {
-		super(context, DB_NAME, null, VERSION);
+		this(context, DB_NAME);
+	}
+
+	/**
+	 * Constructor for a database separate from the singleton, used by tests.
+	 * 
+	 * @param context
+	 * @param name
+	 *            File name of the database, null for an in-memory database
+	 */
+	BubbleDatabase(Context context, String name) {
+		super(context, name, null, VERSION);
 		this.ctx = context;
 	}
 	
@@ -73,6 +246,121 @@ public class BubbleDatabase extends SQLiteOpenHelper {
 		}
 	}
 	
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		// Readers get their own connections and are not blocked by the
+		// writer thread. Not available before Honeycomb.
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly()) {
+			db.enableWriteAheadLogging();
+		}
+	}
+
+	/**
+	 * Queue a write to the writer thread. Returns immediately.
+	 * 
+	 * @param write
+	 */
+	public void post(Write write) {
+		synchronized(writes) {
+			if(writerThread == null) {
+				writerThread = new WriterThread();
+				writerThread.start();
+			}
+			writes.add(write);
+		}
+	}
+
+	/**
+	 * Wait until all writes queued so far are committed. Do not call from
+	 * the writer thread.
+	 */
+	public void flush() {
+		Flush flush = new Flush();
+		post(flush);
+		try {
+			flush.done.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Run a callback on the main thread once all writes queued so far are
+	 * committed. Returns immediately, use this instead of {@link #flush()}
+	 * on the UI thread.
+	 * 
+	 * @param callback
+	 */
+	public void afterWrites(Runnable callback) {
+		post(new Flush(new Handler(Looper.getMainLooper()), callback));
+	}
+
+	/**
+	 * Commit the writes queued so far, stop the writer thread and close the
+	 * database. A write posted after this starts a new writer thread.
+	 */
+	@Override
+	public void close() {
+		// Posts wait until the old writer has ended, so two writers never
+		// share the queue. Not holding the lock of the helper, the writer
+		// needs it to open the database.
+		synchronized(writes) {
+			if(writerThread != null) {
+				writes.add(STOP);
+				boolean interrupted = false;
+				while(writerThread.isAlive()) {
+					try {
+						writerThread.join();
+					} catch(InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				writerThread = null;
+				if(interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		super.close();
+	}
+
+	/**
+	 * Run writes in one transaction. If one of them fails the transaction is
+	 * rolled back and each write is retried alone, so only the failing one
+	 * is lost. If the database cannot be opened the whole batch is lost.
+	 * 
+	 * @param batch
+	 */
+	private void commit(List<Write> batch) {
+		SQLiteDatabase db;
+		try {
+			db = getWritableDatabase();
+		} catch(RuntimeException e) {
+			Log.e(TAG, "Could not open database, " + batch.size() + " writes lost", e);
+			return;
+		}
+		try {
+			db.beginTransaction();
+			try {
+				for(Write write : batch) {
+					write.write(db);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} catch(RuntimeException e) {
+			if(batch.size() == 1) {
+				Log.e(TAG, "Write to database failed", e);
+			} else {
+				for(Write write : batch) {
+					commit(Collections.singletonList(write));
+				}
+			}
+		}
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		StringBuilder sql = new StringBuilder();
@@ -83,7 +371,6 @@ public class BubbleDatabase extends SQLiteOpenHelper {
 		sql.append(BubbleColumns.CONTENTS).append(" TEXT,");
 		sql.append(BubbleColumns.PRIORITY).append(" INTEGER,");
 		sql.append(BubbleColumns.TITLE_IMAGE_URL).append(" TEXT,");
-		sql.append(BubbleColumns.LINKS).append(" TEXT,");
 		sql.append(BubbleColumns.TYPE).append(" TEXT,");
 		sql.append(BubbleColumns.DEBUG_ID).append(" TEXT,");
 		sql.append(BubbleColumns.CONTENT_IMAGE_URL).append(" TEXT,");
@@ -95,188 +382,612 @@ public class BubbleDatabase extends SQLiteOpenHelper {
 		sql.append(")");
 		
 		db.execSQL(sql.toString());
+		createLinkTable(db);
+		createContextTable(db);
+		createSearchTable(db);
+	}
+
+	private void createLinkTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + LINK_TABLE + " (" + LinkColumns.FROM_ID + " INTEGER NOT NULL, "
+				+ LinkColumns.TO_ID + " INTEGER NOT NULL, PRIMARY KEY (" + LinkColumns.FROM_ID + ", "
+				+ LinkColumns.TO_ID + "))");
+		// Finding the bubbles linking to a bubble
+		db.execSQL("CREATE INDEX " + LINK_REVERSE_INDEX + " ON " + LINK_TABLE + " (" + LinkColumns.TO_ID + ", "
+				+ LinkColumns.FROM_ID + ")");
+	}
+
+	private void createContextTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + CONTEXT_TABLE + " (" + ContextColumns.BUBBLE_ID + " INTEGER NOT NULL, "
+				+ ContextColumns.CONTEXT + " TEXT NOT NULL, PRIMARY KEY (" + ContextColumns.BUBBLE_ID + ", "
+				+ ContextColumns.CONTEXT + "))");
+		// Finding the bubbles of a context without touching the bubble rows
+		db.execSQL("CREATE INDEX " + CONTEXT_INDEX + " ON " + CONTEXT_TABLE + " (" + ContextColumns.CONTEXT
+				+ ", " + ContextColumns.BUBBLE_ID + ")");
+	}
+
+	/**
+	 * Full text index over title and contents of the bubbles. Rows use the
+	 * bubble id as docid and are kept in sync by triggers on the bubble
+	 * table. FTS3, FTS4 is not available on all supported platform versions.
+	 * 
+	 * @param db
+	 */
+	private void createSearchTable(SQLiteDatabase db) {
+		db.execSQL("CREATE VIRTUAL TABLE " + SEARCH_TABLE + " USING fts3(" + BubbleColumns.TITLE + ", "
+				+ BubbleColumns.CONTENTS + ")");
+		db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_insert AFTER INSERT ON " + BUBBLE_TABLE + " BEGIN"
+				+ " INSERT INTO " + SEARCH_TABLE + " (docid, " + BubbleColumns.TITLE + ", " + BubbleColumns.CONTENTS
+				+ ") VALUES (new." + BubbleColumns.ID + ", new." + BubbleColumns.TITLE + ", new."
+				+ BubbleColumns.CONTENTS + "); END");
+		db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_update AFTER UPDATE OF " + BubbleColumns.TITLE + ", "
+				+ BubbleColumns.CONTENTS + " ON " + BUBBLE_TABLE + " BEGIN UPDATE " + SEARCH_TABLE + " SET "
+				+ BubbleColumns.TITLE + " = new." + BubbleColumns.TITLE + ", " + BubbleColumns.CONTENTS + " = new."
+				+ BubbleColumns.CONTENTS + " WHERE docid = old." + BubbleColumns.ID + "; END");
+		db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_delete AFTER DELETE ON " + BUBBLE_TABLE + " BEGIN"
+				+ " DELETE FROM " + SEARCH_TABLE + " WHERE docid = old." + BubbleColumns.ID + "; END");
 	}
 
 	@Override
-	public void onUpgrade(SQLiteDatabase arg0, int arg1, int arg2) {
-		// TODO Auto-generated method stub
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (oldVersion < 2) {
+			migrateLinks(db);
+		}
+		if (oldVersion < 3) {
+			migrateContexts(db);
+		}
+		if (oldVersion < 4) {
+			createSearchTable(db);
+			db.execSQL("INSERT INTO " + SEARCH_TABLE + " (docid, " + BubbleColumns.TITLE + ", "
+					+ BubbleColumns.CONTENTS + ") SELECT " + BubbleColumns.ID + ", " + BubbleColumns.TITLE + ", "
+					+ BubbleColumns.CONTENTS + " FROM " + BUBBLE_TABLE);
+		}
+	}
+
+	/**
+	 * Fill the context table from the JSON column of the bubble table. The
+	 * column is kept, bubbles read their contexts from it.
+	 * 
+	 * @param db
+	 */
+	private void migrateContexts(SQLiteDatabase db) {
+		createContextTable(db);
+
+		BubbleWriter writer = new BubbleWriter(db);
+		Cursor c = db.query(BUBBLE_TABLE, new String[] { BubbleColumns.ID, BubbleColumns.CONTEXT },
+				BubbleColumns.CONTEXT + " IS NOT NULL", null, null, null, null);
+		try {
+			while (c.moveToNext()) {
+				try {
+					writer.replaceContexts(c.getInt(0), toList(new JSONArray(c.getString(1))));
+				} catch (JSONException e) {
+					Log.w(TAG, "Dropped invalid contexts of bubble " + c.getInt(0), e);
+				}
+			}
+		} finally {
+			c.close();
+			writer.close();
+		}
+	}
 
+	private List<String> toList(JSONArray array) throws JSONException {
+		List<String> list = new ArrayList<String>(array.length());
+		for (int i = 0; i < array.length(); i++) {
+			list.add(array.getString(i));
+		}
+		return list;
 	}
-	
-	public void storeBubble(Bubble bubble) {
-		SQLiteDatabase db = getWritableDatabase();
-
-		ContentValues values = new ContentValues();
-		values.put(BubbleColumns.ID, bubble.getID());
-		values.put(BubbleColumns.TITLE, bubble.getTitle());
-		values.put(BubbleColumns.STYLE, bubble.getStyle());
-		values.put(BubbleColumns.CONTENTS, bubble.getContents());
-		values.put(BubbleColumns.PRIORITY, bubble.getPriority());
-		values.put(BubbleColumns.TITLE_IMAGE_URL, bubble.getTitleImageUrl());
-		values.put(BubbleColumns.LINKS, bubble.getLinksJSONArray().toString());
-		values.put(BubbleColumns.TYPE, bubble.getType());
-		values.put(BubbleColumns.DEBUG_ID, bubble.getDebugID());
-		values.put(BubbleColumns.CONTENT_IMAGE_URL, bubble.getContentImageUrl());
-		values.put(BubbleColumns.LATITUDE, bubble.getLattitude());
-		values.put(BubbleColumns.LONGITUDE, bubble.getLongitude());
-		values.put(BubbleColumns.X, bubble.x);
-		values.put(BubbleColumns.Y, bubble.y);
-
-		long change = -1;
 
+	/**
+	 * Move links from the JSON column of the bubble table to the link table.
+	 * The old column stays in the table since SQLite can not drop it, but is
+	 * emptied and not used anymore.
+	 * 
+	 * @param db
+	 */
+	private void migrateLinks(SQLiteDatabase db) {
+		createLinkTable(db);
+
+		SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + LINK_TABLE + " ("
+				+ LinkColumns.FROM_ID + ", " + LinkColumns.TO_ID + ") VALUES (?, ?)");
+		Cursor c = db.query(BUBBLE_TABLE, new String[] { BubbleColumns.ID, BubbleColumns.LINKS },
+				BubbleColumns.LINKS + " IS NOT NULL", null, null, null, null);
 		try {
-			change = db.insertOrThrow(BUBBLE_TABLE, null, values);
-		} catch(SQLException e) {
-			String where = BubbleColumns.ID + " = " + bubble.getID();
-			change = db.update(BUBBLE_TABLE, values, where, null);
+			while (c.moveToNext()) {
+				int id = c.getInt(0);
+				try {
+					for (int link : IntSet.parse(c.getString(1))) {
+						insert.bindLong(1, id);
+						insert.bindLong(2, link);
+						insert.executeInsert();
+					}
+				} catch (NumberFormatException e) {
+					Log.w(TAG, "Dropped invalid links of bubble " + id, e);
+				}
+			}
+		} finally {
+			c.close();
+			insert.close();
 		}
+		db.execSQL("UPDATE " + BUBBLE_TABLE + " SET " + BubbleColumns.LINKS + " = NULL");
+	}
+
+	/**
+	 * Queue storing one link. Costs one row write, the bubble rows are not
+	 * touched.
+	 * 
+	 * @param from
+	 *            Id of the bubble linking
+	 * @param to
+	 *            Id of the linked bubble
+	 */
+	public void addLink(final int from, final int to) {
+		post(new Write() {
+
+			@Override
+			public void write(SQLiteDatabase db) {
+				ContentValues values = new ContentValues();
+				values.put(LinkColumns.FROM_ID, from);
+				values.put(LinkColumns.TO_ID, to);
+				db.insertWithOnConflict(LINK_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+			}
+		});
+	}
 
-		if(change != -1) {
-			Log.v(TAG, "Bubble [" + bubble.getTitle() + "] stored to database.");
+	/**
+	 * Queue removing one link.
+	 * 
+	 * @param from
+	 *            Id of the bubble linking
+	 * @param to
+	 *            Id of the linked bubble
+	 */
+	public void removeLink(final int from, final int to) {
+		post(new Write() {
+
+			@Override
+			public void write(SQLiteDatabase db) {
+				db.delete(LINK_TABLE, LinkColumns.FROM_ID + " = ? AND " + LinkColumns.TO_ID + " = ?",
+						new String[] { String.valueOf(from), String.valueOf(to) });
+			}
+		});
+	}
+	
+	/**
+	 * Columns written from {@link Bubble} objects.
+	 */
+	private static final String[] OBJECT_COLUMNS = { BubbleColumns.TITLE, BubbleColumns.STYLE,
+			BubbleColumns.CONTENTS, BubbleColumns.PRIORITY, BubbleColumns.TITLE_IMAGE_URL, BubbleColumns.TYPE,
+			BubbleColumns.DEBUG_ID, BubbleColumns.CONTENT_IMAGE_URL, BubbleColumns.LATITUDE,
+			BubbleColumns.LONGITUDE, BubbleColumns.X, BubbleColumns.Y };
+
+	/**
+	 * Columns written from {@link BubbleView} objects, the object columns and
+	 * context.
+	 */
+	private static final String[] VIEW_COLUMNS = { BubbleColumns.TITLE, BubbleColumns.STYLE,
+			BubbleColumns.CONTENTS, BubbleColumns.PRIORITY, BubbleColumns.TITLE_IMAGE_URL, BubbleColumns.TYPE,
+			BubbleColumns.DEBUG_ID, BubbleColumns.CONTENT_IMAGE_URL, BubbleColumns.LATITUDE,
+			BubbleColumns.LONGITUDE, BubbleColumns.X, BubbleColumns.Y, BubbleColumns.CONTEXT };
+
+	/**
+	 * Columns written from CMS JSON. Priority is last so the same indexes can
+	 * be used when a bubble has no priority and the stored one is kept.
+	 */
+	private static final String[] JSON_COLUMNS = { BubbleColumns.TITLE, BubbleColumns.STYLE,
+			BubbleColumns.CONTENTS, BubbleColumns.TITLE_IMAGE_URL, BubbleColumns.CONTEXT, BubbleColumns.TYPE,
+			BubbleColumns.DEBUG_ID, BubbleColumns.CONTENT_IMAGE_URL, BubbleColumns.LATITUDE,
+			BubbleColumns.LONGITUDE, BubbleColumns.X, BubbleColumns.Y, BubbleColumns.PRIORITY };
+
+	/**
+	 * Values of one bubble copied on the calling thread, the object may change
+	 * before the write runs.
+	 */
+	private static class Row {
+
+		final int id;
+		final Object[] values;
+		final int[] links;
+		final Collection<String> contexts;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param id
+		 * @param values
+		 *            Values in the order of the written columns
+		 * @param links
+		 *            Links, not modified afterwards
+		 * @param contexts
+		 *            Copy of the contexts or null to keep the stored ones
+		 */
+		Row(int id, Object[] values, int[] links, Collection<String> contexts) {
+			this.id = id;
+			this.values = values;
+			this.links = links;
+			this.contexts = contexts;
 		}
 	}
 
-	public void storeBubbleViews(List<BubbleView> bubbles) {
-		SQLiteDatabase db = getWritableDatabase();
+	public void storeBubble(Bubble bubble) {
+		storeBubbles(Collections.singletonList(bubble));
+	}
 
-		db.beginTransaction();
+	/**
+	 * Queue inserting or updating bubbles and their links.
+	 * 
+	 * @param bubbles
+	 */
+	public void storeBubbles(Collection<Bubble> bubbles) {
+		List<Row> rows = new ArrayList<Row>(bubbles.size());
+		for(Bubble b : bubbles) {
+			rows.add(new Row(b.getID(), new Object[] { b.getTitle(), b.getStyle(), b.getContents(),
+					b.getPriority(), b.getTitleImageUrl(), b.getType(), b.getDebugID(), b.getContentImageUrl(),
+					b.getLattitude(), b.getLongitude(), b.getX(), b.getY() }, b.getLinks(), null));
+		}
+		storeRows(OBJECT_COLUMNS, rows);
+	}
 
+	/**
+	 * Queue inserting or updating bubbles with their links and contexts.
+	 * 
+	 * @param bubbles
+	 */
+	public void storeBubbleViews(List<BubbleView> bubbles) {
+		List<Row> rows = new ArrayList<Row>(bubbles.size());
 		for(BubbleView b : bubbles) {
-			ContentValues values = new ContentValues();
-			values.put(BubbleColumns.ID, b.getID());
-			values.put(BubbleColumns.TITLE, b.getTitle());
-			values.put(BubbleColumns.STYLE, b.getStyle());
-			values.put(BubbleColumns.CONTENTS, b.getContents());
-			values.put(BubbleColumns.PRIORITY, b.getPriority());
-			values.put(BubbleColumns.TITLE_IMAGE_URL, b.getTitleImageUrl());
-			values.put(BubbleColumns.LINKS, b.getLinksJSONArray().toString());
-			values.put(BubbleColumns.TYPE, b.getType());
-			values.put(BubbleColumns.DEBUG_ID, b.getDebugID());
-			values.put(BubbleColumns.CONTENT_IMAGE_URL, b.getContentImageUrl());
-			values.put(BubbleColumns.LATITUDE, b.getLattitude());
-			values.put(BubbleColumns.LONGITUDE, b.getLongitude());
 			int[] position = b.getViewPosition();
-			values.put(BubbleColumns.X, position[0]);
-			values.put(BubbleColumns.Y, position[1]);
-			values.put(BubbleColumns.CONTEXT, b.getContextJSON());
+			rows.add(new Row(b.getID(), new Object[] { b.getTitle(), b.getStyle(), b.getContents(),
+					b.getPriority(), b.getTitleImageUrl(), b.getType(), b.getDebugID(), b.getContentImageUrl(),
+					b.getLattitude(), b.getLongitude(), position[0], position[1], b.getContextJSON() },
+					b.getLinks(), new ArrayList<String>(b.getContexts())));
+		}
+		storeRows(VIEW_COLUMNS, rows);
+	}
 
-			long change = -1;
+	private void storeRows(final String[] columns, final List<Row> rows) {
+		post(new Write() {
 
-			try {
-				change = db.insertOrThrow(BUBBLE_TABLE, null, values);
-			} catch(SQLException e) {
-				String where = BubbleColumns.ID + " = " + b.getID();
-				change = db.update(BUBBLE_TABLE, values, where, null);
+			@Override
+			public void write(SQLiteDatabase db) {
+				BubbleWriter writer = new BubbleWriter(db, columns);
+				try {
+					for(Row row : rows) {
+						writer.bindAll(row.values);
+						writer.upsert(row.id);
+						writer.replaceLinks(row.id, row.links);
+						if(row.contexts != null) {
+							writer.replaceContexts(row.id, row.contexts);
+						}
+					}
+				} finally {
+					writer.close();
+				}
 			}
-		}
+		});
+	}
 
-		db.setTransactionSuccessful();
-		db.endTransaction();
+	/**
+	 * Query bubbles with their links.
+	 * 
+	 * @param where
+	 *            Condition using alias b for the bubble table, or null
+	 * @param args
+	 * @return Cursor ordered by title
+	 */
+	private Cursor queryBubbles(String where, String[] args) {
+		String sql = "SELECT " + BUBBLE_PROJECTION + " FROM " + BUBBLE_TABLE + " b"
+				+ (where != null ? " WHERE " + where : "") + " ORDER BY b." + BubbleColumns.TITLE;
+		return getReadableDatabase().rawQuery(sql, args);
 	}
 
 	public Cursor getTopLevelBubblesCursor() {
-		SQLiteDatabase db = getReadableDatabase();
-		String selection = "";
-		selection = BubbleColumns.PRIORITY + " > 0";
-		
-		return db.query(BUBBLE_TABLE, null, selection, null, null, null,
-				BubbleColumns.TITLE);
+		return queryBubbles("b." + BubbleColumns.PRIORITY + " > 0", null);
 	}
 
 	public Cursor getBubblesWithPriority(int priority) {
-		SQLiteDatabase db = getReadableDatabase();
-		String selection = "";
-		selection = BubbleColumns.PRIORITY + " > " + priority;
-
-		return db.query(BUBBLE_TABLE, null, selection, null, null, null, BubbleColumns.TITLE);
+		return queryBubbles("b." + BubbleColumns.PRIORITY + " > ?", new String[] { String.valueOf(priority) });
 	}
 
+	/**
+	 * Get bubbles belonging to a context. Exact match trough the index of the
+	 * context table.
+	 * 
+	 * @param context
+	 *            One of {@link BubbleContexts}
+	 * @return Cursor ordered by title
+	 */
 	public Cursor getBubblesInContext(String context) {
-		SQLiteDatabase db = getReadableDatabase();
-		String sql = "SELECT * FROM " + BUBBLE_TABLE + " WHERE " + BubbleColumns.CONTEXT
-				+ " LIKE '%" + context + "%'";
-		Cursor c = db.rawQuery(sql, null);
-		return c;
+		String sql = "SELECT " + BUBBLE_PROJECTION + " FROM " + CONTEXT_TABLE + " c JOIN " + BUBBLE_TABLE
+				+ " b ON b." + BubbleColumns.ID + " = c." + ContextColumns.BUBBLE_ID + " WHERE c."
+				+ ContextColumns.CONTEXT + " = ? ORDER BY b." + BubbleColumns.TITLE;
+		return getReadableDatabase().rawQuery(sql, new String[] { context });
 	}
 
-	public Cursor getLinkedBubblesCursor(List<Integer> links) {
-		SQLiteDatabase db = getReadableDatabase();
-		
+	/**
+	 * Get bubbles with the given ids.
+	 * 
+	 * @param ids
+	 * @return Cursor ordered by title
+	 */
+	public Cursor getBubblesCursor(List<Integer> ids) {
 		String separator = "";
-		String linkString = "";
-		for(Integer i : links) {
-			linkString += separator + i;
+		StringBuilder idString = new StringBuilder();
+		for(Integer i : ids) {
+			idString.append(separator).append(i);
 			separator = ", ";
 		}
-		
-		String selection = BubbleColumns.ID + " IN (" + linkString + ")";
-		
-		return db.query(BUBBLE_TABLE, null, selection, null, null, null,
-				BubbleColumns.TITLE);
-	}
 
-	public void storeBubbleJson(JSONObject json) {
-		SQLiteDatabase db = getWritableDatabase();
+		return queryBubbles("b." + BubbleColumns.ID + " IN (" + idString + ")", null);
+	}
 
-		db.beginTransaction();
+	/**
+	 * Store bubbles from CMS JSON. Runs on the writer thread like other
+	 * writes, but returns only after the bubbles are committed so they can
+	 * be read right away.
+	 * 
+	 * @param json
+	 *            Object with the bubbles in an "add" array
+	 */
+	public void storeBubbleJson(final JSONObject json) {
+		post(new Write() {
+
+			@Override
+			public void write(SQLiteDatabase db) {
+				writeBubbleJson(db, json);
+			}
+		});
+		flush();
+	}
 
+	private void writeBubbleJson(SQLiteDatabase db, JSONObject json) {
+		BubbleWriter withPriority = new BubbleWriter(db, JSON_COLUMNS);
+		BubbleWriter withoutPriority = new BubbleWriter(db, Arrays.copyOf(JSON_COLUMNS, JSON_COLUMNS.length - 1));
 		try {
 			JSONArray jArray = json.getJSONArray("add");
 
 			for(int i = 0; i < jArray.length(); i++) {
 				JSONObject b = jArray.getJSONObject(i);
 
-				ContentValues values = new ContentValues();
+				BubbleWriter writer = withoutPriority;
 				int id = StaticUtils.parseIntJSON(b, BubbleJSON.id, -1);
-				values.put(BubbleColumns.ID, id);
-				values.put(BubbleColumns.TITLE, StaticUtils.parseStringJSON(b, BubbleJSON.title, ""));
-				values.put(BubbleColumns.STYLE, StaticUtils.parseStringJSON(b, BubbleJSON.style, ""));
-				values.put(BubbleColumns.CONTENTS, StaticUtils.parseStringJSON(b, BubbleJSON.contents, ""));
 				if(b.has(BubbleJSON.priority)) {
-					values.put(BubbleColumns.PRIORITY, StaticUtils.parseIntJSON(b, BubbleJSON.priority, -1));
+					writer = withPriority;
+					writer.bind(BubbleColumns.PRIORITY, StaticUtils.parseIntJSON(b, BubbleJSON.priority, -1));
 				} else if(b.has(BubbleJSON.size)) {
-					values.put(BubbleColumns.PRIORITY,StaticUtils.parseIntJSON(b, BubbleJSON.size, -1));
-				}
-				values.put(BubbleColumns.TITLE_IMAGE_URL, StaticUtils.parseStringJSON(b, BubbleJSON.titleImageUrl, ""));
-				if(b.has(BubbleJSON.links)) {
-					values.put(BubbleColumns.LINKS, b.getJSONArray(BubbleJSON.links).toString());
+					writer = withPriority;
+					writer.bind(BubbleColumns.PRIORITY, StaticUtils.parseIntJSON(b, BubbleJSON.size, -1));
 				}
+				writer.bind(BubbleColumns.TITLE, StaticUtils.parseStringJSON(b, BubbleJSON.title, ""));
+				writer.bind(BubbleColumns.STYLE, StaticUtils.parseStringJSON(b, BubbleJSON.style, ""));
+				writer.bind(BubbleColumns.CONTENTS, StaticUtils.parseStringJSON(b, BubbleJSON.contents, ""));
+				writer.bind(BubbleColumns.TITLE_IMAGE_URL, StaticUtils.parseStringJSON(b, BubbleJSON.titleImageUrl, ""));
+				List<String> contexts;
 				if(b.has(BubbleJSON.context)) {
-					values.put(BubbleColumns.CONTEXT, b.getJSONArray(BubbleJSON.context).toString());
+					JSONArray context = b.getJSONArray(BubbleJSON.context);
+					writer.bind(BubbleColumns.CONTEXT, context.toString());
+					contexts = toList(context);
 				} else {
-					values.put(BubbleColumns.CONTEXT, "[" + BubbleContexts.CMS + "]");
+					writer.bind(BubbleColumns.CONTEXT, "[" + BubbleContexts.CMS + "]");
+					contexts = new ArrayList<String>();
+					contexts.add(BubbleContexts.CMS);
 				}
-				values.put(BubbleColumns.TYPE, StaticUtils.parseStringJSON(b, BubbleJSON.type, ""));
-				values.put(BubbleColumns.DEBUG_ID, StaticUtils.parseStringJSON(b, BubbleJSON.debugID, ""));
-				values.put(BubbleColumns.CONTENT_IMAGE_URL, StaticUtils.parseStringJSON(b, BubbleJSON.contentsImageUrl, ""));
-				values.put(BubbleColumns.LATITUDE, 0);
-				values.put(BubbleColumns.LONGITUDE, 0);
-				values.put(BubbleColumns.X, -1);
-				values.put(BubbleColumns.Y, -1);
-
-				try {
-					db.insertOrThrow(BUBBLE_TABLE, null, values);
-				} catch(SQLException e) {
-					String where = BubbleColumns.ID + " = " + id;
-					db.update(BUBBLE_TABLE, values, where, null);
+				writer.bind(BubbleColumns.TYPE, StaticUtils.parseStringJSON(b, BubbleJSON.type, ""));
+				writer.bind(BubbleColumns.DEBUG_ID, StaticUtils.parseStringJSON(b, BubbleJSON.debugID, ""));
+				writer.bind(BubbleColumns.CONTENT_IMAGE_URL, StaticUtils.parseStringJSON(b, BubbleJSON.contentsImageUrl, ""));
+				writer.bind(BubbleColumns.LATITUDE, 0);
+				writer.bind(BubbleColumns.LONGITUDE, 0);
+				writer.bind(BubbleColumns.X, -1);
+				writer.bind(BubbleColumns.Y, -1);
+				writer.upsert(id);
+
+				writer.replaceContexts(id, contexts);
+				if(b.has(BubbleJSON.links)) {
+					try {
+						writer.replaceLinks(id, IntSet.parse(b.getJSONArray(BubbleJSON.links).toString()));
+					} catch(NumberFormatException e) {
+						Log.w(TAG, "Invalid links for bubble " + id, e);
+					}
 				}
 			}
 		} catch(JSONException e) {
 			e.printStackTrace();
+		} finally {
+			withPriority.close();
+			withoutPriority.close();
 		}
-
-		db.setTransactionSuccessful();
-		db.endTransaction();
 	}
 
+	/**
+	 * Search bubbles by title and contents. Every word of the constraint has
+	 * to match the beginning of a word in the bubble. Bubbles matching all
+	 * words in the title come first, then by priority and title.
+	 * 
+	 * @param constraint
+	 *            Text typed by the user, may be empty
+	 * @return Cursor of at most {@value #SEARCH_LIMIT} bubbles
+	 */
 	public Cursor getBubbleSearch(CharSequence constraint) {
-		SQLiteDatabase db = getReadableDatabase();
-		String sql = "SELECT * FROM " + BUBBLE_TABLE + " WHERE " + 
-		BubbleColumns.TITLE + " LIKE '%"+ constraint + "%' OR " + 
-		BubbleColumns.CONTENTS + " LIKE '%" + constraint+ "%' OR " + 
-		BubbleColumns.CONTEXT + " LIKE '%" + constraint + "%'";
-		Cursor c = db.rawQuery(sql, null);
-		return c;
+		String order = " ORDER BY b." + BubbleColumns.PRIORITY + " DESC, b." + BubbleColumns.TITLE + " LIMIT "
+				+ SEARCH_LIMIT;
+		String match = SearchQuery.toMatch(constraint);
+		if(match == null) {
+			return getReadableDatabase().rawQuery(
+					"SELECT " + BUBBLE_PROJECTION + " FROM " + BUBBLE_TABLE + " b" + order, null);
+		}
+
+		String sql = "SELECT " + BUBBLE_PROJECTION + " FROM " + SEARCH_TABLE + " s JOIN " + BUBBLE_TABLE
+				+ " b ON b." + BubbleColumns.ID + " = s.docid WHERE " + SEARCH_TABLE + " MATCH ? ORDER BY b."
+				+ BubbleColumns.ID + " IN (SELECT docid FROM " + SEARCH_TABLE + " WHERE " + BubbleColumns.TITLE
+				+ " MATCH ?) DESC, b." + BubbleColumns.PRIORITY + " DESC, b." + BubbleColumns.TITLE + " LIMIT "
+				+ SEARCH_LIMIT;
+		return getReadableDatabase().rawQuery(sql, new String[] { match, match });
+	}
+
+	/**
+	 * Writes bubbles with statements compiled once for a whole transaction. A
+	 * bubble is inserted, or updated if its id is already stored, without
+	 * building {@link ContentValues} or throwing for each row. Bind the
+	 * values of the columns given to the constructor, then call
+	 * {@link #upsert(int)}.
+	 */
+	private static class BubbleWriter {
+
+		private final SQLiteDatabase db;
+		private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		private SQLiteStatement insert, update;
+		private SQLiteStatement deleteLinks, insertLink, deleteContexts, insertContext;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param db
+		 *            Database in a transaction
+		 * @param columns
+		 *            Bubble columns written. None if only links and contexts
+		 *            are written.
+		 */
+		BubbleWriter(SQLiteDatabase db, String... columns) {
+			this.db = db;
+			StringBuilder names = new StringBuilder();
+			StringBuilder values = new StringBuilder();
+			StringBuilder set = new StringBuilder();
+			for(String column : columns) {
+				indexes.put(column, indexes.size() + 1);
+				names.append(column).append(", ");
+				values.append("?, ");
+				set.append(set.length() > 0 ? ", " : "").append(column).append(" = ?");
+			}
+			if(indexes.size() > 0) {
+				// Both statements bind the columns first and the id last
+				insert = db.compileStatement("INSERT OR IGNORE INTO " + BUBBLE_TABLE + " (" + names
+						+ BubbleColumns.ID + ") VALUES (" + values + "?)");
+				update = db.compileStatement("UPDATE " + BUBBLE_TABLE + " SET " + set + " WHERE "
+						+ BubbleColumns.ID + " = ?");
+			}
+		}
+
+		private int indexOf(String column) {
+			Integer index = indexes.get(column);
+			if(index == null) {
+				throw new IllegalArgumentException("Column " + column + " is not written");
+			}
+			return index;
+		}
+
+		void bind(String column, String value) {
+			int index = indexOf(column);
+			if(value == null) {
+				insert.bindNull(index);
+				update.bindNull(index);
+			} else {
+				insert.bindString(index, value);
+				update.bindString(index, value);
+			}
+		}
+
+		void bind(String column, long value) {
+			int index = indexOf(column);
+			insert.bindLong(index, value);
+			update.bindLong(index, value);
+		}
+
+		/**
+		 * Bind values of all columns.
+		 * 
+		 * @param values
+		 *            Strings or numbers in the order of the columns
+		 */
+		void bindAll(Object[] values) {
+			for(int i = 0; i < values.length; i++) {
+				Object value = values[i];
+				if(value == null) {
+					insert.bindNull(i + 1);
+					update.bindNull(i + 1);
+				} else if(value instanceof Number) {
+					insert.bindLong(i + 1, ((Number) value).longValue());
+					update.bindLong(i + 1, ((Number) value).longValue());
+				} else {
+					insert.bindString(i + 1, value.toString());
+					update.bindString(i + 1, value.toString());
+				}
+			}
+		}
+
+		/**
+		 * Write the bound values and clear them.
+		 * 
+		 * @param id
+		 * @return True if the bubble was inserted, false if it was updated.
+		 */
+		boolean upsert(int id) {
+			int index = indexes.size() + 1;
+			insert.bindLong(index, id);
+			boolean inserted = insert.executeInsert() != -1;
+			if(!inserted) {
+				update.bindLong(index, id);
+				update.execute();
+			}
+			insert.clearBindings();
+			update.clearBindings();
+			return inserted;
+		}
+
+		/**
+		 * Replace all links from a bubble.
+		 * 
+		 * @param id
+		 * @param links
+		 */
+		void replaceLinks(int id, int[] links) {
+			if(deleteLinks == null) {
+				deleteLinks = db.compileStatement("DELETE FROM " + LINK_TABLE + " WHERE " + LinkColumns.FROM_ID
+						+ " = ?");
+				insertLink = db.compileStatement("INSERT OR IGNORE INTO " + LINK_TABLE + " ("
+						+ LinkColumns.FROM_ID + ", " + LinkColumns.TO_ID + ") VALUES (?, ?)");
+			}
+			deleteLinks.bindLong(1, id);
+			deleteLinks.execute();
+			for(int link : links) {
+				insertLink.bindLong(1, id);
+				insertLink.bindLong(2, link);
+				insertLink.executeInsert();
+			}
+		}
+
+		/**
+		 * Replace all contexts of a bubble.
+		 * 
+		 * @param id
+		 * @param contexts
+		 */
+		void replaceContexts(int id, Collection<String> contexts) {
+			if(deleteContexts == null) {
+				deleteContexts = db.compileStatement("DELETE FROM " + CONTEXT_TABLE + " WHERE "
+						+ ContextColumns.BUBBLE_ID + " = ?");
+				insertContext = db.compileStatement("INSERT OR IGNORE INTO " + CONTEXT_TABLE + " ("
+						+ ContextColumns.BUBBLE_ID + ", " + ContextColumns.CONTEXT + ") VALUES (?, ?)");
+			}
+			deleteContexts.bindLong(1, id);
+			deleteContexts.execute();
+			for(String context : contexts) {
+				insertContext.bindLong(1, id);
+				insertContext.bindString(2, context);
+				insertContext.executeInsert();
+			}
+		}
+
+		/**
+		 * Release the compiled statements.
+		 */
+		void close() {
+			SQLiteStatement[] statements = { insert, update, deleteLinks, insertLink, deleteContexts,
+					insertContext };
+			for(SQLiteStatement statement : statements) {
+				if(statement != null) {
+					statement.close();
+				}
+			}
+		}
 	}
 
 }
@@ -0,0 +1,52 @@
+package fi.android.spacify.db;
+
+/**
+ * Builds full text queries for the bubble search table. Kept free of Android
+ * classes so it can be tested on a plain JVM.
+ */
+final class SearchQuery {
+
+	private SearchQuery() {
+	}
+
+	/**
+	 * Turn typed text into a full text query of prefix terms. Words are split
+	 * like the FTS3 simple tokenizer does: ASCII letters and digits and all
+	 * characters outside ASCII belong to words, everything else separates
+	 * them. Separators are dropped, so quotes and operators typed by the user
+	 * are never interpreted.
+	 * 
+	 * Only A-Z are lower cased. The tokenizer folds nothing else, so lower
+	 * casing a non-ASCII capital like the Finnish A with diaeresis would keep
+	 * the query from matching a title that starts with it.
+	 * 
+	 * @param constraint
+	 * @return Query or null if there are no words in the constraint
+	 */
+	static String toMatch(CharSequence constraint) {
+		if (constraint == null) {
+			return null;
+		}
+		StringBuilder query = new StringBuilder();
+		boolean inWord = false;
+		for (int i = 0; i < constraint.length(); i++) {
+			char c = constraint.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				query.append((char) (c + 'a' - 'A'));
+				inWord = true;
+			} else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c >= 0x80) {
+				query.append(c);
+				inWord = true;
+			} else if (inWord) {
+				query.append("* ");
+				inWord = false;
+			}
+		}
+		if (inWord) {
+			query.append('*');
+		}
+		String match = query.toString().trim();
+		return match.length() > 0 ? match : null;
+	}
+
+}
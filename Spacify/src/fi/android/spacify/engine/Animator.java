@@ -0,0 +1,237 @@
+package fi.android.spacify.engine;
+
+import java.util.ArrayList;
+
+/**
+ * Runs all animations from one place. Tweens are advanced together in a
+ * single pass by whoever drives the frames, instead of each animation running
+ * in its own thread.
+ *
+ * Tweens can be started and cancelled from any thread, also from tween
+ * callbacks. Callbacks are called from the thread calling
+ * {@link #advance(long)}.
+ */
+public class Animator {
+
+	/**
+	 * Maps linear animation progress to eased progress.
+	 */
+	public interface Easing {
+		/**
+		 * @param t
+		 *            Linear progress between 0 and 1
+		 * @return Eased progress, 0 at start and 1 at end.
+		 */
+		public float ease(float t);
+	}
+
+	/**
+	 * Constant speed.
+	 */
+	public static final Easing LINEAR = new Easing() {
+
+		@Override
+		public float ease(float t) {
+			return t;
+		}
+	};
+
+	/**
+	 * Starts slow and accelerates.
+	 */
+	public static final Easing EASE_IN = new Easing() {
+
+		@Override
+		public float ease(float t) {
+			return t * t;
+		}
+	};
+
+	/**
+	 * Starts fast and decelerates.
+	 */
+	public static final Easing EASE_OUT = new Easing() {
+
+		@Override
+		public float ease(float t) {
+			return 1 - (1 - t) * (1 - t);
+		}
+	};
+
+	/**
+	 * Accelerates at start and decelerates at end.
+	 */
+	public static final Easing EASE_IN_OUT = new Easing() {
+
+		@Override
+		public float ease(float t) {
+			return t * t * (3 - 2 * t);
+		}
+	};
+
+	/**
+	 * Listener called when a tween has been started, used for waking up the
+	 * thread driving the animations.
+	 */
+	public interface OnTweenStartedListener {
+		/**
+		 * Called from the thread starting the tween.
+		 */
+		public void onTweenStarted();
+	}
+
+	/**
+	 * One animation of one target.
+	 */
+	public static abstract class Tween {
+
+		private final Object target;
+		private final long duration;
+		private final Easing easing;
+		private long startTime = -1;
+		private volatile boolean cancelled = false;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param target
+		 *            Object animated, used for cancelling
+		 * @param duration
+		 *            Duration in milliseconds
+		 * @param easing
+		 */
+		public Tween(Object target, long duration, Easing easing) {
+			this.target = target;
+			this.duration = Math.max(duration, 1);
+			this.easing = easing;
+		}
+
+		/**
+		 * @return Object animated by this tween.
+		 */
+		public Object getTarget() {
+			return target;
+		}
+
+		/**
+		 * Called on the first frame. Capture start values here.
+		 */
+		protected void onStart() {
+		}
+
+		/**
+		 * Apply animation state.
+		 *
+		 * @param fraction
+		 *            Eased progress between 0 and 1
+		 */
+		protected abstract void onUpdate(float fraction);
+
+		/**
+		 * Called once when the tween has finished or has been cancelled.
+		 *
+		 * @param cancelled
+		 *            True if the tween did not run to the end
+		 */
+		protected void onEnd(boolean cancelled) {
+		}
+
+		/**
+		 * @return True if the tween has ended.
+		 */
+		private boolean advance(long now) {
+			if (cancelled) {
+				onEnd(true);
+				return true;
+			}
+			if (startTime < 0) {
+				startTime = now;
+				onStart();
+			}
+
+			float t = Math.min(1f, (float) (now - startTime) / duration);
+			onUpdate(easing.ease(t));
+			if (t >= 1) {
+				onEnd(false);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final ArrayList<Tween> pending = new ArrayList<Tween>();
+	private final ArrayList<Tween> active = new ArrayList<Tween>();
+	private OnTweenStartedListener listener;
+
+	/**
+	 * @param listener
+	 *            Listener informed when a tween is started
+	 */
+	public void setOnTweenStartedListener(OnTweenStartedListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Start tween on the next frame.
+	 *
+	 * @param tween
+	 */
+	public void start(Tween tween) {
+		synchronized (pending) {
+			pending.add(tween);
+		}
+		OnTweenStartedListener l = listener;
+		if (l != null) {
+			l.onTweenStarted();
+		}
+	}
+
+	/**
+	 * Cancel all tweens of a target. Cancelled tweens get their
+	 * {@link Tween#onEnd(boolean)} call on the next frame and do not update
+	 * the target anymore.
+	 *
+	 * @param target
+	 */
+	public void cancel(Object target) {
+		synchronized (pending) {
+			for (Tween t : pending) {
+				if (t.target == target) {
+					t.cancelled = true;
+				}
+			}
+			for (Tween t : active) {
+				if (t.target == target) {
+					t.cancelled = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Advance all tweens to the given time.
+	 *
+	 * @param now
+	 *            Time in milliseconds
+	 * @return True if some tweens are still running.
+	 */
+	public boolean advance(long now) {
+		synchronized (pending) {
+			active.addAll(pending);
+			pending.clear();
+
+			int kept = 0;
+			for (int i = 0; i < active.size(); i++) {
+				Tween t = active.get(i);
+				if (!t.advance(now)) {
+					active.set(kept++, t);
+				}
+			}
+			while (active.size() > kept) {
+				active.remove(active.size() - 1);
+			}
+			return kept > 0 || !pending.isEmpty();
+		}
+	}
+
+}
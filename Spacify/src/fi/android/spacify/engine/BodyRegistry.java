@@ -0,0 +1,311 @@
+package fi.android.spacify.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copy on write registry of bodies by id.
+ *
+ * Readers take an immutable {@link Snapshot} and iterate it without any
+ * locking. Writers collect additions and removals into an {@link Editor} and
+ * publish a new snapshot with an atomic swap. Writers are serialized among
+ * themselves but never wait for readers, and readers never see a half made
+ * change.
+ *
+ * @param <T>
+ *            Type of the bodies.
+ */
+public class BodyRegistry<T> {
+
+	/**
+	 * Immutable version of the registry contents.
+	 *
+	 * @param <T>
+	 *            Type of the bodies.
+	 */
+	public static class Snapshot<T> implements Iterable<T> {
+
+		private final Object[] bodies;
+		private final int[] ids;
+		private final int size;
+		private final IntIntMap index;
+		private final long version;
+
+		private Snapshot(Object[] bodies, int[] ids, int size, long version) {
+			this.bodies = bodies;
+			this.ids = ids;
+			this.size = size;
+			this.version = version;
+			index = new IntIntMap(size);
+			for (int i = 0; i < size; i++) {
+				index.put(ids[i], i);
+			}
+		}
+
+		/**
+		 * @return Number of bodies.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @param i
+		 * @return Body at index i.
+		 */
+		@SuppressWarnings("unchecked")
+		public T body(int i) {
+			return (T) bodies[i];
+		}
+
+		/**
+		 * @param i
+		 * @return Id of the body at index i.
+		 */
+		public int id(int i) {
+			return ids[i];
+		}
+
+		/**
+		 * @param id
+		 * @return Body with given id or null if it is not in this snapshot.
+		 */
+		public T get(int id) {
+			int i = index.get(id, -1);
+			return i != -1 ? body(i) : null;
+		}
+
+		/**
+		 * @param id
+		 * @return True if body with given id is in this snapshot.
+		 */
+		public boolean contains(int id) {
+			return index.containsKey(id);
+		}
+
+		/**
+		 * @return Version number, grows with every published change.
+		 */
+		public long version() {
+			return version;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < size;
+				}
+
+				@Override
+				public T next() {
+					if (next >= size) {
+						throw new NoSuchElementException();
+					}
+					return body(next++);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("Snapshot is immutable");
+				}
+			};
+		}
+	}
+
+	/**
+	 * Batch of additions and removals applied with one swap. Operations are
+	 * applied in the order they were made.
+	 */
+	public class Editor {
+
+		private final IntList ids = new IntList();
+		private final ArrayList<T> bodies = new ArrayList<T>();
+		/**
+		 * 1 for operations that only add a body not there yet, 0 otherwise.
+		 */
+		private final IntList onlyIfAbsent = new IntList();
+
+		private Editor() {
+		}
+
+		/**
+		 * Add body or replace the body with the same id.
+		 *
+		 * @param id
+		 * @param body
+		 * @return This editor
+		 */
+		public Editor put(int id, T body) {
+			if (body == null) {
+				throw new NullPointerException("body");
+			}
+			ids.add(id);
+			bodies.add(body);
+			onlyIfAbsent.add(0);
+			return this;
+		}
+
+		/**
+		 * Add body unless there is a body with the same id, in the registry
+		 * or put earlier in this batch. Check {@link Snapshot#get(int)} of the
+		 * committed snapshot to see whether the body was added.
+		 *
+		 * @param id
+		 * @param body
+		 * @return This editor
+		 */
+		public Editor putIfAbsent(int id, T body) {
+			put(id, body);
+			onlyIfAbsent.set(onlyIfAbsent.size() - 1, 1);
+			return this;
+		}
+
+		/**
+		 * Remove body.
+		 *
+		 * @param id
+		 * @return This editor
+		 */
+		public Editor remove(int id) {
+			ids.add(id);
+			bodies.add(null);
+			onlyIfAbsent.add(0);
+			return this;
+		}
+
+		/**
+		 * Publish all changes made with this editor.
+		 *
+		 * @return The published snapshot
+		 */
+		public Snapshot<T> commit() {
+			return BodyRegistry.this.commit(this);
+		}
+	}
+
+	private final AtomicReference<Snapshot<T>> current = new AtomicReference<Snapshot<T>>(new Snapshot<T>(
+			new Object[0], new int[0], 0, 0));
+	private final Object writeLock = new Object();
+
+	/**
+	 * @return Current contents. Never changes after it has been returned.
+	 */
+	public Snapshot<T> snapshot() {
+		return current.get();
+	}
+
+	/**
+	 * @param id
+	 * @return Body with given id in the current snapshot or null.
+	 */
+	public T get(int id) {
+		return current.get().get(id);
+	}
+
+	/**
+	 * @return Editor for making a batch of changes.
+	 */
+	public Editor edit() {
+		return new Editor();
+	}
+
+	/**
+	 * Add body unless there already is a body with the same id.
+	 *
+	 * @param id
+	 * @param body
+	 * @return True if body was added.
+	 */
+	public boolean putIfAbsent(int id, T body) {
+		synchronized (writeLock) {
+			if (current.get().contains(id)) {
+				return false;
+			}
+			edit().put(id, body).commit();
+			return true;
+		}
+	}
+
+	/**
+	 * Remove body.
+	 *
+	 * @param id
+	 * @return Removed body or null if there was no body with the id.
+	 */
+	public T remove(int id) {
+		synchronized (writeLock) {
+			T removed = current.get().get(id);
+			if (removed != null) {
+				edit().remove(id).commit();
+			}
+			return removed;
+		}
+	}
+
+	/**
+	 * Remove all bodies.
+	 */
+	public void clear() {
+		synchronized (writeLock) {
+			Snapshot<T> base = current.get();
+			current.set(new Snapshot<T>(new Object[0], new int[0], 0, base.version + 1));
+		}
+	}
+
+	private Snapshot<T> commit(Editor editor) {
+		synchronized (writeLock) {
+			Snapshot<T> base = current.get();
+			int ops = editor.ids.size();
+			if (ops == 0) {
+				return base;
+			}
+
+			// Last operation for each id wins, adds of ids already there are
+			// skipped
+			IntIntMap last = new IntIntMap(ops);
+			for (int op = 0; op < ops; op++) {
+				int id = editor.ids.get(op);
+				if (editor.onlyIfAbsent.get(op) == 1) {
+					int previous = last.get(id, -1);
+					boolean present = previous != -1 ? editor.bodies.get(previous) != null : base.contains(id);
+					if (present) {
+						continue;
+					}
+				}
+				last.put(id, op);
+			}
+
+			Object[] bodies = new Object[base.size + ops];
+			int[] ids = new int[base.size + ops];
+			int size = 0;
+			for (int i = 0; i < base.size; i++) {
+				if (!last.containsKey(base.ids[i])) {
+					bodies[size] = base.bodies[i];
+					ids[size] = base.ids[i];
+					size += 1;
+				}
+			}
+			for (int op = 0; op < ops; op++) {
+				int id = editor.ids.get(op);
+				T body = editor.bodies.get(op);
+				if (body != null && last.get(id, -1) == op) {
+					bodies[size] = body;
+					ids[size] = id;
+					size += 1;
+				}
+			}
+
+			Snapshot<T> snapshot = new Snapshot<T>(bodies, ids, size, base.version + 1);
+			current.set(snapshot);
+			return snapshot;
+		}
+	}
+
+}
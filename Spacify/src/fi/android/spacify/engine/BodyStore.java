@@ -0,0 +1,228 @@
+package fi.android.spacify.engine;
+
+/**
+ * Packed state of the simulated bodies. Id, position, radius, state and flags
+ * are kept in parallel primitive columns indexed by a slot number, so the
+ * physics and draw loops read contiguous arrays instead of following
+ * references to scattered objects.
+ *
+ * Columns are split into fixed size pages. Adding pages only copies the page
+ * table, so a value written from another thread while the store grows is
+ * never lost. Values can be read and written from any thread. Slots are
+ * allocated and freed by one thread at a time, normally the simulation
+ * thread, which is also the only thread allowed to call {@link #slotOf(int)}.
+ */
+public class BodyStore {
+
+	/**
+	 * Slot number of a body that is not in the store.
+	 */
+	public static final int NO_SLOT = -1;
+
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private static class Page {
+		final int[] id = new int[PAGE_SIZE];
+		final int[] x = new int[PAGE_SIZE];
+		final int[] y = new int[PAGE_SIZE];
+		final float[] radius = new float[PAGE_SIZE];
+		final int[] state = new int[PAGE_SIZE];
+		final int[] flags = new int[PAGE_SIZE];
+	}
+
+	private volatile Page[] pages = new Page[0];
+	private final IntList freeSlots = new IntList();
+	private final IntIntMap slots = new IntIntMap();
+	private int slotCount = 0;
+
+	/**
+	 * Reserve a slot for a body. Freed slots are reused before new ones are
+	 * taken, which keeps the used slots dense.
+	 *
+	 * @param id
+	 *            Id of the body
+	 * @return Slot number
+	 */
+	public int allocate(int id) {
+		int slot;
+		if (freeSlots.size() > 0) {
+			slot = freeSlots.removeLast();
+		} else {
+			slot = slotCount++;
+			if ((slot >> PAGE_BITS) >= pages.length) {
+				Page[] grown = new Page[pages.length + 1];
+				System.arraycopy(pages, 0, grown, 0, pages.length);
+				grown[pages.length] = new Page();
+				pages = grown;
+			}
+		}
+
+		Page p = pages[slot >> PAGE_BITS];
+		int i = slot & PAGE_MASK;
+		p.id[i] = id;
+		p.x[i] = 0;
+		p.y[i] = 0;
+		p.radius[i] = 0;
+		p.state[i] = 0;
+		p.flags[i] = 0;
+		slots.put(id, slot);
+		return slot;
+	}
+
+	/**
+	 * Give a slot back for reuse.
+	 *
+	 * @param slot
+	 */
+	public void free(int slot) {
+		slots.remove(getId(slot), NO_SLOT);
+		freeSlots.add(slot);
+	}
+
+	/**
+	 * @param id
+	 * @return Slot of the body with given id or {@link #NO_SLOT}.
+	 */
+	public int slotOf(int id) {
+		return slots.get(id, NO_SLOT);
+	}
+
+	/**
+	 * @return Number of bodies in the store.
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Slots below this number have been handed out and can be read and
+	 * written, also the ones freed since. Called from the thread allocating
+	 * slots.
+	 *
+	 * @return Number of slots handed out so far.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * @param slot
+	 * @return Id of the body in the slot.
+	 */
+	public int getId(int slot) {
+		return pages[slot >> PAGE_BITS].id[slot & PAGE_MASK];
+	}
+
+	/**
+	 * @param slot
+	 * @return X coordinate
+	 */
+	public int getX(int slot) {
+		return pages[slot >> PAGE_BITS].x[slot & PAGE_MASK];
+	}
+
+	/**
+	 * @param slot
+	 * @param x
+	 */
+	public void setX(int slot, int x) {
+		pages[slot >> PAGE_BITS].x[slot & PAGE_MASK] = x;
+	}
+
+	/**
+	 * @param slot
+	 * @return Y coordinate
+	 */
+	public int getY(int slot) {
+		return pages[slot >> PAGE_BITS].y[slot & PAGE_MASK];
+	}
+
+	/**
+	 * @param slot
+	 * @param y
+	 */
+	public void setY(int slot, int y) {
+		pages[slot >> PAGE_BITS].y[slot & PAGE_MASK] = y;
+	}
+
+	/**
+	 * @param slot
+	 * @return Radius
+	 */
+	public float getRadius(int slot) {
+		return pages[slot >> PAGE_BITS].radius[slot & PAGE_MASK];
+	}
+
+	/**
+	 * @param slot
+	 * @param radius
+	 */
+	public void setRadius(int slot, float radius) {
+		pages[slot >> PAGE_BITS].radius[slot & PAGE_MASK] = radius;
+	}
+
+	/**
+	 * @param slot
+	 * @return Movement state
+	 */
+	public int getState(int slot) {
+		return pages[slot >> PAGE_BITS].state[slot & PAGE_MASK];
+	}
+
+	/**
+	 * @param slot
+	 * @param state
+	 */
+	public void setState(int slot, int state) {
+		pages[slot >> PAGE_BITS].state[slot & PAGE_MASK] = state;
+	}
+
+	/**
+	 * @param slot
+	 * @return All flags of the body.
+	 */
+	public int getFlags(int slot) {
+		return pages[slot >> PAGE_BITS].flags[slot & PAGE_MASK];
+	}
+
+	/**
+	 * @param slot
+	 * @param flag
+	 * @return True if the flag is set.
+	 */
+	public boolean hasFlag(int slot, int flag) {
+		return (getFlags(slot) & flag) != 0;
+	}
+
+	/**
+	 * Set or clear flags.
+	 *
+	 * @param slot
+	 * @param flag
+	 *            Bits to change
+	 * @param set
+	 *            True to set the bits, false to clear them
+	 */
+	public synchronized void setFlag(int slot, int flag, boolean set) {
+		Page p = pages[slot >> PAGE_BITS];
+		int i = slot & PAGE_MASK;
+		if (set) {
+			p.flags[i] |= flag;
+		} else {
+			p.flags[i] &= ~flag;
+		}
+	}
+
+	/**
+	 * Overwrite all flags.
+	 *
+	 * @param slot
+	 * @param flags
+	 */
+	public synchronized void setFlags(int slot, int flags) {
+		pages[slot >> PAGE_BITS].flags[slot & PAGE_MASK] = flags;
+	}
+
+}
@@ -0,0 +1,216 @@
+package fi.android.spacify.engine;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Collision broad phase. Finds the bodies of a {@link SpatialGrid} that may
+ * overlap each of a batch of query circles.
+ *
+ * Large batches are split into contiguous chunks searched in parallel on all
+ * cores. Candidates of each query are kept in their own list in a fixed order,
+ * so the result does not depend on the number of threads and the narrow phase
+ * processing the queries in order stays deterministic.
+ *
+ * Queries are added and run from one thread. The grid must not be modified
+ * while {@link #run()} is executing.
+ */
+public class BroadPhase {
+
+	/**
+	 * Smaller batches are searched in the calling thread, handing them over
+	 * costs more than searching.
+	 */
+	private static final int MIN_PARALLEL_QUERIES = 64;
+
+	private final SpatialGrid grid;
+	private final int threads;
+	private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+	private final ArrayList<Future<?>> running = new ArrayList<Future<?>>();
+	private volatile boolean sequential = false;
+	private ExecutorService executor;
+
+	private float[] x = new float[64], y = new float[64], radius = new float[64];
+	private IntList[] candidates = new IntList[0];
+	private int count = 0;
+
+	/**
+	 * Search queries of one thread.
+	 */
+	private class Chunk implements Runnable {
+		private final int index;
+
+		Chunk(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			search(count * index / threads, count * (index + 1) / threads);
+		}
+	}
+
+	/**
+	 * Constructor using all available cores.
+	 *
+	 * @param grid
+	 */
+	public BroadPhase(SpatialGrid grid) {
+		this(grid, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param grid
+	 * @param threads
+	 *            Number of threads searching in parallel, including the
+	 *            calling thread
+	 */
+	public BroadPhase(SpatialGrid grid, int threads) {
+		this.grid = grid;
+		this.threads = Math.max(threads, 1);
+		for (int i = 0; i < this.threads; i++) {
+			chunks.add(new Chunk(i));
+		}
+	}
+
+	/**
+	 * @param sequential
+	 *            True to search all queries in the calling thread.
+	 */
+	public void setSequential(boolean sequential) {
+		this.sequential = sequential;
+	}
+
+	/**
+	 * @return True if all queries are searched in the calling thread.
+	 */
+	public boolean isSequential() {
+		return sequential || threads == 1;
+	}
+
+	/**
+	 * Remove all queries.
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Add query circle.
+	 *
+	 * @param qx
+	 * @param qy
+	 * @param qRadius
+	 */
+	public void add(float qx, float qy, float qRadius) {
+		if (count == x.length) {
+			x = grow(x);
+			y = grow(y);
+			radius = grow(radius);
+		}
+		x[count] = qx;
+		y[count] = qy;
+		radius[count] = qRadius;
+		count += 1;
+	}
+
+	/**
+	 * @return Number of queries.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Search candidates of all queries.
+	 */
+	public void run() {
+		if (candidates.length < count) {
+			IntList[] grown = new IntList[Math.max(count, candidates.length * 2)];
+			System.arraycopy(candidates, 0, grown, 0, candidates.length);
+			for (int i = candidates.length; i < grown.length; i++) {
+				grown[i] = new IntList();
+			}
+			candidates = grown;
+		}
+
+		if (isSequential() || count < MIN_PARALLEL_QUERIES) {
+			search(0, count);
+			return;
+		}
+
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BroadPhase");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		running.clear();
+		for (int i = 1; i < threads; i++) {
+			running.add(executor.submit(chunks.get(i)));
+		}
+		chunks.get(0).run();
+
+		// Chunks are short, finish them even if interrupted so no worker
+		// writes to the results after returning
+		boolean interrupted = false;
+		for (Future<?> f : running) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Broad phase failed", e.getCause());
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param query
+	 *            Index of the query in the order they were added
+	 * @return Ids of the bodies overlapping the query circle.
+	 */
+	public IntList candidates(int query) {
+		return candidates[query];
+	}
+
+	/**
+	 * Stop the worker threads. They are started again when needed.
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private void search(int from, int to) {
+		for (int i = from; i < to; i++) {
+			grid.queryCircleConcurrent(x[i], y[i], radius[i], candidates[i]);
+		}
+	}
+
+	private static float[] grow(float[] array) {
+		float[] grown = new float[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+}
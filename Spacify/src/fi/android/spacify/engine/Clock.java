@@ -0,0 +1,26 @@
+package fi.android.spacify.engine;
+
+/**
+ * Source of time for the simulation. The surface runs on the system clock,
+ * replays and benchmarks use a {@link ManualClock} so every run steps the same
+ * way.
+ */
+public interface Clock {
+
+	/**
+	 * Wall clock time.
+	 */
+	public static final Clock SYSTEM = new Clock() {
+
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * @return Current time in milliseconds.
+	 */
+	public long now();
+
+}
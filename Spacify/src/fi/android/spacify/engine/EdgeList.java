@@ -0,0 +1,182 @@
+package fi.android.spacify.engine;
+
+import java.util.Arrays;
+
+/**
+ * De-duplicated list of undirected edges between integer ids.
+ *
+ * Links are directed on the bodies themselves (a links to b, b links to a).
+ * Both directions map to the same undirected edge which is kept as long as at
+ * least one direction exists, so each edge is stored and drawn exactly once.
+ * Edges are kept in dense arrays for fast iteration and indexed by a hash
+ * table for constant time updates.
+ */
+public class EdgeList {
+
+	private int[] first, second, directions;
+	private int size = 0;
+
+	private int[] table;
+	private int mask;
+
+	/**
+	 * Constructor.
+	 */
+	public EdgeList() {
+		first = new int[16];
+		second = new int[16];
+		directions = new int[16];
+		allocateTable(32);
+	}
+
+	/**
+	 * Add the directed link from -> to.
+	 *
+	 * @param from
+	 * @param to
+	 * @return True if a new undirected edge was created.
+	 */
+	public boolean addDirected(int from, int to) {
+		if (from == to) {
+			return false;
+		}
+
+		int a = Math.min(from, to), b = Math.max(from, to);
+		int slot = slot(a, b);
+		if (table[slot] != -1) {
+			directions[table[slot]] += 1;
+			return false;
+		}
+
+		if (size == first.length) {
+			first = Arrays.copyOf(first, size * 2);
+			second = Arrays.copyOf(second, size * 2);
+			directions = Arrays.copyOf(directions, size * 2);
+		}
+		first[size] = a;
+		second[size] = b;
+		directions[size] = 1;
+		table[slot] = size;
+		size += 1;
+
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the directed link from -> to.
+	 *
+	 * @param from
+	 * @param to
+	 * @return True if the undirected edge was removed because neither
+	 *         direction exists anymore.
+	 */
+	public boolean removeDirected(int from, int to) {
+		int a = Math.min(from, to), b = Math.max(from, to);
+		int slot = slot(a, b);
+		int edge = table[slot];
+		if (edge == -1) {
+			return false;
+		}
+
+		directions[edge] -= 1;
+		if (directions[edge] > 0) {
+			return false;
+		}
+
+		removeSlot(slot);
+
+		// Move the last edge into the freed position
+		int last = size - 1;
+		if (edge != last) {
+			table[slot(first[last], second[last])] = edge;
+			first[edge] = first[last];
+			second[edge] = second[last];
+			directions[edge] = directions[last];
+		}
+		size -= 1;
+		return true;
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return True if there is an edge between a and b.
+	 */
+	public boolean contains(int a, int b) {
+		return table[slot(Math.min(a, b), Math.max(a, b))] != -1;
+	}
+
+	/**
+	 * @return Number of undirected edges.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 * @return Smaller id of edge i.
+	 */
+	public int first(int i) {
+		return first[i];
+	}
+
+	/**
+	 * @param i
+	 * @return Larger id of edge i.
+	 */
+	public int second(int i) {
+		return second[i];
+	}
+
+	/**
+	 * Remove all edges.
+	 */
+	public void clear() {
+		size = 0;
+		Arrays.fill(table, -1);
+	}
+
+	private int slot(int a, int b) {
+		int i = hash(a, b) & mask;
+		while (table[i] != -1 && (first[table[i]] != a || second[table[i]] != b)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void removeSlot(int slot) {
+		table[slot] = -1;
+
+		// Re-insert the rest of the cluster so that probing still finds them.
+		int j = (slot + 1) & mask;
+		while (table[j] != -1) {
+			int edge = table[j];
+			table[j] = -1;
+			table[slot(first[edge], second[edge])] = edge;
+			j = (j + 1) & mask;
+		}
+	}
+
+	private void rehash(int capacity) {
+		allocateTable(capacity);
+		for (int i = 0; i < size; i++) {
+			table[slot(first[i], second[i])] = i;
+		}
+	}
+
+	private void allocateTable(int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, -1);
+		mask = capacity - 1;
+	}
+
+	private static int hash(int a, int b) {
+		int h = (a * 0x9E3779B9) ^ (b * 0x85EBCA6B);
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,162 @@
+package fi.android.spacify.engine;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive int keys to primitive int values.
+ * Lookups do not allocate, which makes it usable inside per frame loops.
+ */
+public class IntIntMap {
+
+	private int[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size = 0;
+	private int mask;
+
+	/**
+	 * Constructor.
+	 */
+	public IntIntMap() {
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            Expected number of entries
+	 */
+	public IntIntMap(int capacity) {
+		allocate(tableSize(capacity));
+	}
+
+	/**
+	 * Put value for key. Replaces the old value if key already exists.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(int key, int value) {
+		if ((size + 1) * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+
+		int i = slot(key);
+		if (!used[i]) {
+			used[i] = true;
+			keys[i] = key;
+			size += 1;
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * Get value for key.
+	 *
+	 * @param key
+	 * @param defValue
+	 * @return Stored value or defValue if key is not found.
+	 */
+	public int get(int key, int defValue) {
+		int i = slot(key);
+		return used[i] ? values[i] : defValue;
+	}
+
+	/**
+	 * @param key
+	 * @return True if key has a value.
+	 */
+	public boolean containsKey(int key) {
+		return used[slot(key)];
+	}
+
+	/**
+	 * Remove key from the map.
+	 *
+	 * @param key
+	 * @param defValue
+	 * @return Removed value or defValue if key was not found.
+	 */
+	public int remove(int key, int defValue) {
+		int i = slot(key);
+		if (!used[i]) {
+			return defValue;
+		}
+		int value = values[i];
+		used[i] = false;
+		size -= 1;
+
+		// Re-insert the rest of the cluster so that probing still finds them.
+		int j = (i + 1) & mask;
+		while (used[j]) {
+			int k = keys[j];
+			int v = values[j];
+			used[j] = false;
+			size -= 1;
+			put(k, v);
+			j = (j + 1) & mask;
+		}
+		return value;
+	}
+
+	/**
+	 * @return Number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all entries but keep the allocated storage.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(used, false);
+			size = 0;
+		}
+	}
+
+	private int slot(int key) {
+		int i = mix(key) & mask;
+		while (used[i] && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+
+		allocate(capacity);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int tableSize(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,95 @@
+package fi.android.spacify.engine;
+
+/**
+ * Growable list of primitive integers. Used by the engine so that queries and
+ * hot loops do not have to box every id into an {@link Integer}.
+ */
+public class IntList {
+
+	private int[] values;
+	private int size = 0;
+
+	/**
+	 * Constructor.
+	 */
+	public IntList() {
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            Initial capacity
+	 */
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Append value to the end of the list.
+	 *
+	 * @param value
+	 */
+	public void add(int value) {
+		if (size == values.length) {
+			int[] grown = new int[values.length * 2];
+			System.arraycopy(values, 0, grown, 0, size);
+			values = grown;
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * Get value at index.
+	 *
+	 * @param index
+	 * @return Value at index
+	 */
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		return values[index];
+	}
+
+	/**
+	 * Replace value at index.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	public void set(int index, int value) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		values[index] = value;
+	}
+
+	/**
+	 * Remove the last value.
+	 *
+	 * @return Removed value
+	 */
+	public int removeLast() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException("List is empty");
+		}
+		return values[--size];
+	}
+
+	/**
+	 * @return Number of values in this list.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empties the list but keeps the allocated storage.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+}
@@ -0,0 +1,169 @@
+package fi.android.spacify.engine;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of primitive integers, used for the links of a bubble.
+ *
+ * Values are kept in a sorted array that is replaced on every change, so
+ * {@link #contains(int)} is a binary search and {@link #values()} can be
+ * iterated without locking or allocating while other threads modify the set.
+ * Changes copy the array, which is fine for links that change on touch but
+ * are read on every frame.
+ */
+public class IntSet {
+
+	private static final int[] EMPTY = new int[0];
+
+	private volatile int[] values = EMPTY;
+
+	/**
+	 * Add value.
+	 *
+	 * @param value
+	 * @return True if the value was not in the set before.
+	 */
+	public synchronized boolean add(int value) {
+		int[] current = values;
+		int i = Arrays.binarySearch(current, value);
+		if (i >= 0) {
+			return false;
+		}
+		i = -i - 1;
+		int[] changed = new int[current.length + 1];
+		System.arraycopy(current, 0, changed, 0, i);
+		changed[i] = value;
+		System.arraycopy(current, i, changed, i + 1, current.length - i);
+		values = changed;
+		return true;
+	}
+
+	/**
+	 * Remove value.
+	 *
+	 * @param value
+	 * @return True if the value was in the set.
+	 */
+	public synchronized boolean remove(int value) {
+		int[] current = values;
+		int i = Arrays.binarySearch(current, value);
+		if (i < 0) {
+			return false;
+		}
+		int[] changed = new int[current.length - 1];
+		System.arraycopy(current, 0, changed, 0, i);
+		System.arraycopy(current, i + 1, changed, i, current.length - i - 1);
+		values = changed;
+		return true;
+	}
+
+	/**
+	 * Replace all values.
+	 *
+	 * @param newValues
+	 *            Values in any order, duplicates are dropped. The array is not
+	 *            kept.
+	 * @return Values before the change.
+	 */
+	public synchronized int[] set(int[] newValues) {
+		int[] old = values;
+		values = sortedUnique(newValues, newValues.length);
+		return old;
+	}
+
+	/**
+	 * @param value
+	 * @return True if the value is in the set.
+	 */
+	public boolean contains(int value) {
+		return Arrays.binarySearch(values, value) >= 0;
+	}
+
+	/**
+	 * @return Number of values.
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Current values in ascending order. The array is never modified after it
+	 * has been returned, and must not be modified by the caller either.
+	 *
+	 * @return Values in ascending order.
+	 */
+	public int[] values() {
+		return values;
+	}
+
+	/**
+	 * @return Values as a JSON array, for example [1,5,9].
+	 */
+	@Override
+	public String toString() {
+		int[] current = values;
+		StringBuilder sb = new StringBuilder(current.length * 4 + 2);
+		sb.append('[');
+		for (int i = 0; i < current.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(current[i]);
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Parse integers written by {@link #toString()}, or any JSON array of
+	 * integers.
+	 *
+	 * @param text
+	 *            Text to parse, null is handled as an empty array.
+	 * @return Values in ascending order without duplicates.
+	 * @throws NumberFormatException
+	 *             If text contains something else than integers.
+	 */
+	public static int[] parse(String text) {
+		if (text == null) {
+			return EMPTY;
+		}
+		int[] parsed = new int[8];
+		int count = 0;
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ',';
+			if ((c >= '0' && c <= '9') || c == '-') {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (c == ',' || c == ']' || c == '[' || c == ' ' || c == '"') {
+				if (start != -1) {
+					if (count == parsed.length) {
+						parsed = Arrays.copyOf(parsed, count * 2);
+					}
+					parsed[count++] = Integer.parseInt(text.substring(start, i));
+					start = -1;
+				}
+			} else {
+				throw new NumberFormatException("Not an integer array: " + text);
+			}
+		}
+		return sortedUnique(parsed, count);
+	}
+
+	private static int[] sortedUnique(int[] source, int length) {
+		if (length == 0) {
+			return EMPTY;
+		}
+		int[] sorted = Arrays.copyOf(source, length);
+		Arrays.sort(sorted);
+		int unique = 1;
+		for (int i = 1; i < length; i++) {
+			if (sorted[i] != sorted[unique - 1]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+		return unique == length ? sorted : Arrays.copyOf(sorted, unique);
+	}
+
+}
@@ -0,0 +1,46 @@
+package fi.android.spacify.engine;
+
+/**
+ * Clock that only moves when told to.
+ */
+public class ManualClock implements Clock {
+
+	private volatile long now;
+
+	/**
+	 * Constructor. Starts from zero.
+	 */
+	public ManualClock() {
+		this(0);
+	}
+
+	/**
+	 * @param start
+	 *            Start time in milliseconds
+	 */
+	public ManualClock(long start) {
+		now = start;
+	}
+
+	@Override
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * @param time
+	 *            New time in milliseconds
+	 */
+	public void set(long time) {
+		now = time;
+	}
+
+	/**
+	 * @param millis
+	 *            Milliseconds to move forward
+	 */
+	public synchronized void advance(long millis) {
+		now += millis;
+	}
+
+}
@@ -0,0 +1,868 @@
+package fi.android.spacify.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Bubble movement and collisions without any drawing. Steps dragged bodies,
+ * collision pushes and animations on a fixed tick, reading time from a
+ * {@link Clock} and random numbers from a seeded generator. Given the same
+ * clock readings, seed and input the world always ends up in the same state,
+ * so it can be run on a plain JVM for replays and measurements.
+ *
+ * Bodies that have not moved for {@link #REST_TICKS} fall asleep. Sleeping
+ * bodies cost nothing per tick; they are woken when a pushed or dragged body
+ * reaches them or when they are moved from outside, so the work done every
+ * tick follows the number of moving bodies instead of all of them.
+ *
+ * {@link #advance()}, {@link #step()} and the methods adding and removing
+ * bodies are called from one simulation thread. Dragging, settling and the
+ * side slots can be used from any thread.
+ */
+public class PhysicsWorld {
+
+	/**
+	 * Body is not moving.
+	 */
+	public static final int INERT = 0;
+	/**
+	 * Body is dragged by the user.
+	 */
+	public static final int MOVING = 1;
+	/**
+	 * Body is pushed or animated.
+	 */
+	public static final int AUTOMATIC = 2;
+
+	/**
+	 * Body is parked in a side slot. Cleared when another body pushes it.
+	 */
+	public static final int FLAG_LOCKED = 1;
+	/**
+	 * Body has touched another dragged body during the current drag.
+	 */
+	public static final int FLAG_TOUCHED = 2;
+
+	/**
+	 * Length of one simulation tick in milliseconds.
+	 */
+	public static final int STEP = 1000 / 60;
+
+	/**
+	 * If the simulation falls further behind than this it skips the missed
+	 * ticks instead of trying to catch up.
+	 */
+	private static final int MAX_LAG = 5 * STEP;
+
+	/**
+	 * Relaxation passes over the pushed bodies in one tick. Each pass resolves
+	 * the overlaps caused by the previous one.
+	 */
+	private static final int SOLVER_ITERATIONS = 4;
+
+	/**
+	 * Maximum number of body pairs checked for overlap in one tick. Pushes
+	 * left over carry to the next tick.
+	 */
+	private static final int MAX_CONTACTS_PER_STEP = 2000;
+
+	/**
+	 * Ticks a body has to stay in place before it falls asleep.
+	 */
+	public static final int REST_TICKS = 30;
+
+	/**
+	 * Cell size of the spatial index. Roughly the diameter of a normal sized
+	 * bubble.
+	 */
+	private static final int GRID_CELL_SIZE = 128;
+
+	/**
+	 * Size of the area used for random positions before bounds are known.
+	 */
+	private static final int DEFAULT_AREA = 400;
+
+	/**
+	 * Informed about events of the simulation. Called from the simulation
+	 * thread.
+	 */
+	public interface Listener {
+		/**
+		 * Called at the start of every tick, before drags and collisions are
+		 * applied. Bodies can be added and removed here.
+		 */
+		public void onStep();
+
+		/**
+		 * Two dragged bodies touched each other. Called once per drag.
+		 *
+		 * @param first
+		 *            Id of the body that moved into the other one
+		 * @param second
+		 *            Id of the other body
+		 */
+		public void onTouched(int first, int second);
+	}
+
+	private final BodyStore store;
+	private final Animator animator;
+	private final SpatialGrid grid = new SpatialGrid(GRID_CELL_SIZE);
+	private final BroadPhase broadPhase = new BroadPhase(grid);
+	private final SideSlots sideSlots = new SideSlots();
+	private volatile Clock clock = Clock.SYSTEM;
+	private volatile Random random = new Random();
+	private Listener listener;
+
+	private volatile int minX = 0, minY = 0, maxX = 0, maxY = 0;
+	private long previous = -1;
+	private long lag = 0;
+	private volatile boolean settleRequested = false;
+
+	private IntList pushQueue = new IntList();
+	private IntList pushing = new IntList();
+	/**
+	 * Ids in {@link #pushQueue}, so each body is queued once.
+	 */
+	private final IntIntMap queuedPushes = new IntIntMap();
+	private final IntList solverBatch = new IntList();
+
+	/**
+	 * Regions bodies are kept out of. Replaced, never modified.
+	 */
+	private volatile ReservedRegion[] regions = new ReservedRegion[0];
+	private final IntList regionHits = new IntList();
+	private final int[] regionBounds = new int[4];
+
+	/**
+	 * Ids of the bodies that are awake. Owned by the simulation thread.
+	 */
+	private final IntList awake = new IntList();
+	/**
+	 * Ticks each awake body has stayed in place, by id.
+	 */
+	private final IntIntMap restTicks = new IntIntMap();
+	/**
+	 * Body and bounds each slot had when last seen by {@link #moved(int)}.
+	 */
+	private boolean[] seen = new boolean[0];
+	private int[] seenId = new int[0], seenX = new int[0], seenY = new int[0];
+	private float[] seenRadius = new float[0];
+
+	/**
+	 * Drag targets by body id. Guarded by itself.
+	 */
+	private final IntList dragIds = new IntList();
+	private int[] dragX = new int[4], dragY = new int[4];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            Store holding the bodies
+	 * @param animator
+	 *            Animator advanced before each group of ticks
+	 */
+	public PhysicsWorld(BodyStore store, Animator animator) {
+		this.store = store;
+		this.animator = animator;
+	}
+
+	/**
+	 * @return Store holding the bodies.
+	 */
+	public BodyStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return Spatial index of the bodies.
+	 */
+	public SpatialGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @return Parking places of the bodies moved out of the way.
+	 */
+	public SideSlots getSideSlots() {
+		return sideSlots;
+	}
+
+	/**
+	 * @return Animator advanced by this world.
+	 */
+	public Animator getAnimator() {
+		return animator;
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param clock
+	 *            Clock read by {@link #advance()}
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * @return Clock read by {@link #advance()}.
+	 */
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Restart random numbers from a seed.
+	 *
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Search collision candidates only in the simulation thread instead of
+	 * using all cores.
+	 *
+	 * @param sequential
+	 */
+	public void setSequential(boolean sequential) {
+		broadPhase.setSequential(sequential);
+	}
+
+	/**
+	 * Stop the threads searching collision candidates. They are started again
+	 * when needed.
+	 */
+	public void shutdown() {
+		broadPhase.shutdown();
+	}
+
+	/**
+	 * Area bodies are kept inside of when pushed.
+	 *
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 */
+	public void setBounds(int left, int top, int right, int bottom) {
+		minX = left;
+		minY = top;
+		maxX = right;
+		maxY = bottom;
+	}
+
+	/**
+	 * @return Random x coordinate inside the bounds.
+	 */
+	public int randomX() {
+		return randomIn(minX, maxX);
+	}
+
+	/**
+	 * @return Random y coordinate inside the bounds.
+	 */
+	public int randomY() {
+		return randomIn(minY, maxY);
+	}
+
+	private int randomIn(int min, int max) {
+		if (maxX == 0 && maxY == 0) {
+			max = min + DEFAULT_AREA;
+		}
+		return max > min ? min + random.nextInt(max - min) : min;
+	}
+
+	/**
+	 * Put a new body into the store and the grid.
+	 *
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @return Store slot of the body
+	 */
+	public int add(int id, int x, int y, float radius) {
+		int slot = store.slotOf(id);
+		if (slot == BodyStore.NO_SLOT) {
+			slot = store.allocate(id);
+		}
+		store.setX(slot, x);
+		store.setY(slot, y);
+		store.setRadius(slot, radius);
+		moved(slot);
+		return slot;
+	}
+
+	/**
+	 * Take a body out of the store, the grid, drags and side slots.
+	 *
+	 * @param id
+	 */
+	public void remove(int id) {
+		forget(id);
+		int slot = store.slotOf(id);
+		if (slot != BodyStore.NO_SLOT) {
+			store.free(slot);
+		}
+		release(id);
+		sideSlots.release(id);
+	}
+
+	/**
+	 * Take a body out of the grid before its store slot is freed by the owner
+	 * of the store.
+	 *
+	 * @param id
+	 */
+	public void forget(int id) {
+		int slot = store.slotOf(id);
+		if (slot != BodyStore.NO_SLOT && slot < seen.length) {
+			seen[slot] = false;
+		}
+		grid.remove(id);
+	}
+
+	/**
+	 * Forget all bodies in the grid and all pending work. The store is left
+	 * to its owner.
+	 */
+	public void clear() {
+		grid.clear();
+		pushQueue.clear();
+		queuedPushes.clear();
+		awake.clear();
+		restTicks.clear();
+		Arrays.fill(seen, false);
+		synchronized (dragIds) {
+			dragIds.clear();
+		}
+		settleRequested = false;
+	}
+
+	/**
+	 * Keep bodies out of a region until it is given to
+	 * {@link #unreserve(ReservedRegion)}. Bodies overlapping the region are
+	 * pushed out on every tick, following changes of its extent.
+	 *
+	 * @param region
+	 */
+	public synchronized void reserve(ReservedRegion region) {
+		for (ReservedRegion r : regions) {
+			if (r == region) {
+				return;
+			}
+		}
+		ReservedRegion[] reserved = Arrays.copyOf(regions, regions.length + 1);
+		reserved[regions.length] = region;
+		regions = reserved;
+	}
+
+	/**
+	 * Let bodies into a reserved region again. Bodies stay where they are.
+	 *
+	 * @param region
+	 */
+	public synchronized void unreserve(ReservedRegion region) {
+		ReservedRegion[] reserved = new ReservedRegion[regions.length];
+		int count = 0;
+		for (ReservedRegion r : regions) {
+			if (r != region) {
+				reserved[count++] = r;
+			}
+		}
+		regions = Arrays.copyOf(reserved, count);
+	}
+
+	/**
+	 * Bring the grid up to date and wake the body if it has been moved or
+	 * resized since last seen, for example by an animation. Cheap for bodies
+	 * that have not moved.
+	 *
+	 * @param slot
+	 */
+	public void moved(int slot) {
+		int id = store.getId(slot);
+		int x = store.getX(slot);
+		int y = store.getY(slot);
+		float radius = store.getRadius(slot);
+		if (slot >= seen.length) {
+			growSeen(store.getSlotCount());
+		}
+		if (seen[slot] && seenId[slot] == id && seenX[slot] == x && seenY[slot] == y && seenRadius[slot] == radius) {
+			return;
+		}
+		seen[slot] = true;
+		seenId[slot] = id;
+		seenX[slot] = x;
+		seenY[slot] = y;
+		seenRadius[slot] = radius;
+		grid.update(id, x, y, radius);
+		wake(id);
+	}
+
+	private void growSeen(int size) {
+		size = Math.max(size, seen.length * 2);
+		seen = Arrays.copyOf(seen, size);
+		seenId = Arrays.copyOf(seenId, size);
+		seenX = Arrays.copyOf(seenX, size);
+		seenY = Arrays.copyOf(seenY, size);
+		seenRadius = Arrays.copyOf(seenRadius, size);
+	}
+
+	private void wake(int id) {
+		if (!restTicks.containsKey(id)) {
+			awake.add(id);
+		}
+		restTicks.put(id, 0);
+	}
+
+	/**
+	 * @return Number of bodies awake. Called from the simulation thread.
+	 */
+	public int getAwakeCount() {
+		return awake.size();
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return Id of the body at the point or -1.
+	 */
+	public int bodyAt(int x, int y) {
+		return grid.queryPoint(x, y);
+	}
+
+	/**
+	 * Move a dragged body towards a point on the next tick.
+	 *
+	 * @param id
+	 * @param x
+	 * @param y
+	 */
+	public void drag(int id, int x, int y) {
+		synchronized (dragIds) {
+			int i = indexOfDrag(id);
+			if (i == -1) {
+				i = dragIds.size();
+				dragIds.add(id);
+				if (i == dragX.length) {
+					int[] grownX = new int[i * 2], grownY = new int[i * 2];
+					System.arraycopy(dragX, 0, grownX, 0, i);
+					System.arraycopy(dragY, 0, grownY, 0, i);
+					dragX = grownX;
+					dragY = grownY;
+				}
+			}
+			dragX[i] = x;
+			dragY[i] = y;
+		}
+	}
+
+	/**
+	 * Stop dragging a body.
+	 *
+	 * @param id
+	 */
+	public void release(int id) {
+		synchronized (dragIds) {
+			int i = indexOfDrag(id);
+			if (i != -1) {
+				int last = dragIds.size() - 1;
+				dragIds.set(i, dragIds.get(last));
+				dragX[i] = dragX[last];
+				dragY[i] = dragY[last];
+				dragIds.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Stop all drags.
+	 */
+	public void releaseAll() {
+		synchronized (dragIds) {
+			dragIds.clear();
+		}
+	}
+
+	private int indexOfDrag(int id) {
+		for (int i = 0; i < dragIds.size(); i++) {
+			if (dragIds.get(i) == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Stop all pushes on the next tick.
+	 */
+	public void settle() {
+		settleRequested = true;
+	}
+
+	/**
+	 * @return True if bodies are dragged or awake, or pushes are waiting.
+	 *         Called from the simulation thread.
+	 */
+	public boolean isBusy() {
+		synchronized (dragIds) {
+			if (dragIds.size() > 0) {
+				return true;
+			}
+		}
+		return settleRequested || pushQueue.size() > 0 || awake.size() > 0;
+	}
+
+	/**
+	 * @return Number of bodies waiting to push others.
+	 */
+	public int getQueuedPushes() {
+		return pushQueue.size();
+	}
+
+	/**
+	 * Advance animations and run the ticks due since the last call.
+	 *
+	 * @return True if animations are still running.
+	 */
+	public boolean advance() {
+		long now = clock.now();
+		if (previous < 0) {
+			previous = now;
+		}
+		lag = Math.min(lag + now - previous, MAX_LAG);
+		previous = now;
+
+		boolean animating = animator.advance(now);
+		while (lag >= STEP) {
+			step();
+			lag -= STEP;
+		}
+		return animating;
+	}
+
+	/**
+	 * Continue after the simulation has been waiting. Time spent waiting is
+	 * not simulated and the next {@link #advance()} runs one tick right away.
+	 */
+	public void resume() {
+		previous = clock.now();
+		lag = STEP;
+	}
+
+	/**
+	 * @return Milliseconds until the next tick is due.
+	 */
+	public long getTimeToNextStep() {
+		return STEP - lag;
+	}
+
+	/**
+	 * Advance the simulation by one tick. Applies drags, pushes bodies out of
+	 * reserved regions and resolves queued collision pushes.
+	 */
+	public void step() {
+		if (listener != null) {
+			listener.onStep();
+		}
+		if (settleRequested) {
+			settleRequested = false;
+			// Only awake bodies can be anything but inert. They fall asleep at
+			// the end of this tick unless something moves them.
+			for (int i = 0; i < awake.size(); i++) {
+				int slot = store.slotOf(awake.get(i));
+				if (slot != BodyStore.NO_SLOT && store.getState(slot) != MOVING) {
+					store.setState(slot, INERT);
+				}
+				restTicks.put(awake.get(i), REST_TICKS);
+			}
+		}
+
+		synchronized (dragIds) {
+			for (int i = 0; i < dragIds.size(); i++) {
+				int slot = store.slotOf(dragIds.get(i));
+				if (slot != BodyStore.NO_SLOT && (store.getX(slot) != dragX[i] || store.getY(slot) != dragY[i])) {
+					store.setX(slot, dragX[i]);
+					store.setY(slot, dragY[i]);
+					moved(slot);
+					queuePush(dragIds.get(i));
+				}
+			}
+		}
+
+		pushOutOfRegions();
+		solveCollisions();
+		sleepResting();
+	}
+
+	/**
+	 * Move bodies overlapping a reserved region out of it and queue them to
+	 * push their neighbours. Dragged bodies are left alone until released.
+	 */
+	private void pushOutOfRegions() {
+		for (ReservedRegion region : regions) {
+			if (!region.get(regionBounds)) {
+				continue;
+			}
+			grid.queryRect(regionBounds[0], regionBounds[1], regionBounds[2], regionBounds[3], regionHits);
+			for (int i = 0; i < regionHits.size(); i++) {
+				int slot = store.slotOf(regionHits.get(i));
+				if (slot != BodyStore.NO_SLOT && store.getState(slot) != MOVING && pushOut(slot, regionBounds)) {
+					queuePush(store.getId(slot));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move body to the closest position outside of the rectangle that keeps
+	 * it inside the bounds. If there is none the closest position is clamped
+	 * to the bounds.
+	 *
+	 * @param slot
+	 * @param rect
+	 *            Left, top, right and bottom
+	 * @return True if the body moved.
+	 */
+	private boolean pushOut(int slot, int[] rect) {
+		int x = store.getX(slot);
+		int y = store.getY(slot);
+		float radius = store.getRadius(slot);
+		boolean bounded = maxX != 0 || maxY != 0;
+
+		int[] targets = { (int) Math.floor(rect[0] - radius), (int) Math.floor(rect[1] - radius),
+				(int) Math.ceil(rect[2] + radius), (int) Math.ceil(rect[3] + radius) };
+		int best = -1;
+		boolean bestFits = false;
+		int bestDistance = 0;
+		for (int side = 0; side < 4; side++) {
+			boolean horizontal = side % 2 == 0;
+			int distance = Math.abs(targets[side] - (horizontal ? x : y));
+			boolean fits = !bounded
+					|| (horizontal ? targets[side] - radius >= minX && targets[side] + radius <= maxX
+							: targets[side] - radius >= minY && targets[side] + radius <= maxY);
+			// Sides that fit win over the ones that do not
+			if (best == -1 || (fits && !bestFits) || (fits == bestFits && distance < bestDistance)) {
+				best = side;
+				bestFits = fits;
+				bestDistance = distance;
+			}
+		}
+
+		if (best % 2 == 0) {
+			x = targets[best];
+		} else {
+			y = targets[best];
+		}
+		if (bounded) {
+			x = (int) Math.max(minX + radius, Math.min(x, maxX - radius));
+			y = (int) Math.max(minY + radius, Math.min(y, maxY - radius));
+		}
+
+		// Bodies with no room outside stay put and are not woken every tick
+		if (x == store.getX(slot) && y == store.getY(slot)) {
+			return false;
+		}
+		store.setState(slot, AUTOMATIC);
+		store.setX(slot, x);
+		store.setY(slot, y);
+		moved(slot);
+		return true;
+	}
+
+	/**
+	 * Put bodies that have stayed in place long enough to sleep. Dragged
+	 * bodies stay awake even when the finger holds still.
+	 */
+	private void sleepResting() {
+		int kept = 0;
+		for (int i = 0; i < awake.size(); i++) {
+			int id = awake.get(i);
+			int slot = store.slotOf(id);
+			int ticks = restTicks.get(id, 0) + 1;
+			if (slot == BodyStore.NO_SLOT || (ticks >= REST_TICKS && store.getState(slot) != MOVING)) {
+				if (slot != BodyStore.NO_SLOT) {
+					store.setState(slot, INERT);
+				}
+				restTicks.remove(id, 0);
+			} else {
+				restTicks.put(id, ticks);
+				awake.set(kept++, id);
+			}
+		}
+		while (awake.size() > kept) {
+			awake.removeLast();
+		}
+	}
+
+	/**
+	 * Resolve overlaps caused by the queued bodies with position based
+	 * relaxation. Each iteration moves the bodies overlapping a queued body
+	 * out of it, and queues them for the next iteration. Work is limited by
+	 * {@link #SOLVER_ITERATIONS} and {@link #MAX_CONTACTS_PER_STEP}, so a drag
+	 * through a dense cluster costs the same every tick and the rest of the
+	 * cluster settles during the following ticks.
+	 */
+	private void solveCollisions() {
+		int contacts = MAX_CONTACTS_PER_STEP;
+		for (int iteration = 0; iteration < SOLVER_ITERATIONS && contacts > 0 && pushQueue.size() > 0; iteration++) {
+			// New pushes go to the other list while this one is processed
+			IntList batch = pushQueue;
+			pushQueue = pushing;
+			pushing = batch;
+
+			// Broad phase for all queued bodies at once, possibly in parallel
+			solverBatch.clear();
+			broadPhase.clear();
+			for (int i = 0; i < batch.size(); i++) {
+				queuedPushes.remove(batch.get(i), 0);
+				// Skip bodies removed while queued
+				int slot = store.slotOf(batch.get(i));
+				if (slot != BodyStore.NO_SLOT) {
+					solverBatch.add(slot);
+					broadPhase.add(store.getX(slot), store.getY(slot), store.getRadius(slot));
+				}
+			}
+			batch.clear();
+			broadPhase.run();
+
+			// Narrow phase in queue order
+			for (int i = 0; i < solverBatch.size(); i++) {
+				int slot = solverBatch.get(i);
+				if (contacts > 0) {
+					contacts -= collide(slot, broadPhase.candidates(i));
+				} else {
+					queuePush(store.getId(slot));
+				}
+			}
+		}
+	}
+
+	private void queuePush(int id) {
+		if (!queuedPushes.containsKey(id)) {
+			queuedPushes.put(id, 1);
+			pushQueue.add(id);
+		}
+	}
+
+	/**
+	 * React to collisions of a moved body. Pushed bodies are queued for the
+	 * next solver iteration.
+	 *
+	 * @param slot
+	 *            Store slot of the moved body
+	 * @param collisionHits
+	 *            Bodies overlapping the moved one found by the broad phase
+	 * @return Number of bodies checked.
+	 */
+	private int collide(int slot, IntList collisionHits) {
+		int state = store.getState(slot);
+		for (int i = 0; i < collisionHits.size(); i++) {
+			int other = store.slotOf(collisionHits.get(i));
+			if (other == BodyStore.NO_SLOT || other == slot || !isCollision(slot, other)) {
+				continue;
+			}
+			if (store.getState(other) != MOVING) {
+				if (autoMove(slot, other)) {
+					queuePush(store.getId(other));
+				}
+				if (store.hasFlag(other, FLAG_LOCKED)) {
+					sideSlots.release(store.getId(other));
+					store.setFlag(other, FLAG_LOCKED, false);
+				}
+			} else if (state == MOVING && !store.hasFlag(slot, FLAG_TOUCHED)) {
+				store.setFlag(slot, FLAG_TOUCHED, true);
+				store.setFlag(other, FLAG_TOUCHED, true);
+				if (listener != null) {
+					listener.onTouched(store.getId(slot), store.getId(other));
+				}
+			}
+		}
+		return collisionHits.size();
+	}
+
+	/**
+	 * Move pushed body out of the moving body along the line between their
+	 * centers, keeping it inside the bounds.
+	 *
+	 * @param moving
+	 *            Store slot of the moving body
+	 * @param pushed
+	 *            Store slot of the pushed body
+	 * @return True if the pushed body moved and may push others.
+	 */
+	private boolean autoMove(int moving, int pushed) {
+		int movingState = store.getState(moving);
+		if (movingState == INERT || (movingState == MOVING && store.getState(pushed) == MOVING)) {
+			return false;
+		}
+		int oldX = store.getX(pushed);
+		int oldY = store.getY(pushed);
+		double dx = oldX - store.getX(moving);
+		double dy = oldY - store.getY(moving);
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		float radius = store.getRadius(pushed);
+		// One extra pixel so rounding does not leave them touching
+		double overlap = store.getRadius(moving) + radius - distance + 1;
+		if (distance == 0 || overlap <= 0) {
+			return false;
+		}
+		int x = oldX + (int) Math.round(dx / distance * overlap);
+		int y = oldY + (int) Math.round(dy / distance * overlap);
+
+		// Don't let it go over
+		if (x + radius > maxX) {
+			x = (int) (maxX - radius);
+		} else if (x - radius < minX) {
+			x = minX + (int) radius;
+		}
+
+		if (y + radius > maxY) {
+			y = (int) (maxY - radius);
+		} else if (y - radius < minY) {
+			y = minY + (int) radius;
+		}
+
+		store.setState(pushed, AUTOMATIC);
+		wake(store.getId(pushed));
+		// Bodies stuck against the edge have nothing more to push
+		if (x == oldX && y == oldY) {
+			return false;
+		}
+		store.setX(pushed, x);
+		store.setY(pushed, y);
+		moved(pushed);
+		return true;
+	}
+
+	private boolean isCollision(int s1, int s2) {
+		return overlaps(store.getX(s1), store.getY(s1), store.getRadius(s1), store.getX(s2), store.getY(s2),
+				store.getRadius(s2));
+	}
+
+	/**
+	 * @param x1
+	 * @param y1
+	 * @param r1
+	 * @param x2
+	 * @param y2
+	 * @param r2
+	 * @return True if the circles overlap.
+	 */
+	public static boolean overlaps(float x1, float y1, float r1, float x2, float y2, float r2) {
+		final float a = r1 + r2;
+		final float dx = x1 - x2;
+		final float dy = y1 - y2;
+		return a * a > (dx * dx + dy * dy);
+	}
+
+}
@@ -0,0 +1,144 @@
+package fi.android.spacify.engine;
+
+/**
+ * Positions of all bodies at the end of one simulation tick.
+ *
+ * Snapshots are filled by the simulation thread and handed to the render
+ * thread trough {@link SnapshotBuffer}. Once published a snapshot is not
+ * modified until the reader has given it back, so the reader can iterate it
+ * without any locking.
+ *
+ * @param <T>
+ *            Type of the body objects carried along with the positions.
+ */
+public class PositionSnapshot<T> {
+
+	private Object[] bodies;
+	private int[] ids;
+	private float[] x, y, radius;
+	private int size = 0;
+	private final IntIntMap index = new IntIntMap();
+
+	volatile long sequence = 0;
+
+	/**
+	 * Constructor.
+	 */
+	public PositionSnapshot() {
+		allocate(16);
+	}
+
+	/**
+	 * Empty the snapshot. Only the writer owning this snapshot may call this.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			bodies[i] = null;
+		}
+		size = 0;
+		index.clear();
+	}
+
+	/**
+	 * Append body to the snapshot. Only the writer owning this snapshot may call
+	 * this.
+	 *
+	 * @param id
+	 * @param body
+	 * @param x
+	 * @param y
+	 * @param radius
+	 */
+	public void add(int id, T body, float x, float y, float radius) {
+		if (size == ids.length) {
+			grow();
+		}
+		bodies[size] = body;
+		ids[size] = id;
+		this.x[size] = x;
+		this.y[size] = y;
+		this.radius[size] = radius;
+		index.put(id, size);
+		size += 1;
+	}
+
+	/**
+	 * @return Number of bodies in this snapshot.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 * @return Body at index i.
+	 */
+	@SuppressWarnings("unchecked")
+	public T body(int i) {
+		return (T) bodies[i];
+	}
+
+	/**
+	 * @param i
+	 * @return Id of the body at index i.
+	 */
+	public int id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @param i
+	 * @return X coordinate of the body at index i.
+	 */
+	public float x(int i) {
+		return x[i];
+	}
+
+	/**
+	 * @param i
+	 * @return Y coordinate of the body at index i.
+	 */
+	public float y(int i) {
+		return y[i];
+	}
+
+	/**
+	 * @param i
+	 * @return Radius of the body at index i.
+	 */
+	public float radius(int i) {
+		return radius[i];
+	}
+
+	/**
+	 * Find index of body with given id.
+	 *
+	 * @param id
+	 * @return Index of the body or -1 if the body is not in this snapshot.
+	 */
+	public int indexOf(int id) {
+		return index.get(id, -1);
+	}
+
+	private void grow() {
+		Object[] oldBodies = bodies;
+		int[] oldIds = ids;
+		float[] oldX = x, oldY = y, oldRadius = radius;
+
+		allocate(ids.length * 2);
+		System.arraycopy(oldBodies, 0, bodies, 0, size);
+		System.arraycopy(oldIds, 0, ids, 0, size);
+		System.arraycopy(oldX, 0, x, 0, size);
+		System.arraycopy(oldY, 0, y, 0, size);
+		System.arraycopy(oldRadius, 0, radius, 0, size);
+	}
+
+	private void allocate(int capacity) {
+		bodies = new Object[capacity];
+		ids = new int[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		radius = new float[capacity];
+	}
+
+}
@@ -0,0 +1,95 @@
+package fi.android.spacify.engine;
+
+import fi.android.spacify.engine.Animator.Easing;
+
+/**
+ * Rectangle bodies are kept out of, for example the area covered by a popup.
+ * Reserve it with {@link PhysicsWorld#reserve(ReservedRegion)}; bodies
+ * overlapping it are pushed out as part of the normal simulation step. The
+ * extent can change over time, by setting it directly or with a tween from
+ * {@link #resizeTo(int, int, int, int, long, Easing)}.
+ *
+ * Extent can be read and changed from any thread.
+ */
+public class ReservedRegion {
+
+	private int left, top, right, bottom;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 */
+	public ReservedRegion(int left, int top, int right, int bottom) {
+		set(left, top, right, bottom);
+	}
+
+	/**
+	 * Change extent of the region.
+	 *
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 */
+	public synchronized void set(int left, int top, int right, int bottom) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+
+	/**
+	 * Copy extent of the region.
+	 *
+	 * @param bounds
+	 *            Array of at least four that receives left, top, right and
+	 *            bottom
+	 * @return True if the region is not empty.
+	 */
+	public synchronized boolean get(int[] bounds) {
+		bounds[0] = left;
+		bounds[1] = top;
+		bounds[2] = right;
+		bounds[3] = bottom;
+		return right > left && bottom > top;
+	}
+
+	/**
+	 * Create a tween changing the extent gradually. Start it with
+	 * {@link Animator#start(Animator.Tween)}.
+	 *
+	 * @param toLeft
+	 * @param toTop
+	 * @param toRight
+	 * @param toBottom
+	 * @param duration
+	 *            Duration in milliseconds
+	 * @param easing
+	 * @return Tween, not started yet
+	 */
+	public Animator.Tween resizeTo(final int toLeft, final int toTop, final int toRight, final int toBottom,
+			long duration, Easing easing) {
+		return new Animator.Tween(this, duration, easing) {
+
+			private final int[] from = new int[4];
+
+			@Override
+			protected void onStart() {
+				get(from);
+			}
+
+			@Override
+			protected void onUpdate(float fraction) {
+				set(from[0] + Math.round((toLeft - from[0]) * fraction),
+						from[1] + Math.round((toTop - from[1]) * fraction),
+						from[2] + Math.round((toRight - from[2]) * fraction),
+						from[3] + Math.round((toBottom - from[3]) * fraction));
+			}
+		};
+	}
+
+}
@@ -0,0 +1,73 @@
+package fi.android.spacify.engine;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of a measurement and answers percentile
+ * queries over them. Old samples are overwritten once the window is full.
+ */
+public class RollingHistogram {
+
+	private final long[] samples;
+	private final long[] sorted;
+	private int next = 0;
+	private int count = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param window
+	 *            Number of most recent samples kept
+	 */
+	public RollingHistogram(int window) {
+		samples = new long[window];
+		sorted = new long[window];
+	}
+
+	/**
+	 * Record a sample.
+	 *
+	 * @param value
+	 */
+	public void add(long value) {
+		samples[next] = value;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) {
+			count += 1;
+		}
+	}
+
+	/**
+	 * @return Number of samples in the window.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Get percentile of the samples in the window.
+	 *
+	 * @param percentile
+	 *            Percentile between 0 and 100
+	 * @return Sample value at the percentile or 0 if there are no samples.
+	 */
+	public long percentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		System.arraycopy(samples, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+
+		int i = (int) Math.ceil(percentile / 100d * count) - 1;
+		return sorted[Math.max(0, Math.min(i, count - 1))];
+	}
+
+	/**
+	 * Remove all samples.
+	 */
+	public void clear() {
+		next = 0;
+		count = 0;
+	}
+
+}
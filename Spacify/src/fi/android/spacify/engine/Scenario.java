@@ -0,0 +1,333 @@
+package fi.android.spacify.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Replayable script for a {@link PhysicsWorld}. A scenario is plain text, one
+ * command per line, played against a fresh world on a {@link ManualClock} so
+ * every replay produces the same positions:
+ *
+ * <pre>
+ * # Comments and empty lines are ignored
+ * seed 42
+ * bounds 0 0 480 800
+ * body 1 100 100 60      # id x y radius
+ * place 2 60             # id radius, position from the seeded random
+ * drag 1 300 120         # drag body towards a point
+ * wait 500               # run the simulation for milliseconds
+ * release 1
+ * settle
+ * remove 2
+ * expect 1 300 120       # fail if body is not at the point
+ * </pre>
+ *
+ * Scenarios can also be built in code with the command methods and written
+ * out with {@link #write(Writer)}.
+ */
+public class Scenario {
+
+	private static final String SEED = "seed";
+	private static final String BOUNDS = "bounds";
+	private static final String BODY = "body";
+	private static final String PLACE = "place";
+	private static final String DRAG = "drag";
+	private static final String RELEASE = "release";
+	private static final String SETTLE = "settle";
+	private static final String REMOVE = "remove";
+	private static final String WAIT = "wait";
+	private static final String EXPECT = "expect";
+
+	private final ArrayList<String[]> commands = new ArrayList<String[]>();
+
+	/**
+	 * Read a scenario.
+	 *
+	 * @param reader
+	 * @return Parsed scenario
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If a line is not a valid command
+	 */
+	public static Scenario parse(Reader reader) throws IOException {
+		Scenario scenario = new Scenario();
+		BufferedReader in = new BufferedReader(reader);
+		int number = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			number += 1;
+			int comment = line.indexOf('#');
+			if (comment != -1) {
+				line = line.substring(0, comment);
+			}
+			line = line.trim();
+			if (line.length() == 0) {
+				continue;
+			}
+			String[] command = line.split("\\s+");
+			if (!isValid(command)) {
+				throw new IllegalArgumentException("Invalid command on line " + number + ": " + line);
+			}
+			scenario.commands.add(command);
+		}
+		return scenario;
+	}
+
+	private static boolean isValid(String[] command) {
+		int arguments;
+		String name = command[0];
+		if (SETTLE.equals(name)) {
+			arguments = 0;
+		} else if (SEED.equals(name) || RELEASE.equals(name) || REMOVE.equals(name) || WAIT.equals(name)) {
+			arguments = 1;
+		} else if (PLACE.equals(name)) {
+			arguments = 2;
+		} else if (DRAG.equals(name) || EXPECT.equals(name)) {
+			arguments = 3;
+		} else if (BOUNDS.equals(name) || BODY.equals(name)) {
+			arguments = 4;
+		} else {
+			return false;
+		}
+		if (command.length != arguments + 1) {
+			return false;
+		}
+		try {
+			for (int i = 1; i < command.length; i++) {
+				if (SEED.equals(name) || WAIT.equals(name)) {
+					Long.parseLong(command[i]);
+				} else {
+					Float.parseFloat(command[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private Scenario add(Object... command) {
+		String[] line = new String[command.length];
+		for (int i = 0; i < command.length; i++) {
+			line[i] = String.valueOf(command[i]);
+		}
+		commands.add(line);
+		return this;
+	}
+
+	/**
+	 * @param seed
+	 *            Seed of the random positions
+	 * @return This scenario
+	 */
+	public Scenario seed(long seed) {
+		return add(SEED, seed);
+	}
+
+	/**
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 * @return This scenario
+	 */
+	public Scenario bounds(int left, int top, int right, int bottom) {
+		return add(BOUNDS, left, top, right, bottom);
+	}
+
+	/**
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @return This scenario
+	 */
+	public Scenario body(int id, int x, int y, float radius) {
+		return add(BODY, id, x, y, radius);
+	}
+
+	/**
+	 * Add a body at a random position.
+	 *
+	 * @param id
+	 * @param radius
+	 * @return This scenario
+	 */
+	public Scenario place(int id, float radius) {
+		return add(PLACE, id, radius);
+	}
+
+	/**
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @return This scenario
+	 */
+	public Scenario drag(int id, int x, int y) {
+		return add(DRAG, id, x, y);
+	}
+
+	/**
+	 * @param id
+	 * @return This scenario
+	 */
+	public Scenario release(int id) {
+		return add(RELEASE, id);
+	}
+
+	/**
+	 * @return This scenario
+	 */
+	public Scenario settle() {
+		return add(SETTLE);
+	}
+
+	/**
+	 * @param id
+	 * @return This scenario
+	 */
+	public Scenario remove(int id) {
+		return add(REMOVE, id);
+	}
+
+	/**
+	 * @param millis
+	 *            Simulated time
+	 * @return This scenario
+	 */
+	public Scenario waitFor(long millis) {
+		return add(WAIT, millis);
+	}
+
+	/**
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @return This scenario
+	 */
+	public Scenario expect(int id, int x, int y) {
+		return add(EXPECT, id, x, y);
+	}
+
+	/**
+	 * @return Number of commands.
+	 */
+	public int size() {
+		return commands.size();
+	}
+
+	/**
+	 * Write the scenario in the format read by {@link #parse(Reader)}.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void write(Writer writer) throws IOException {
+		for (String[] command : commands) {
+			for (int i = 0; i < command.length; i++) {
+				if (i > 0) {
+					writer.write(' ');
+				}
+				writer.write(command[i]);
+			}
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Play the scenario in a new world with its own store and clock. Collision
+	 * candidates are searched in the calling thread.
+	 *
+	 * @return World in the state left by the last command
+	 * @throws IllegalStateException
+	 *             If an expected position does not match
+	 */
+	public PhysicsWorld play() {
+		PhysicsWorld world = new PhysicsWorld(new BodyStore(), new Animator());
+		world.setSequential(true);
+		world.setSeed(0);
+		play(world, new ManualClock());
+		return world;
+	}
+
+	/**
+	 * Play the scenario in the given world. The clock of the world is replaced
+	 * with the given one.
+	 *
+	 * @param world
+	 * @param clock
+	 * @throws IllegalStateException
+	 *             If an expected position does not match
+	 */
+	public void play(PhysicsWorld world, ManualClock clock) {
+		world.setClock(clock);
+		// Run the tick due on resume so waits start on a tick boundary
+		world.resume();
+		world.advance();
+		BodyStore store = world.getStore();
+
+		for (String[] command : commands) {
+			String name = command[0];
+			if (SEED.equals(name)) {
+				world.setSeed(Long.parseLong(command[1]));
+			} else if (BOUNDS.equals(name)) {
+				world.setBounds(integer(command[1]), integer(command[2]), integer(command[3]), integer(command[4]));
+			} else if (BODY.equals(name)) {
+				world.add(integer(command[1]), integer(command[2]), integer(command[3]), Float.parseFloat(command[4]));
+			} else if (PLACE.equals(name)) {
+				int x = world.randomX();
+				int y = world.randomY();
+				world.add(integer(command[1]), x, y, Float.parseFloat(command[2]));
+			} else if (DRAG.equals(name)) {
+				int slot = store.slotOf(integer(command[1]));
+				if (slot != BodyStore.NO_SLOT) {
+					store.setState(slot, PhysicsWorld.MOVING);
+				}
+				world.drag(integer(command[1]), integer(command[2]), integer(command[3]));
+			} else if (RELEASE.equals(name)) {
+				int slot = store.slotOf(integer(command[1]));
+				if (slot != BodyStore.NO_SLOT) {
+					store.setState(slot, PhysicsWorld.INERT);
+					store.setFlag(slot, PhysicsWorld.FLAG_TOUCHED, false);
+				}
+				world.release(integer(command[1]));
+			} else if (SETTLE.equals(name)) {
+				world.settle();
+			} else if (REMOVE.equals(name)) {
+				world.remove(integer(command[1]));
+			} else if (WAIT.equals(name)) {
+				// Whole ticks at a time, a long wait must not be cut short
+				// by the lag limit
+				long left = Long.parseLong(command[1]);
+				while (left > 0) {
+					long tick = Math.min(left, PhysicsWorld.STEP);
+					clock.advance(tick);
+					world.advance();
+					left -= tick;
+				}
+			} else if (EXPECT.equals(name)) {
+				int id = integer(command[1]);
+				int slot = store.slotOf(id);
+				int x = integer(command[2]);
+				int y = integer(command[3]);
+				if (slot == BodyStore.NO_SLOT || store.getX(slot) != x || store.getY(slot) != y) {
+					throw new IllegalStateException("Body " + id + " expected at " + x + "," + y + " but was "
+							+ (slot == BodyStore.NO_SLOT ? "removed" : store.getX(slot) + "," + store.getY(slot)));
+				}
+			}
+		}
+	}
+
+	private static int integer(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return Math.round(Float.parseFloat(value));
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package fi.android.spacify.engine;
+
+/**
+ * Parking places along the top and right edge for bodies moved out of the
+ * way. Each slot keeps the ids of the bodies parked in it, new bodies go to
+ * the slot with the fewest.
+ *
+ * Methods can be called from any thread.
+ */
+public class SideSlots {
+
+	private int[] x = new int[16], y = new int[16];
+	private IntList[] parked = new IntList[16];
+	private int count = 0;
+
+	/**
+	 * Lay out slots for the given area, replacing the old ones. One row along
+	 * the top edge and one column along the right edge, slots are spaced
+	 * three body radiuses apart.
+	 *
+	 * @param width
+	 * @param height
+	 * @param reserved
+	 *            Height kept free at the bottom of the right edge
+	 * @param radius
+	 *            Radius of a parked body
+	 */
+	public synchronized void layout(int width, int height, float reserved, int radius) {
+		clear();
+
+		int size = radius * 2;
+		for (int i = 1; i * size < width; i++) {
+			add(i * size + (i - 1) * radius, size);
+		}
+
+		float columnHeight = height - reserved;
+		for (int i = 2; i * size < columnHeight; i++) {
+			add(width - size, i * size + (i - 2) * radius);
+		}
+
+		// Last one would be under the commands
+		if (count > 0) {
+			count -= 1;
+		}
+	}
+
+	/**
+	 * Remove all slots.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < count; i++) {
+			parked[i].clear();
+		}
+		count = 0;
+	}
+
+	/**
+	 * Add an empty slot.
+	 *
+	 * @param slotX
+	 * @param slotY
+	 */
+	public synchronized void add(int slotX, int slotY) {
+		if (count == x.length) {
+			x = grow(x);
+			y = grow(y);
+			IntList[] grown = new IntList[count * 2];
+			System.arraycopy(parked, 0, grown, 0, count);
+			parked = grown;
+		}
+		if (parked[count] == null) {
+			parked[count] = new IntList();
+		}
+		x[count] = slotX;
+		y[count] = slotY;
+		parked[count].clear();
+		count += 1;
+	}
+
+	private int[] grow(int[] values) {
+		int[] grown = new int[values.length * 2];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		return grown;
+	}
+
+	/**
+	 * @return Number of slots.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * @param slot
+	 * @return X coordinate of the slot center
+	 */
+	public synchronized int getX(int slot) {
+		return x[slot];
+	}
+
+	/**
+	 * @param slot
+	 * @return Y coordinate of the slot center
+	 */
+	public synchronized int getY(int slot) {
+		return y[slot];
+	}
+
+	/**
+	 * Park a body in the slot with the fewest bodies. The first of equally
+	 * full slots is used.
+	 *
+	 * @param id
+	 *            Id of the body
+	 * @return Slot index or -1 if there are no slots.
+	 */
+	public synchronized int park(int id) {
+		int least = -1;
+		for (int i = 0; i < count; i++) {
+			if (least == -1 || parked[i].size() < parked[least].size()) {
+				least = i;
+			}
+			if (parked[i].size() == 0) {
+				break;
+			}
+		}
+		if (least != -1) {
+			parked[least].add(id);
+		}
+		return least;
+	}
+
+	/**
+	 * Take a body out of its slot.
+	 *
+	 * @param id
+	 *            Id of the body
+	 * @return True if the body was parked.
+	 */
+	public synchronized boolean release(int id) {
+		for (int i = 0; i < count; i++) {
+			IntList list = parked[i];
+			for (int j = 0; j < list.size(); j++) {
+				if (list.get(j) == id) {
+					// Order inside a slot does not matter
+					list.set(j, list.get(list.size() - 1));
+					list.removeLast();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,58 @@
+package fi.android.spacify.engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock free triple buffer of {@link PositionSnapshot}s between one writer
+ * (the simulation) and one reader (the renderer).
+ *
+ * The writer fills the back buffer and publishes it with an atomic swap. The
+ * reader swaps the newest published snapshot in as its front buffer. Neither
+ * side ever waits for the other and a snapshot is never written while the
+ * reader is holding it.
+ *
+ * @param <T>
+ *            Type of the body objects carried in the snapshots.
+ */
+public class SnapshotBuffer<T> {
+
+	private final AtomicReference<PositionSnapshot<T>> ready = new AtomicReference<PositionSnapshot<T>>(
+			new PositionSnapshot<T>());
+	private PositionSnapshot<T> back = new PositionSnapshot<T>();
+	private PositionSnapshot<T> front = new PositionSnapshot<T>();
+	private long sequence = 0;
+
+	/**
+	 * Get empty snapshot to be filled by the writer. Call {@link #publish()}
+	 * when done.
+	 *
+	 * @return Back buffer owned by the writer.
+	 */
+	public PositionSnapshot<T> getBackBuffer() {
+		back.clear();
+		return back;
+	}
+
+	/**
+	 * Publish the back buffer to the reader.
+	 */
+	public void publish() {
+		sequence += 1;
+		back.sequence = sequence;
+		back = ready.getAndSet(back);
+	}
+
+	/**
+	 * Get the newest published snapshot. The returned snapshot stays valid
+	 * until the next call of this method from the same thread.
+	 *
+	 * @return Newest snapshot
+	 */
+	public PositionSnapshot<T> acquire() {
+		if (ready.get().sequence > front.sequence) {
+			front = ready.getAndSet(front);
+		}
+		return front;
+	}
+
+}
@@ -0,0 +1,365 @@
+package fi.android.spacify.engine;
+
+import java.util.HashMap;
+
+/**
+ * Uniform grid spatial index for circular bodies.
+ *
+ * Each body is registered to every cell its bounding box touches. Cells are
+ * hashed into a fixed bucket table so the grid does not need to know the size
+ * of the space beforehand and bodies can wander outside the screen. Point and
+ * overlap queries only visit the few cells around the query instead of every
+ * body.
+ *
+ * All methods are synchronized as the index is shared between the UI thread
+ * and the threads moving bubbles.
+ */
+public class SpatialGrid {
+
+	private static final int BUCKET_COUNT = 4096;
+
+	private final int cellSize;
+	private final Bucket[] buckets = new Bucket[BUCKET_COUNT];
+	private final HashMap<Integer, Body> bodies = new HashMap<Integer, Body>();
+
+	/**
+	 * Incremented on every query so bodies registered to several cells are
+	 * reported only once.
+	 */
+	private int queryStamp = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cellSize
+	 *            Width and height of one cell in pixels. Should be around the
+	 *            diameter of a typical body.
+	 */
+	public SpatialGrid(int cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+		}
+		this.cellSize = cellSize;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new Bucket();
+		}
+	}
+
+	/**
+	 * Insert body to the index or update its position and size. Body is moved
+	 * between cells only when the range of cells it covers changes.
+	 *
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @param radius
+	 */
+	public synchronized void update(int id, float x, float y, float radius) {
+		Body b = bodies.get(id);
+		if (b == null) {
+			b = new Body(id);
+			bodies.put(id, b);
+		}
+
+		b.x = x;
+		b.y = y;
+		b.radius = radius;
+
+		int minCx = cell(x - radius);
+		int minCy = cell(y - radius);
+		int maxCx = cell(x + radius);
+		int maxCy = cell(y + radius);
+
+		if (b.registered && minCx == b.minCx && minCy == b.minCy && maxCx == b.maxCx && maxCy == b.maxCy) {
+			return;
+		}
+
+		if (b.registered) {
+			unregister(b);
+		}
+		b.minCx = minCx;
+		b.minCy = minCy;
+		b.maxCx = maxCx;
+		b.maxCy = maxCy;
+		register(b);
+	}
+
+	/**
+	 * Remove body from the index.
+	 *
+	 * @param id
+	 */
+	public synchronized void remove(int id) {
+		Body b = bodies.remove(id);
+		if (b != null && b.registered) {
+			unregister(b);
+		}
+	}
+
+	/**
+	 * Remove all bodies from the index.
+	 */
+	public synchronized void clear() {
+		for (Bucket bucket : buckets) {
+			bucket.clear();
+		}
+		bodies.clear();
+	}
+
+	/**
+	 * @return Number of bodies in the index.
+	 */
+	public synchronized int size() {
+		return bodies.size();
+	}
+
+	/**
+	 * Find body that contains the given point.
+	 *
+	 * @param x
+	 * @param y
+	 * @return Id of the body under the point or -1 if there is none.
+	 */
+	public synchronized int queryPoint(float x, float y) {
+		Bucket bucket = buckets[hash(cell(x), cell(y))];
+		for (int i = 0; i < bucket.size; i++) {
+			Body b = bucket.bodies[i];
+			float dx = x - b.x;
+			float dy = y - b.y;
+			if (dx * dx + dy * dy < b.radius * b.radius) {
+				return b.id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find all bodies overlapping the given circle.
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param result
+	 *            List that is cleared and filled with the ids of overlapping
+	 *            bodies.
+	 * @return Number of overlapping bodies.
+	 */
+	public synchronized int queryCircle(float x, float y, float radius, IntList result) {
+		result.clear();
+		int stamp = nextStamp();
+
+		int minCx = cell(x - radius);
+		int minCy = cell(y - radius);
+		int maxCx = cell(x + radius);
+		int maxCy = cell(y + radius);
+
+		for (int cx = minCx; cx <= maxCx; cx++) {
+			for (int cy = minCy; cy <= maxCy; cy++) {
+				Bucket bucket = buckets[hash(cx, cy)];
+				for (int i = 0; i < bucket.size; i++) {
+					Body b = bucket.bodies[i];
+					if (b.stamp == stamp) {
+						continue;
+					}
+					b.stamp = stamp;
+
+					float a = radius + b.radius;
+					float dx = x - b.x;
+					float dy = y - b.y;
+					if (a * a > dx * dx + dy * dy) {
+						result.add(b.id);
+					}
+				}
+			}
+		}
+		return result.size();
+	}
+
+	/**
+	 * Find all bodies overlapping the given rectangle.
+	 *
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 * @param result
+	 *            List that is cleared and filled with the ids of overlapping
+	 *            bodies.
+	 * @return Number of overlapping bodies.
+	 */
+	public synchronized int queryRect(float left, float top, float right, float bottom, IntList result) {
+		result.clear();
+		int stamp = nextStamp();
+
+		// Bodies are registered in every cell their bounds touch
+		int minCx = cell(left);
+		int minCy = cell(top);
+		int maxCx = cell(right);
+		int maxCy = cell(bottom);
+
+		for (int cx = minCx; cx <= maxCx; cx++) {
+			for (int cy = minCy; cy <= maxCy; cy++) {
+				Bucket bucket = buckets[hash(cx, cy)];
+				for (int i = 0; i < bucket.size; i++) {
+					Body b = bucket.bodies[i];
+					if (b.stamp == stamp) {
+						continue;
+					}
+					b.stamp = stamp;
+
+					// Distance from the center to the closest point of the
+					// rectangle
+					float dx = b.x - Math.max(left, Math.min(b.x, right));
+					float dy = b.y - Math.max(top, Math.min(b.y, bottom));
+					if (b.radius * b.radius > dx * dx + dy * dy) {
+						result.add(b.id);
+					}
+				}
+			}
+		}
+		return result.size();
+	}
+
+	/**
+	 * Find all bodies overlapping the given circle without modifying the
+	 * index. Unlike the other methods this one is not synchronized: several
+	 * threads may query at the same time, as long as no thread modifies the
+	 * index meanwhile.
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param result
+	 *            List that is cleared and filled with the ids of overlapping
+	 *            bodies.
+	 * @return Number of overlapping bodies.
+	 */
+	public int queryCircleConcurrent(float x, float y, float radius, IntList result) {
+		result.clear();
+
+		int minCx = cell(x - radius);
+		int minCy = cell(y - radius);
+		int maxCx = cell(x + radius);
+		int maxCy = cell(y + radius);
+
+		for (int cx = minCx; cx <= maxCx; cx++) {
+			for (int cy = minCy; cy <= maxCy; cy++) {
+				Bucket bucket = buckets[hash(cx, cy)];
+				for (int i = 0; i < bucket.size; i++) {
+					Body b = bucket.bodies[i];
+					// Report body only from the first cell it shares with the
+					// query, instead of marking it as seen.
+					if (cx != Math.max(b.minCx, minCx) || cy != Math.max(b.minCy, minCy)) {
+						continue;
+					}
+
+					float a = radius + b.radius;
+					float dx = x - b.x;
+					float dy = y - b.y;
+					if (a * a > dx * dx + dy * dy) {
+						result.add(b.id);
+					}
+				}
+			}
+		}
+		return result.size();
+	}
+
+	private int nextStamp() {
+		queryStamp += 1;
+		if (queryStamp == 0) {
+			// Wrapped around, old stamps could match again.
+			for (Body b : bodies.values()) {
+				b.stamp = 0;
+			}
+			queryStamp = 1;
+		}
+		return queryStamp;
+	}
+
+	private void register(Body b) {
+		for (int cx = b.minCx; cx <= b.maxCx; cx++) {
+			for (int cy = b.minCy; cy <= b.maxCy; cy++) {
+				Bucket bucket = buckets[hash(cx, cy)];
+				// Distinct cells may hash to the same bucket.
+				if (!bucket.contains(b)) {
+					bucket.add(b);
+				}
+			}
+		}
+		b.registered = true;
+	}
+
+	private void unregister(Body b) {
+		for (int cx = b.minCx; cx <= b.maxCx; cx++) {
+			for (int cy = b.minCy; cy <= b.maxCy; cy++) {
+				buckets[hash(cx, cy)].remove(b);
+			}
+		}
+		b.registered = false;
+	}
+
+	private int cell(float coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private int hash(int cx, int cy) {
+		return ((cx * 73856093) ^ (cy * 19349663)) & (BUCKET_COUNT - 1);
+	}
+
+	private static class Body {
+
+		final int id;
+		float x, y, radius;
+		int minCx, minCy, maxCx, maxCy;
+		boolean registered = false;
+		int stamp = 0;
+
+		Body(int id) {
+			this.id = id;
+		}
+	}
+
+	private static class Bucket {
+
+		Body[] bodies = new Body[4];
+		int size = 0;
+
+		void add(Body b) {
+			if (size == bodies.length) {
+				Body[] grown = new Body[bodies.length * 2];
+				System.arraycopy(bodies, 0, grown, 0, size);
+				bodies = grown;
+			}
+			bodies[size++] = b;
+		}
+
+		boolean contains(Body b) {
+			for (int i = 0; i < size; i++) {
+				if (bodies[i] == b) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void remove(Body b) {
+			for (int i = 0; i < size; i++) {
+				if (bodies[i] == b) {
+					size -= 1;
+					bodies[i] = bodies[size];
+					bodies[size] = null;
+					return;
+				}
+			}
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				bodies[i] = null;
+			}
+			size = 0;
+		}
+	}
+
+}
@@ -333,12 +333,12 @@ public class BubbleFragment extends BaseFragment implements OnTouchListener {
 		if(!animationInProgress) {
 			Random r = new Random();
 			if(hasChildsVisible(bv)) {
-				removeBubbles(bv.getLinks(), bv);
+				removeBubbles(bv.getLinkList(), bv);
 				checkChildCount();
 				return;
 			}
 
-			for(final BubbleView nBubble : cms.getBubbles(bv.getLinks())) {
+			for(final BubbleView nBubble : cms.getBubbles(bv.getLinkList())) {
 				if(!list.containsKey(nBubble.getID())) {
 					Log.d(TAG, "New Bubble [" + nBubble.getTitle() + "]");
 					animateBubbleAdd(nBubble, bv);
@@ -455,13 +455,13 @@ public class BubbleFragment extends BaseFragment implements OnTouchListener {
 	private void checkChildCount() {
 		for(BubbleView bv : list.values()) {
 			int count = 0;
-			List<Integer> links = bv.getLinks();
+			int[] links = bv.getLinks();
 			for(int id : links) {
 				if(list.containsKey(id)) {
 					count += 1;
 				}
 			}
-			bv.setLinkCount((links.size() - count));
+			bv.setLinkCount((links.length - count));
 		}
 	}
 
@@ -605,6 +605,16 @@ public class BubbleFragment extends BaseFragment implements OnTouchListener {
 		cms.saveBubbles(new ArrayList<BubbleView>(list.values()));
 	}
 
+	/**
+	 * Save bubbles without blocking.
+	 * 
+	 * @param saved
+	 *            Run on the main thread once the bubbles are written
+	 */
+	public void saveBubbles(Runnable saved) {
+		cms.saveBubbles(new ArrayList<BubbleView>(list.values()), saved);
+	}
+
 	public boolean hasView(BubbleView bv) {
 		return list.containsKey(bv.getID());
 	}
@@ -0,0 +1,229 @@
+package fi.android.spacify.gesture;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MotionEvent;
+
+/**
+ * Recognises single touch, double click and long click gestures of all
+ * pointers from one pass over each touch event.
+ * 
+ * Long click deadlines are posted to the message queue of the main thread,
+ * which works as the one timer shared by all pending gestures, so no threads
+ * are started per touch. State of each pointer is allocated once and reused.
+ * Must be called from the main thread, listeners are called from it as well.
+ * 
+ * @param <T>
+ *            Type of the touched objects
+ */
+public class GestureEngine<T> {
+
+	private static final int MAX_POINTERS = 10;
+	private final int LONG_CLICK_MOVEMENT = 20;
+	private final int LONG_CLICK_TIME = 1000;
+	private final int TOUCH_DELAY = 300;
+	private final int DOUBLE_TAP_INTERVAL = 500;
+
+	/**
+	 * Gesture state of one pointer. Also the long click deadline posted to the
+	 * handler.
+	 */
+	private class Pointer implements Runnable {
+		private T object;
+		private long downTime;
+		private float lastX, lastY;
+		private double distance;
+		private boolean down = false;
+		private boolean longClickPending = false;
+
+		@Override
+		public void run() {
+			if (longClickPending) {
+				longClickPending = false;
+				GestureInterface<T> listener = longClick;
+				if (listener != null) {
+					listener.onGestureDetected(object, null);
+				}
+			}
+		}
+	}
+
+	private final Handler timer = new Handler(Looper.getMainLooper());
+	private final Object[] pointers = new Object[MAX_POINTERS];
+	private GestureInterface<T> singleTouch, longClick, doubleClick;
+	private T doubleClickFirst = null;
+	private long doubleClickFirstDown = 0;
+
+	/**
+	 * Constructor.
+	 */
+	public GestureEngine() {
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			pointers[i] = new Pointer();
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            Called when a pointer is lifted soon after it touched the same
+	 *            object, or when either touch missed all objects. Null to
+	 *            remove.
+	 */
+	public void setSingleTouch(GestureInterface<T> listener) {
+		singleTouch = listener;
+	}
+
+	/**
+	 * @param listener
+	 *            Called when a pointer stays down without moving. Null to
+	 *            remove.
+	 */
+	public void setLongClick(GestureInterface<T> listener) {
+		longClick = listener;
+		if (listener == null) {
+			cancel();
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            Called when the same object is touched twice in a row. Null to
+	 *            remove.
+	 */
+	public void setDoubleClick(GestureInterface<T> listener) {
+		doubleClick = listener;
+	}
+
+	/**
+	 * Feed a touch event to all gestures.
+	 * 
+	 * @param event
+	 * @param pointerIndex
+	 *            Index of the pointer that went down or up
+	 * @param object
+	 *            Object under the pointer going down, or object released by
+	 *            the pointer going up. Null if there is none. Not used for
+	 *            other actions.
+	 */
+	public void onTouchEvent(MotionEvent event, int pointerIndex, T object) {
+		switch (event.getAction() & MotionEvent.ACTION_MASK) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN:
+			onDown(event, pointerIndex, object);
+			break;
+		case MotionEvent.ACTION_MOVE:
+			onMove(event);
+			break;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP:
+			onUp(event, pointerIndex, object);
+			break;
+		case MotionEvent.ACTION_CANCEL:
+			cancel();
+			break;
+		}
+	}
+
+	/**
+	 * Cancel all pending gestures.
+	 */
+	public void cancel() {
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			Pointer p = pointer(i);
+			cancelLongClick(p);
+			p.down = false;
+			p.object = null;
+		}
+	}
+
+	private void onDown(MotionEvent event, int pointerIndex, T object) {
+		// Only the latest touch can become a long click
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			cancelLongClick(pointer(i));
+		}
+		if (pointerIndex >= MAX_POINTERS) {
+			return;
+		}
+
+		long now = event.getEventTime();
+		if (object != null && doubleClick != null) {
+			if (object.equals(doubleClickFirst) && doubleClickFirstDown + DOUBLE_TAP_INTERVAL >= now) {
+				doubleClick.onGestureDetected(object, event);
+				doubleClickFirst = null;
+				doubleClickFirstDown = 0;
+			} else {
+				doubleClickFirst = object;
+				doubleClickFirstDown = now;
+			}
+		}
+
+		Pointer p = pointer(pointerIndex);
+		p.object = object;
+		p.downTime = now;
+		p.lastX = event.getX(pointerIndex);
+		p.lastY = event.getY(pointerIndex);
+		p.distance = 0;
+		p.down = true;
+		if (longClick != null) {
+			p.longClickPending = true;
+			timer.postAtTime(p, now + LONG_CLICK_TIME);
+		}
+	}
+
+	private void onMove(MotionEvent event) {
+		int count = Math.min(event.getPointerCount(), MAX_POINTERS);
+		for (int i = 0; i < count; i++) {
+			Pointer p = pointer(i);
+			if (!p.longClickPending) {
+				continue;
+			}
+			float x = event.getX(i);
+			float y = event.getY(i);
+			float dx = x - p.lastX;
+			float dy = y - p.lastY;
+			p.distance += Math.sqrt(dx * dx + dy * dy);
+			p.lastX = x;
+			p.lastY = y;
+			if (p.distance > LONG_CLICK_MOVEMENT) {
+				cancelLongClick(p);
+			}
+		}
+	}
+
+	private void onUp(MotionEvent event, int pointerIndex, T object) {
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			cancelLongClick(pointer(i));
+		}
+		if (pointerIndex >= MAX_POINTERS) {
+			return;
+		}
+
+		Pointer p = pointer(pointerIndex);
+		if (!p.down) {
+			return;
+		}
+		T downObject = p.object;
+		p.down = false;
+		p.object = null;
+
+		GestureInterface<T> listener = singleTouch;
+		if (listener != null
+				&& (object == null || downObject == null || (event.getEventTime() < p.downTime + TOUCH_DELAY && object
+						.equals(downObject)))) {
+			listener.onGestureDetected(object, event);
+		}
+	}
+
+	private void cancelLongClick(Pointer p) {
+		if (p.longClickPending) {
+			p.longClickPending = false;
+			timer.removeCallbacks(p);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Pointer pointer(int index) {
+		return (Pointer) pointers[index];
+	}
+
+}
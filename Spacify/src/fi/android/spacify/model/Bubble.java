@@ -1,8 +1,5 @@
 package fi.android.spacify.model;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,10 +10,15 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
-import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.Log;
 import fi.android.spacify.db.BubbleDatabase.BubbleColumns;
+import fi.android.spacify.engine.Animator;
+import fi.android.spacify.engine.BodyStore;
+import fi.android.spacify.engine.IntSet;
+import fi.android.spacify.engine.PhysicsWorld;
 import fi.android.spacify.view.BubbleSurface;
+import fi.android.spacify.view.DetailLevels;
 
 @SuppressWarnings("javadoc")
 public class Bubble {
@@ -37,26 +39,95 @@ public class Bubble {
 	}
 
 	public static class BubbleMovement {
-		public static final int INERT = 0;
-		public static final int MOVING = 1;
-		public static final int AUTOMATIC = 2;
+		public static final int INERT = PhysicsWorld.INERT;
+		public static final int MOVING = PhysicsWorld.MOVING;
+		public static final int AUTOMATIC = PhysicsWorld.AUTOMATIC;
+	}
+
+	/**
+	 * Listener for changes in the links of a bubble.
+	 */
+	public interface OnLinksChangedListener {
+		/**
+		 * Called when bubble gets a new link.
+		 * 
+		 * @param b
+		 * @param link
+		 */
+		public void onLinkAdded(Bubble b, int link);
+
+		/**
+		 * Called when link is removed from bubble.
+		 * 
+		 * @param b
+		 * @param link
+		 */
+		public void onLinkRemoved(Bubble b, int link);
 	}
 
 	public static final double SPEED = 0.3, SIZE_FACTOR = 10;
+	/**
+	 * Radius of a bubble without priority, in pixels.
+	 */
+	public static final float DEFAULT_RADIUS = 30;
 	private final int ZOOM_CAP = 3;
 
-	public int movement = BubbleMovement.INERT;
-	public int x = 0, y = 0;
-	private float originalRadius = 30;
-	public float radius = 30;
+	/**
+	 * Flag set while the bubble is parked in a side slot.
+	 */
+	public static final int FLAG_LOCKED_TO_PLASE = PhysicsWorld.FLAG_LOCKED;
+	/**
+	 * Flag set when a link has been toggled during the current touch.
+	 */
+	public static final int FLAG_LINK_STATUS_CHANGED = PhysicsWorld.FLAG_TOUCHED;
+
+	/**
+	 * Position requested by touch. Applied to x and y by the simulation.
+	 */
+	public int targetX = 0, targetY = 0;
+	private float originalRadius = DEFAULT_RADIUS;
 	public Paint bubblePaint, titlePaint;
-	public boolean linkStatusChanged = false;
-	public boolean lockedToPlase = false;
+	/**
+	 * Opacity between 0 and 255.
+	 */
+	public int alpha = 255;
+
+	/**
+	 * Store of the surface and slot in it while the bubble is on a surface,
+	 * null otherwise. Position, radius, movement and flags are kept in the
+	 * store then, and in the fields below otherwise. Replaced as a whole so
+	 * readers never see the slot of one store with another store.
+	 */
+	private volatile Attachment attachment = null;
+
+	/**
+	 * Held by {@link #attach(BodyStore)} and {@link #detach()} and by every
+	 * write of the stored values, so a write from another thread lands
+	 * either in the slot before it is copied back and freed or in the fields
+	 * after, never in a slot already given to another body. Flag bits in the
+	 * store are changed under the lock of the store, like the simulation
+	 * changes them.
+	 */
+	private final Object attachLock = new Object();
+
+	private static final class Attachment {
+
+		final BodyStore store;
+		final int slot;
+
+		Attachment(BodyStore store, int slot) {
+			this.store = store;
+			this.slot = slot;
+		}
+	}
+	private int x = 0, y = 0, movement = BubbleMovement.INERT, flags = 0;
+	private float radius = DEFAULT_RADIUS;
 
 	private int priority, id;
 	private String debugID = "", type = "", style = "", title = "", contents = "", titleImageUrl = "",
 			contentImageUrl = "";
-	private List<Integer> links = new ArrayList<Integer>();
+	private final IntSet links = new IntSet();
+	private OnLinksChangedListener linksListener;
 	private long latitude = 0, longitude = 0;
 
 	private void init() {
@@ -66,12 +137,14 @@ public class Bubble {
 		bubblePaint = new Paint();
 		bubblePaint.setColor(Color.rgb(red, green, blue));
 		bubblePaint.setAntiAlias(true);
+		bubblePaint.setFilterBitmap(true);
+		greenStyle = style != null && style.contains("green");
 
 		originalRadius = radius = (float) (radius + (priority * SIZE_FACTOR));
 		titlePaint = new Paint();
 		titlePaint.setColor(Color.WHITE);
 		titlePaint.setStyle(Style.FILL);
-		titlePaint.setTextSize(getTextSize());
+		titlePaint.setTextSize(getTextSize(radius));
 
 	}
 
@@ -125,8 +198,8 @@ public class Bubble {
 		priority = c.getInt(c.getColumnIndex(BubbleColumns.PRIORITY));
 		titleImageUrl = c.getString(c.getColumnIndex(BubbleColumns.TITLE_IMAGE_URL));
 		try {
-			parseJsonLinks(new JSONArray(c.getString((c.getColumnIndex(BubbleColumns.LINKS)))));
-		} catch (JSONException e) {
+			links.set(IntSet.parse(c.getString(c.getColumnIndex(BubbleColumns.LINKS))));
+		} catch (NumberFormatException e) {
 			e.printStackTrace();
 		}
 		type = c.getString(c.getColumnIndex(BubbleColumns.TYPE));
@@ -185,86 +258,244 @@ public class Bubble {
 	 * @param d
 	 */
 	public void zoom(double d) {
-		radius = (float) (originalRadius * d);
-
-		titlePaint.setTextSize(getTextSize());
-		titleSplit.clear();
+		setRadius((float) (originalRadius * d));
 	}
 
 	/**
-	 * Sets the current size as the default size.
+	 * Sets the current size as the default size. Sprite is re-rendered for the
+	 * new size on next draw, while zooming the old sprite is scaled.
 	 */
 	public void endZoom() {
-		originalRadius = radius;
+		originalRadius = getRadius();
+		spriteStale = true;
 	}
 
-	private float getTextSize() {
-		return (radius / 2.75f);
+	/**
+	 * Move position, radius, movement and flags of this bubble into the store
+	 * of a surface. Called by the simulation thread when the bubble has been
+	 * added to the surface.
+	 * 
+	 * @param store
+	 *            Store of the surface
+	 */
+	public void attach(BodyStore store) {
+		synchronized (attachLock) {
+			if (attachment != null) {
+				return;
+			}
+			int s = store.allocate(id);
+			store.setX(s, x);
+			store.setY(s, y);
+			store.setRadius(s, radius);
+			store.setState(s, movement);
+			store.setFlags(s, flags);
+			attachment = new Attachment(store, s);
+		}
 	}
 
-	private int textFactor = 0;
-	private List<String> titleSplit = new ArrayList<String>();
+	/**
+	 * Copy state of this bubble back from the store of its surface and free
+	 * its slot. Called by the simulation thread when the bubble has been
+	 * removed from the surface.
+	 */
+	public void detach() {
+		synchronized (attachLock) {
+			Attachment a = attachment;
+			if (a == null) {
+				return;
+			}
+			x = a.store.getX(a.slot);
+			y = a.store.getY(a.slot);
+			radius = a.store.getRadius(a.slot);
+			movement = a.store.getState(a.slot);
+			flags = a.store.getFlags(a.slot);
+			attachment = null;
+			a.store.free(a.slot);
+		}
+	}
 
-	private void calculateTextSizes() {
-		textFactor = (int) (radius / Math.sqrt(2));
+	/**
+	 * @return Slot in the store of the surface or {@link BodyStore#NO_SLOT}
+	 *         if the bubble is not on a surface.
+	 */
+	public int getSlot() {
+		Attachment a = attachment;
+		return a != null ? a.slot : BodyStore.NO_SLOT;
+	}
 
-		float[] charWidths = new float[title.length()];
-		titlePaint.getTextWidths(title, charWidths);
+	public int getX() {
+		Attachment a = attachment;
+		return a != null ? a.store.getX(a.slot) : x;
+	}
 
-		String line = "";
-		float total = 0;
-		for (int i = 0; i < title.length(); i++) {
-			char c = title.charAt(i);
-			if (total + charWidths[i] < textFactor * 2) {
-				total += charWidths[i];
-				line += c;
+	public void setX(int x) {
+		synchronized (attachLock) {
+			Attachment a = attachment;
+			if (a != null) {
+				a.store.setX(a.slot, x);
 			} else {
-				titleSplit.add(line);
-				total = charWidths[i];
-				line = "" + c;
+				this.x = x;
 			}
 		}
+	}
 
-		if (line.length() > 0) {
-			titleSplit.add(line);
+	public int getY() {
+		Attachment a = attachment;
+		return a != null ? a.store.getY(a.slot) : y;
+	}
+
+	public void setY(int y) {
+		synchronized (attachLock) {
+			Attachment a = attachment;
+			if (a != null) {
+				a.store.setY(a.slot, y);
+			} else {
+				this.y = y;
+			}
 		}
 	}
 
-	public void onDraw(Canvas canvas) {
-		if (titleSplit.size() == 0) {
-			calculateTextSizes();
+	public float getRadius() {
+		Attachment a = attachment;
+		return a != null ? a.store.getRadius(a.slot) : radius;
+	}
+
+	/**
+	 * Set radius while animating. Call {@link #endZoom()} when done.
+	 * 
+	 * @param r
+	 */
+	public void setRadius(float r) {
+		synchronized (attachLock) {
+			Attachment a = attachment;
+			if (a != null) {
+				a.store.setRadius(a.slot, r);
+			} else {
+				radius = r;
+			}
 		}
+	}
 
-		Bitmap b = null;
-		if (style.contains("green")) {
-			b = BubbleSurface.greenBubble;
-		} else {
-			b = BubbleSurface.blueBubble;
+	/**
+	 * @return One of {@link BubbleMovement} states.
+	 */
+	public int getMovement() {
+		Attachment a = attachment;
+		return a != null ? a.store.getState(a.slot) : movement;
+	}
+
+	public void setMovement(int movement) {
+		synchronized (attachLock) {
+			Attachment a = attachment;
+			if (a != null) {
+				a.store.setState(a.slot, movement);
+			} else {
+				this.movement = movement;
+			}
 		}
-		canvas.drawBitmap(b, null, new Rect((int) (x - radius), (int) (y - radius), (int) (x + radius),
-				(int) (y + radius)), bubblePaint);
-
-		if (title != null) {
-			int i = 0;
-			for (String line : titleSplit) {
-				int dx = x - textFactor;
-				int dy = (int) ((y - (textFactor / 2)) + (i * getTextSize()));
-				canvas.drawText(line, dx, dy, titlePaint);
-				i += 1;
-
-				if (i * getTextSize() >= textFactor * 2) {
-					break;
-				}
+	}
+
+	public boolean isLockedToPlase() {
+		return hasFlag(FLAG_LOCKED_TO_PLASE);
+	}
+
+	public void setLockedToPlase(boolean locked) {
+		setFlag(FLAG_LOCKED_TO_PLASE, locked);
+	}
+
+	public boolean isLinkStatusChanged() {
+		return hasFlag(FLAG_LINK_STATUS_CHANGED);
+	}
+
+	public void setLinkStatusChanged(boolean changed) {
+		setFlag(FLAG_LINK_STATUS_CHANGED, changed);
+	}
+
+	private boolean hasFlag(int flag) {
+		Attachment a = attachment;
+		return ((a != null ? a.store.getFlags(a.slot) : flags) & flag) != 0;
+	}
+
+	private void setFlag(int flag, boolean set) {
+		synchronized (attachLock) {
+			Attachment a = attachment;
+			if (a != null) {
+				a.store.setFlag(a.slot, flag, set);
+			} else {
+				flags = set ? flags | flag : flags & ~flag;
 			}
 		}
 	}
 
+	private static float getTextSize(float radius) {
+		return radius / 2.75f;
+	}
+
+	private Bitmap sprite;
+	private int spriteDetail = DetailLevels.FULL;
+	private boolean spriteStale = true;
+	private boolean greenStyle = false;
+	private final RectF spriteRect = new RectF();
+
+	public void onDraw(Canvas canvas) {
+		onDraw(canvas, getX(), getY(), getRadius());
+	}
+
+	/**
+	 * Draw bubble at given position instead of its current one.
+	 * 
+	 * @param canvas
+	 * @param x
+	 * @param y
+	 * @param radius
+	 */
+	public void onDraw(Canvas canvas, float x, float y, float radius) {
+		onDraw(canvas, x, y, radius, DetailLevels.FULL);
+	}
+
+	/**
+	 * Draw bubble at given position with given level of detail.
+	 * 
+	 * @param canvas
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param detail
+	 *            One of the {@link DetailLevels} levels
+	 */
+	public void onDraw(Canvas canvas, float x, float y, float radius, int detail) {
+		if (detail == DetailLevels.DOT) {
+			canvas.drawCircle(x, y, radius, BubbleSurface.sprites.getDotPaint(greenStyle, alpha));
+			return;
+		}
+
+		if (sprite == null || spriteStale || spriteDetail != detail) {
+			// Text size only matters when the title is laid out
+			if (DetailLevels.titleLines(detail) > 0) {
+				titlePaint.setTextSize(getTextSize(radius));
+			}
+			sprite = BubbleSurface.sprites.getSprite(greenStyle, title, radius,
+					DetailLevels.titleLines(detail));
+			spriteDetail = detail;
+			spriteStale = false;
+		}
+
+		spriteRect.set(x - radius, y - radius, x + radius, y + radius);
+		bubblePaint.setAlpha(alpha);
+		canvas.drawBitmap(sprite, null, spriteRect, bubblePaint);
+	}
+
 	public String getTitle() {
 		return title;
 	}
 
+	public boolean isGreenStyle() {
+		return greenStyle;
+	}
+
 	public void setTitle(String title) {
 		this.title = title;
+		spriteStale = true;
 	}
 
 	public int getPriority() {
@@ -297,6 +528,8 @@ public class Bubble {
 
 	public void setStyle(String style) {
 		this.style = style;
+		greenStyle = style != null && style.contains("green");
+		spriteStale = true;
 	}
 
 	public String getTitleImageUrl() {
@@ -315,40 +548,103 @@ public class Bubble {
 		this.contentImageUrl = contentImageUrl;
 	}
 
-	public List<Integer> getLinks() {
-		return links;
+	/**
+	 * Ids of the linked bubbles in ascending order. The array is not changed
+	 * afterwards, so it can be iterated while links are modified from other
+	 * threads. Do not modify it.
+	 * 
+	 * @return Linked bubble ids.
+	 */
+	public int[] getLinks() {
+		return links.values();
 	}
 
-	public void setLinks(List<Integer> links) {
-		this.links = links;
+	/**
+	 * @param link
+	 * @return True if this bubble links to the given bubble.
+	 */
+	public boolean hasLink(int link) {
+		return links.contains(link);
 	}
 
-	public void addLink(int link) {
-		if (!links.contains(link)) {
-			this.links.add(link);
+	/**
+	 * @param links
+	 *            Ids of the linked bubbles, the array is not kept.
+	 */
+	public void setLinks(int[] links) {
+		int[] old = this.links.set(links);
+		if (linksListener != null) {
+			for (int link : old) {
+				linksListener.onLinkRemoved(this, link);
+			}
+			for (int link : this.links.values()) {
+				linksListener.onLinkAdded(this, link);
+			}
 		}
 	}
 
-	public void removeLink(Integer link) {
-		this.links.remove(link);
+	public void addLink(int link) {
+		if (links.add(link) && linksListener != null) {
+			linksListener.onLinkAdded(this, link);
+		}
 	}
 
-	public JSONArray getLinksJSONArray() {
-		JSONArray jArray = new JSONArray();
-		for (int link : links) {
-			jArray.put(link);
+	public void removeLink(int link) {
+		if (links.remove(link) && linksListener != null) {
+			linksListener.onLinkRemoved(this, link);
 		}
-		return jArray;
+	}
+
+	/**
+	 * Link two bubbles to each other.
+	 * 
+	 * @param a
+	 * @param b
+	 */
+	public static void link(Bubble a, Bubble b) {
+		a.addLink(b.getID());
+		b.addLink(a.getID());
+	}
+
+	/**
+	 * Remove links between two bubbles in both directions.
+	 * 
+	 * @param a
+	 * @param b
+	 */
+	public static void unlink(Bubble a, Bubble b) {
+		a.removeLink(b.getID());
+		b.removeLink(a.getID());
+	}
+
+	/**
+	 * Set listener that is informed when links are added or removed trough
+	 * {@link #addLink(int)}, {@link #removeLink(int)} or
+	 * {@link #setLinks(int[])}.
+	 * 
+	 * @param listener
+	 *            Listener or null to remove
+	 */
+	public void setOnLinksChangedListener(OnLinksChangedListener listener) {
+		this.linksListener = listener;
 	}
 
 	public void parseJsonLinks(JSONArray jArray) {
+		int[] parsed = new int[jArray.length()];
+		int count = 0;
 		for (int i = 0; i < jArray.length(); i++) {
 			try {
-				links.add(jArray.getInt(i));
+				parsed[count] = jArray.getInt(i);
+				count += 1;
 			} catch (JSONException e) {
 				e.printStackTrace();
 			}
 		}
+		int[] existing = links.values();
+		int[] all = new int[count + existing.length];
+		System.arraycopy(parsed, 0, all, 0, count);
+		System.arraycopy(existing, 0, all, count, existing.length);
+		setLinks(all);
 	}
 
 	public long getLattitude() {
@@ -371,121 +667,67 @@ public class Bubble {
 	public int offsetY = 0;
 
 	public void setTouchOffset(int tX, int tY) {
+		int x = getX();
+		int y = getY();
 		offsetX = x - tX;
 		offsetY = y - tY;
+		targetX = x;
+		targetY = y;
 	}
 
 	public static final double ANIMATION_TIME = 500d;
 
-	public void moveTo(int nx, int ny) {
-		final int dx;
-		final int dy;
+	/**
+	 * Create animation to a new position inside the surface. Start it with
+	 * the animator of the surface.
+	 * 
+	 * @param nx
+	 * @param ny
+	 * @return Tween, not started yet
+	 */
+	public BubbleTween moveTo(int nx, int ny) {
+		return new BubbleTween(this, (long) ANIMATION_TIME, Animator.EASE_IN_OUT).moveTo(clampX(nx, getRadius()),
+				clampY(ny, getRadius()));
+	}
 
+	/**
+	 * Create animation to a new position inside the surface that also
+	 * shrinks the bubble to the given radius. Bubbles already smaller keep
+	 * their size. Start it with the animator of the surface.
+	 * 
+	 * @param nX
+	 * @param nY
+	 * @param nRadius
+	 * @return Tween, not started yet
+	 */
+	public BubbleTween moveAndScaleTo(int nX, int nY, float nRadius) {
+		BubbleTween tween = moveTo(nX, nY);
+		if (getRadius() > nRadius) {
+			tween.scaleTo(nRadius);
+		}
+		return tween;
+	}
+
+	private static int clampX(int nx, float radius) {
 		if (nx + radius >= BubbleSurface.maxX) {
-			nx = (int) (BubbleSurface.maxX - radius);
+			return (int) (BubbleSurface.maxX - radius);
 		} else if (nx - radius <= 0) {
-			nx = (int) radius;
+			return (int) radius;
 		}
-		dx = x - nx;
+		return nx;
+	}
 
+	private static int clampY(int ny, float radius) {
 		if (ny >= BubbleSurface.maxY) {
-			ny = (int) (BubbleSurface.maxY - radius);
+			return (int) (BubbleSurface.maxY - radius);
 		} else if (ny - radius <= 0) {
-			ny = (int) radius;
+			return (int) radius;
 		}
-		dy = y - ny;
-
-		Log.d(TAG, "[" + title + "]: (" + x + "," + y + ") to (" + nx + "," + ny + ") dx=" + dx + ", dy=" + dy + "");
-
-		new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				long start = System.currentTimeMillis();
-				double pulse = 0;
-				movement = BubbleMovement.AUTOMATIC;
-
-				int oldX = x;
-				int oldY = y;
-				while (movement != BubbleMovement.MOVING && pulse <= 1) {
-					pulse = ((System.currentTimeMillis() - start) / ANIMATION_TIME);
-
-					x = oldX + (int) Math.floor(dx * pulse);
-					y = oldY + (int) Math.floor(dy * pulse);
-					Log.d(TAG, "Moving [" + title + "] pulse: " + pulse + " x[" + x + "], y[" + y + "]");
-
-					try {
-						Thread.sleep(50);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				movement = BubbleMovement.INERT;
-			}
-		}).start();
-	}
-
-	public void moveAndScaleTo(final int nX, final int nY, final float nRadius) {
-		Log.d(TAG, "moveAndScaleTo[" + title + "]: nX[" + nX + "], nY[" + nY + "], nRadius[" + nRadius + "]");
-		new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				final int dx;
-				final int dy;
-
-				if (nX + radius >= BubbleSurface.maxX) {
-					dx = x - (int) (BubbleSurface.maxX - radius);
-				} else if (nX - radius <= 0) {
-					dx = x - (int) radius;
-				} else {
-					dx = x - nX;
-				}
-
-				if (nY >= BubbleSurface.maxY) {
-					dy = y - (int) (BubbleSurface.maxY - radius);
-				} else if (nY - radius <= 0) {
-					dy = y - (int) radius;
-				} else {
-					dy = y - nY;
-				}
-
-				long start = System.currentTimeMillis();
-				double pulse = 0;
-				movement = BubbleMovement.AUTOMATIC;
-
-				// Log.d(TAG, "[" + title + "]: (" + x + "," + y + ") to (" + nX
-				// + "," + nY + ") dx=" + dx + ", dy=" + dy
-				// + "");
-
-				int oldX = x;
-				int oldY = y;
-				float oldRadius = radius;
-				while (movement != BubbleMovement.MOVING && pulse <= 1) {
-					pulse = ((System.currentTimeMillis() - start) / ANIMATION_TIME);
-
-					x = oldX - (int) Math.floor(dx * pulse);
-					y = oldY - (int) Math.floor(dy * pulse);
-
-					if (radius > nRadius) {
-						double scale = 1 - ((nRadius / oldRadius) * pulse);
-						zoom(scale);
-					}
-
-					try {
-						Thread.sleep(50);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				originalRadius = radius;
-				movement = BubbleMovement.INERT;
-			}
-		}).start();
+		return ny;
 	}
 
 	public void animateOnTouch() {
-		lockedToPlase = false;
+		setLockedToPlase(false);
 		// new Thread(new Runnable() {
 		//
 		// @Override
@@ -0,0 +1,115 @@
+package fi.android.spacify.model;
+
+import fi.android.spacify.engine.Animator;
+import fi.android.spacify.engine.Animator.Easing;
+import fi.android.spacify.model.Bubble.BubbleMovement;
+
+/**
+ * Animates position, radius and alpha of a {@link Bubble}. Values that are not
+ * set are left alone. The bubble is marked as moving automatically while the
+ * tween runs.
+ */
+public class BubbleTween extends Animator.Tween {
+
+	private final Bubble bubble;
+	private boolean move = false, scale = false, fade = false;
+	private int toX, toY, toAlpha;
+	private float toRadius;
+	private int fromX, fromY, fromAlpha;
+	private float fromRadius;
+	private Runnable onFinished;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bubble
+	 * @param duration
+	 *            Duration in milliseconds
+	 * @param easing
+	 */
+	public BubbleTween(Bubble bubble, long duration, Easing easing) {
+		super(bubble, duration, easing);
+		this.bubble = bubble;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return This tween
+	 */
+	public BubbleTween moveTo(int x, int y) {
+		move = true;
+		toX = x;
+		toY = y;
+		return this;
+	}
+
+	/**
+	 * @param radius
+	 * @return This tween
+	 */
+	public BubbleTween scaleTo(float radius) {
+		scale = true;
+		toRadius = radius;
+		return this;
+	}
+
+	/**
+	 * @param alpha
+	 *            Alpha between 0 and 255
+	 * @return This tween
+	 */
+	public BubbleTween fadeTo(int alpha) {
+		fade = true;
+		toAlpha = alpha;
+		return this;
+	}
+
+	/**
+	 * @param onFinished
+	 *            Called when the tween has run to the end without being
+	 *            cancelled
+	 * @return This tween
+	 */
+	public BubbleTween whenFinished(Runnable onFinished) {
+		this.onFinished = onFinished;
+		return this;
+	}
+
+	@Override
+	protected void onStart() {
+		fromX = bubble.getX();
+		fromY = bubble.getY();
+		fromRadius = bubble.getRadius();
+		fromAlpha = bubble.alpha;
+		bubble.setMovement(BubbleMovement.AUTOMATIC);
+	}
+
+	@Override
+	protected void onUpdate(float fraction) {
+		if (move) {
+			bubble.setX(fromX + Math.round((toX - fromX) * fraction));
+			bubble.setY(fromY + Math.round((toY - fromY) * fraction));
+		}
+		if (scale) {
+			bubble.setRadius(fromRadius + (toRadius - fromRadius) * fraction);
+		}
+		if (fade) {
+			bubble.alpha = fromAlpha + Math.round((toAlpha - fromAlpha) * fraction);
+		}
+	}
+
+	@Override
+	protected void onEnd(boolean cancelled) {
+		if (scale) {
+			bubble.endZoom();
+		}
+		if (bubble.getMovement() == BubbleMovement.AUTOMATIC) {
+			bubble.setMovement(BubbleMovement.INERT);
+		}
+		if (!cancelled && onFinished != null) {
+			onFinished.run();
+		}
+	}
+
+}
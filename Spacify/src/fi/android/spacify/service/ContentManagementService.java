@@ -119,8 +119,11 @@ public class ContentManagementService extends BaseService {
 		return db.getBubblesInContext(context);
 	}
 
-	public List<BubbleView> getBubbles(List<Integer> links) {
-		Cursor c = db.getLinkedBubblesCursor(links);
+	public List<BubbleView> getBubbles(List<Integer> ids) {
+		return toBubbleViews(db.getBubblesCursor(ids));
+	}
+
+	private List<BubbleView> toBubbleViews(Cursor c) {
 		List<BubbleView> bubbles = new ArrayList<BubbleView>();
 		c.moveToFirst();
 		while(!c.isAfterLast()) {
@@ -132,14 +135,39 @@ public class ContentManagementService extends BaseService {
 		return bubbles;
 	}
 
-	public Cursor getBubblesCursor(List<Integer> links) {
-		return db.getLinkedBubblesCursor(links);
+	public Cursor getBubblesCursor(List<Integer> ids) {
+		return db.getBubblesCursor(ids);
 	}
 
+	/**
+	 * Queue storing bubbles. Returns immediately.
+	 * 
+	 * @param values
+	 */
 	public void saveBubbles(List<BubbleView> values) {
 		db.storeBubbleViews(values);
 	}
 
+	/**
+	 * Queue storing bubbles and run a callback on the main thread once they
+	 * are written. Read bubbles back from the callback.
+	 * 
+	 * @param values
+	 * @param written
+	 */
+	public void saveBubbles(List<BubbleView> values, Runnable written) {
+		db.storeBubbleViews(values);
+		db.afterWrites(written);
+	}
+
+	/**
+	 * Wait until all queued writes are committed. Blocks, only for when the
+	 * app is closing.
+	 */
+	public void flush() {
+		db.flush();
+	}
+
 	private void getBubblesFromAssets() {
 		try {
 			InputStream is = context.getAssets().open("contextContent");
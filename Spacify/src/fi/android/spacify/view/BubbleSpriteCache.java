@@ -0,0 +1,207 @@
+package fi.android.spacify.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.Rect;
+import android.support.v4.util.LruCache;
+
+/**
+ * Cache of pre-rendered bubble images. Each combination of style, radius and
+ * title is rendered once into a bitmap containing both the ball and the
+ * wrapped title so drawing a bubble is a single bitmap blit.
+ *
+ * Radiuses are rounded up to {@link #RADIUS_STEP} so bubbles of nearly the
+ * same size share a sprite. Least recently used sprites are dropped when the
+ * cache grows over its memory budget.
+ */
+public class BubbleSpriteCache {
+
+	/**
+	 * Sprite radiuses are rounded to multiples of this many pixels.
+	 */
+	public static final int RADIUS_STEP = 4;
+
+	private final Bitmap greenBall, blueBall;
+	private final Paint bitmapPaint, textPaint, greenDot, blueDot;
+	private final int greenDotAlpha, blueDotAlpha;
+	private final Rect target = new Rect();
+	private final List<String> lines = new ArrayList<String>();
+	private final LruCache<String, Bitmap> sprites;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param greenBall
+	 *            Ball image for green bubbles
+	 * @param blueBall
+	 *            Ball image for all other bubbles
+	 * @param maxBytes
+	 *            Memory budget for cached sprites
+	 */
+	public BubbleSpriteCache(Bitmap greenBall, Bitmap blueBall, int maxBytes) {
+		this.greenBall = greenBall;
+		this.blueBall = blueBall;
+
+		bitmapPaint = new Paint();
+		bitmapPaint.setAntiAlias(true);
+		bitmapPaint.setFilterBitmap(true);
+
+		textPaint = new Paint();
+		textPaint.setAntiAlias(true);
+		textPaint.setColor(Color.WHITE);
+		textPaint.setStyle(Style.FILL);
+
+		greenDot = createDotPaint(greenBall);
+		blueDot = createDotPaint(blueBall);
+		greenDotAlpha = greenDot.getAlpha();
+		blueDotAlpha = blueDot.getAlpha();
+
+		sprites = new LruCache<String, Bitmap>(maxBytes) {
+
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+		};
+	}
+
+	/**
+	 * Get sprite for a bubble. Sprite is rendered if it is not yet cached.
+	 *
+	 * @param green
+	 *            True if bubble has green style
+	 * @param title
+	 * @param radius
+	 * @return Sprite bitmap. Its size is twice the rounded radius.
+	 */
+	public Bitmap getSprite(boolean green, String title, float radius) {
+		return getSprite(green, title, radius, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get sprite for a bubble showing at most the given number of title lines.
+	 *
+	 * @param green
+	 *            True if bubble has green style
+	 * @param title
+	 * @param radius
+	 * @param maxLines
+	 *            Number of title lines to draw, 0 for ball only
+	 * @return Sprite bitmap. Its size is twice the rounded radius.
+	 */
+	public synchronized Bitmap getSprite(boolean green, String title, float radius, int maxLines) {
+		int rounded = roundRadius(radius);
+		if (maxLines <= 0) {
+			title = "";
+		}
+		String key = (green ? "g" : "b") + rounded + "|" + maxLines + "|" + title;
+
+		Bitmap sprite = sprites.get(key);
+		if (sprite == null) {
+			sprite = render(green ? greenBall : blueBall, title, rounded, maxLines);
+			sprites.put(key, sprite);
+		}
+		return sprite;
+	}
+
+	/**
+	 * @param green
+	 *            True if bubble has green style
+	 * @param alpha
+	 *            Alpha of the bubble between 0 and 255
+	 * @return Paint for drawing the bubble as a flat dot. The paint is shared
+	 *         and only valid until the next call.
+	 */
+	public Paint getDotPaint(boolean green, int alpha) {
+		Paint paint = green ? greenDot : blueDot;
+		paint.setAlpha((green ? greenDotAlpha : blueDotAlpha) * alpha / 255);
+		return paint;
+	}
+
+	/**
+	 * Drop all cached sprites.
+	 */
+	public void clear() {
+		sprites.evictAll();
+	}
+
+	/**
+	 * @param radius
+	 * @return Radius rounded up to the next {@link #RADIUS_STEP}.
+	 */
+	public static int roundRadius(float radius) {
+		int steps = (int) Math.ceil(radius / RADIUS_STEP);
+		return Math.max(steps, 1) * RADIUS_STEP;
+	}
+
+	private static Paint createDotPaint(Bitmap ball) {
+		Paint paint = new Paint();
+		paint.setAntiAlias(true);
+		paint.setStyle(Style.FILL);
+		paint.setColor(ball.getPixel(ball.getWidth() / 2, ball.getHeight() / 2));
+		return paint;
+	}
+
+	private Bitmap render(Bitmap ball, String title, int radius, int maxLines) {
+		int size = radius * 2;
+		Bitmap sprite = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(sprite);
+
+		target.set(0, 0, size, size);
+		canvas.drawBitmap(ball, null, target, bitmapPaint);
+
+		if (title != null && title.length() > 0) {
+			float textSize = radius / 2.75f;
+			int textFactor = (int) (radius / Math.sqrt(2));
+			textPaint.setTextSize(textSize);
+			wrapTitle(title, textFactor * 2);
+
+			int i = 0;
+			for (String line : lines) {
+				int dx = radius - textFactor;
+				int dy = (int) ((radius - (textFactor / 2)) + (i * textSize));
+				canvas.drawText(line, dx, dy, textPaint);
+				i += 1;
+
+				if (i * textSize >= textFactor * 2 || i >= maxLines) {
+					break;
+				}
+			}
+		}
+
+		return sprite;
+	}
+
+	private void wrapTitle(String title, int maxWidth) {
+		lines.clear();
+
+		float[] charWidths = new float[title.length()];
+		textPaint.getTextWidths(title, charWidths);
+
+		StringBuilder line = new StringBuilder();
+		float total = 0;
+		for (int i = 0; i < title.length(); i++) {
+			char c = title.charAt(i);
+			if (total + charWidths[i] < maxWidth) {
+				total += charWidths[i];
+				line.append(c);
+			} else {
+				lines.add(line.toString());
+				total = charWidths[i];
+				line.setLength(0);
+				line.append(c);
+			}
+		}
+
+		if (line.length() > 0) {
+			lines.add(line.toString());
+		}
+	}
+
+}
@@ -1,11 +1,12 @@
 package fi.android.spacify.view;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -16,21 +17,30 @@ import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.PixelFormat;
 import android.graphics.RadialGradient;
+import android.graphics.Rect;
 import android.graphics.Shader.TileMode;
-import android.os.Handler;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
-import fi.android.service.WorkService;
 import fi.android.spacify.R;
 import fi.android.spacify.db.BubbleDatabase;
+import fi.android.spacify.engine.Animator;
+import fi.android.spacify.engine.BodyRegistry;
+import fi.android.spacify.engine.BodyStore;
+import fi.android.spacify.engine.EdgeList;
+import fi.android.spacify.engine.PhysicsWorld;
+import fi.android.spacify.engine.PositionSnapshot;
+import fi.android.spacify.engine.ReservedRegion;
+import fi.android.spacify.engine.SideSlots;
+import fi.android.spacify.engine.SnapshotBuffer;
 import fi.android.spacify.gesture.GestureInterface;
-import fi.android.spacify.gesture.LongClickGesture;
-import fi.android.spacify.gesture.SimpleTouchGesture;
+import fi.android.spacify.gesture.GestureEngine;
 import fi.android.spacify.model.Bubble;
 import fi.android.spacify.model.Bubble.BubbleMovement;
+import fi.android.spacify.model.BubbleTween;
+import fi.spacify.android.util.BaseSettings;
 
 /**
  * 
@@ -41,39 +51,108 @@ import fi.android.spacify.model.Bubble.BubbleMovement;
 public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback {
 
 	private final String TAG = "BubbleSurface";
-	private final WorkService ws = WorkService.getInstance();
-	private Bitmap background;
+	private Bitmap background, staticLayer;
+	private volatile boolean staticLayerValid = false;
+	private int staticLayerVersion = 0;
+	private volatile boolean surfaceReady = false;
 	public static Bitmap whiteBubble, greenBubble, blueBubble;
+	public static BubbleSpriteCache sprites;
+	/**
+	 * Runs all bubble animations of this surface. Advanced once per
+	 * simulation tick.
+	 */
+	private final Animator animator = new Animator();
+	/**
+	 * Position, radius, movement and flags of the bubbles on this surface.
+	 */
+	private final BodyStore store = new BodyStore();
+
+	/**
+	 * Share of the application heap bubble sprites may use.
+	 */
+	private final int SPRITE_CACHE_DIVIDER = 8;
 
 	/**
 	 * Maximum refresh rate is 30 frames per second.
 	 */
 	private final int MAX_REFRESH_RATE = 1000 / 60;
 
-	private final int DOUBLE_TAP_INTERVAL = 500;
-
 	private final int ZOOM_DOWN_TO = 60;
 
 	private GraphicThread graphicThread;
-	private final HashMap<Integer, SimpleTouchGesture<Bubble>> gestureList = new HashMap<Integer, SimpleTouchGesture<Bubble>>();
-	private final HashMap<String, GestureInterface<Bubble>> gestureMap = new HashMap<String, GestureInterface<Bubble>>();
+	private SimulationThread simulationThread;
+	private final GestureEngine<Bubble> gestures = new GestureEngine<Bubble>();
 
 	public static int maxX = 0;
 	public static int maxY = 0;
-	private int minX = 0;
-	private int minY = 0;
 
-	private Map<Integer, Bubble> bubbles = new HashMap<Integer, Bubble>();
+	/**
+	 * Bubbles on the surface. Readers iterate immutable snapshots without
+	 * locking, writers publish new versions.
+	 */
+	private final BodyRegistry<Bubble> bubbles = new BodyRegistry<Bubble>();
+	/**
+	 * Registry version whose bubbles are in the grid. Owned by the simulation
+	 * thread.
+	 */
+	private BodyRegistry.Snapshot<Bubble> gridContents = bubbles.snapshot();
 	private final HashMap<Integer, Bubble> movingBubbles = new HashMap<Integer, Bubble>();
 	private final BubbleDatabase db = BubbleDatabase.getInstance();
+	private final SnapshotBuffer<Bubble> snapshots = new SnapshotBuffer<Bubble>();
+	/**
+	 * Movement and collisions of the bubbles. Stepped by the simulation
+	 * thread.
+	 */
+	private final PhysicsWorld physics = new PhysicsWorld(store, animator);
+	private final SideSlots sideSlots = physics.getSideSlots();
+
+	/**
+	 * Links between bubbles on the surface, each undirected link stored once.
+	 * Kept up to date trough {@link #linkTracker}.
+	 */
+	private final EdgeList edges = new EdgeList();
+	private float[] linePoints = new float[64];
+	private int culledLinks = 0;
+	private final DetailLevels detailLevels = new DetailLevels();
+	private final Bubble.OnLinksChangedListener linkTracker = new Bubble.OnLinksChangedListener() {
+
+		@Override
+		public void onLinkAdded(Bubble b, int link) {
+			synchronized (edges) {
+				edges.addDirected(b.getID(), link);
+			}
+			fullRedraw = true;
+		}
+
+		@Override
+		public void onLinkRemoved(Bubble b, int link) {
+			synchronized (edges) {
+				edges.removeDirected(b.getID(), link);
+			}
+			fullRedraw = true;
+		}
+	};
+
+	/**
+	 * When true only the parts of the surface that changed since the last
+	 * frame are redrawn.
+	 */
+	private boolean dirtyRegionRendering = true;
+	private volatile boolean fullRedraw = true;
+	private final Rect dirty = new Rect();
+	private final Rect clip = new Rect();
+	private PositionSnapshot<Bubble> frame;
+	private final PositionSnapshot<Bubble> lastDrawn = new PositionSnapshot<Bubble>();
+	private boolean[] changed = new boolean[0];
+
+	/**
+	 * Frame timing statistics. Collected when {@link #metricsEnabled} is set.
+	 */
+	private final FrameMetrics metrics = new FrameMetrics(MAX_REFRESH_RATE);
+	private volatile boolean metricsEnabled = BaseSettings.DEBUG;
+	private volatile boolean metricsOverlay = false;
 
-	private boolean changingLists = false;
-	private boolean hitDetection = false;
-	private boolean drawing = false;
-	private boolean movementChange = false;
 	private Paint linePaint, deletePaint;
-	private Handler handler = new Handler();
-	private List<SideSlot> freeSlotList = new ArrayList<BubbleSurface.SideSlot>();
 	private List<CommandSlot> commandSlotList = new ArrayList<CommandSlot>();
 
 	/**
@@ -134,6 +213,27 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 		whiteBubble = BitmapFactory.decodeResource(getResources(), R.drawable.transparentball, options);
 		greenBubble = BitmapFactory.decodeResource(getResources(), R.drawable.greenball, options);
 		blueBubble = BitmapFactory.decodeResource(getResources(), R.drawable.lightblueball, options);
+		sprites = new BubbleSpriteCache(greenBubble, blueBubble,
+				(int) (Runtime.getRuntime().maxMemory() / SPRITE_CACHE_DIVIDER));
+		animator.setOnTweenStartedListener(new Animator.OnTweenStartedListener() {
+
+			@Override
+			public void onTweenStarted() {
+				requestFrame();
+			}
+		});
+		physics.setListener(new PhysicsWorld.Listener() {
+
+			@Override
+			public void onStep() {
+				syncGrid(bubbles.snapshot());
+			}
+
+			@Override
+			public void onTouched(int first, int second) {
+				toggleLink(first, second);
+			}
+		});
 
 		instance = this;
 	}
@@ -142,82 +242,316 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	public void onDraw(Canvas canvas) {
 		super.onDraw(canvas);
 
+		boolean measure = metricsEnabled;
 		clearCanvas(canvas);
-		drawCommandSlots(canvas);
 		// drawTouchedGradient(canvas);
+		if (measure) {
+			metrics.mark(FrameMetrics.BACKGROUND);
+		}
 
-		if (changingLists) {
-			drawing = false;
-			return;
+		PositionSnapshot<Bubble> snapshot = frame != null ? frame : snapshots.acquire();
+		// Canvas is clipped to the dirty region when only a part is redrawn
+		canvas.getClipBounds(clip);
+		int links = drawLinks(canvas, snapshot);
+		if (measure) {
+			metrics.mark(FrameMetrics.LINKS);
+		}
+
+		// Each bubble is drawn once, in snapshot order, on top of the links
+		int visible = 0;
+		for (int i = 0; i < snapshot.size(); i++) {
+			float x = snapshot.x(i), y = snapshot.y(i), r = snapshot.radius(i);
+			if (inClip(x - r, y - r, x + r, y + r)) {
+				snapshot.body(i).onDraw(canvas, x, y, r, detailLevels.levelOf(r));
+				visible += 1;
+			}
+		}
+
+		if (measure) {
+			metrics.setVisible(visible, links, snapshot.size() - visible, culledLinks);
+			if (metricsOverlay) {
+				metrics.drawOverlay(canvas);
+			}
+			metrics.mark(FrameMetrics.BUBBLES);
+		}
+	}
+
+	/**
+	 * Enable or disable collecting frame timing statistics.
+	 * 
+	 * @param enabled
+	 */
+	public void setFrameMetricsEnabled(boolean enabled) {
+		metricsEnabled = enabled;
+		if (!enabled) {
+			setFrameMetricsOverlay(false);
+		}
+	}
+
+	/**
+	 * Show or hide frame timing statistics on top of the bubbles. Enables
+	 * collecting the statistics if needed. The overlay is drawn by the Canvas
+	 * renderer only.
+	 * 
+	 * @param visible
+	 */
+	public void setFrameMetricsOverlay(boolean visible) {
+		if (visible) {
+			metricsEnabled = true;
 		}
-		drawing = true;
+		metricsOverlay = visible;
+		fullRedraw = true;
+		requestFrame();
+	}
 
-		Iterator<Bubble> iterator = bubbles.values().iterator();
-		while (iterator.hasNext()) {
-			Bubble b1 = iterator.next();
-			for (int id : b1.getLinks()) {
-				Bubble b2 = bubbles.get(id);
-				if (b2 != null) {
-					if (b1 != null) {
-						canvas.drawLine(b1.x, b1.y, b2.x, b2.y, linePaint);
+	/**
+	 * @return True if frame timing statistics are collected.
+	 */
+	public boolean isFrameMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	/**
+	 * @return Frame timing statistics of this surface.
+	 */
+	public FrameMetrics getFrameMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Append current frame timing statistics to a file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void dumpFrameMetrics(File file) throws IOException {
+		metrics.dump(file);
+	}
+
+	/**
+	 * Draw all links visible in the clip with a single drawLines call.
+	 * 
+	 * @param canvas
+	 * @param snapshot
+	 * @return Number of links drawn
+	 */
+	private int drawLinks(Canvas canvas, PositionSnapshot<Bubble> snapshot) {
+		int count = collectLinks(snapshot, clip);
+		if (count > 0) {
+			canvas.drawLines(linePoints, 0, count, linePaint);
+		}
+		return count / 4;
+	}
+
+	/**
+	 * Fill {@link #getLinkPoints()} with end points of the links that cross
+	 * the given area. Called from the graphic thread only.
+	 * 
+	 * @param snapshot
+	 * @param area
+	 * @return Number of floats filled, four for each link.
+	 */
+	int collectLinks(PositionSnapshot<Bubble> snapshot, Rect area) {
+		int count = 0;
+		culledLinks = 0;
+		synchronized (edges) {
+			if (linePoints.length < edges.size() * 4) {
+				linePoints = new float[edges.size() * 8];
+			}
+			for (int e = 0; e < edges.size(); e++) {
+				int i = snapshot.indexOf(edges.first(e));
+				int j = snapshot.indexOf(edges.second(e));
+				if (i != -1 && j != -1) {
+					float x1 = snapshot.x(i), y1 = snapshot.y(i);
+					float x2 = snapshot.x(j), y2 = snapshot.y(j);
+					if (crosses(area, x1, y1, x2, y2)) {
+						linePoints[count++] = x1;
+						linePoints[count++] = y1;
+						linePoints[count++] = x2;
+						linePoints[count++] = y2;
+					} else {
+						culledLinks += 1;
 					}
-					b2.onDraw(canvas);
 				}
 			}
-			b1.onDraw(canvas);
 		}
-		drawing = false;
+		return count;
+	}
+
+	/**
+	 * @return Links left out by the last
+	 *         {@link #collectLinks(PositionSnapshot, Rect)}.
+	 */
+	int getCulledLinks() {
+		return culledLinks;
+	}
+
+	/**
+	 * @return Levels of detail used for drawing bubbles.
+	 */
+	public DetailLevels getDetailLevels() {
+		return detailLevels;
+	}
+
+	/**
+	 * @return Link end points filled by
+	 *         {@link #collectLinks(PositionSnapshot, Rect)}.
+	 */
+	float[] getLinkPoints() {
+		return linePoints;
+	}
+
+	/**
+	 * @return Snapshot picked by the last {@link #prepareFrame()}.
+	 */
+	PositionSnapshot<Bubble> getFrame() {
+		return frame != null ? frame : snapshots.acquire();
+	}
+
+	private boolean inClip(float left, float top, float right, float bottom) {
+		return inside(clip, left, top, right, bottom);
+	}
+
+	private boolean inside(Rect area, float left, float top, float right, float bottom) {
+		float margin = linePaint.getStrokeWidth();
+		return left - margin < area.right && area.left < right + margin && top - margin < area.bottom
+				&& area.top < bottom + margin;
+	}
+
+	/**
+	 * Check if line segment may cross the area. Long diagonal links have a
+	 * bounding box overlapping the area even when the line passes it by, so
+	 * these are rejected when all corners of the area are on the same side of
+	 * the line.
+	 */
+	private boolean crosses(Rect area, float x1, float y1, float x2, float y2) {
+		if (!inside(area, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2))) {
+			return false;
+		}
+
+		float margin = linePaint.getStrokeWidth();
+		float left = area.left - margin, top = area.top - margin;
+		float right = area.right + margin, bottom = area.bottom + margin;
+		float dx = x2 - x1, dy = y2 - y1;
+		float a = dx * (top - y1) - dy * (left - x1);
+		float b = dx * (top - y1) - dy * (right - x1);
+		float c = dx * (bottom - y1) - dy * (left - x1);
+		float d = dx * (bottom - y1) - dy * (right - x1);
+		return !((a > 0 && b > 0 && c > 0 && d > 0) || (a < 0 && b < 0 && c < 0 && d < 0));
+	}
+
+	/**
+	 * Enable or disable dirty region rendering. When disabled every frame
+	 * redraws the whole surface.
+	 * 
+	 * @param enabled
+	 */
+	public void setDirtyRegionRendering(boolean enabled) {
+		dirtyRegionRendering = enabled;
+		fullRedraw = true;
 	}
 
-	private void drawCommandSlots(Canvas c) {
-		for (CommandSlot cs : commandSlotList) {
-			cs.onDraw(c);
+	/**
+	 * Pick the newest snapshot for drawing and calculate the area that changed
+	 * since the last drawn frame.
+	 * 
+	 * The returned rectangle is meant for {@link SurfaceHolder#lockCanvas(Rect)}
+	 * which grows it to cover whatever the surface buffer being drawn to has
+	 * missed since it was last posted. {@link #onDraw(Canvas)} honours the
+	 * resulting clip so buffer history is handled by the surface.
+	 * 
+	 * @return Dirty area, empty if nothing changed or null if the whole
+	 *         surface should be redrawn.
+	 */
+	private Rect prepareFrame() {
+		frame = snapshots.acquire();
+
+		// The overlay changes every frame so it needs the whole surface
+		boolean full = !dirtyRegionRendering || fullRedraw || metricsOverlay || frame.size() != lastDrawn.size();
+		fullRedraw = false;
+
+		if (!full) {
+			dirty.setEmpty();
+			if (changed.length < frame.size()) {
+				changed = new boolean[frame.size() * 2];
+			}
+
+			for (int i = 0; i < frame.size() && !full; i++) {
+				int p = lastDrawn.indexOf(frame.id(i));
+				if (p == -1) {
+					// Bubble added and another removed
+					full = true;
+				} else {
+					changed[i] = frame.x(i) != lastDrawn.x(p) || frame.y(i) != lastDrawn.y(p)
+							|| frame.radius(i) != lastDrawn.radius(p);
+					if (changed[i]) {
+						addCircle(lastDrawn.x(p), lastDrawn.y(p), lastDrawn.radius(p));
+						addCircle(frame.x(i), frame.y(i), frame.radius(i));
+					}
+				}
+			}
+
+			synchronized (edges) {
+				for (int e = 0; e < edges.size() && !full; e++) {
+					int i = frame.indexOf(edges.first(e));
+					int j = frame.indexOf(edges.second(e));
+					if (i != -1 && j != -1 && (changed[i] || changed[j])) {
+						int p = lastDrawn.indexOf(edges.first(e));
+						int q = lastDrawn.indexOf(edges.second(e));
+						addLine(lastDrawn.x(p), lastDrawn.y(p), lastDrawn.x(q), lastDrawn.y(q));
+						addLine(frame.x(i), frame.y(i), frame.x(j), frame.y(j));
+					}
+				}
+			}
 		}
+
+		lastDrawn.clear();
+		for (int i = 0; i < frame.size(); i++) {
+			lastDrawn.add(frame.id(i), null, frame.x(i), frame.y(i), frame.radius(i));
+		}
+
+		return full ? null : dirty;
+	}
+
+	private void addCircle(float x, float y, float radius) {
+		dirty.union((int) (x - radius) - 1, (int) (y - radius) - 1, (int) (x + radius) + 2, (int) (y + radius) + 2);
+	}
+
+	private void addLine(float x1, float y1, float x2, float y2) {
+		int margin = (int) Math.ceil(linePaint.getStrokeWidth());
+		dirty.union((int) Math.min(x1, x2) - margin, (int) Math.min(y1, y2) - margin, (int) Math.max(x1, x2)
+				+ margin, (int) Math.max(y1, y2) + margin);
 	}
 
 	private final int GRADIENT_HALO = 35;
 
 	private void drawTouchedGradient(Canvas c) {
 		for (Bubble b : movingBubbles.values()) {
-			RadialGradient gradient = new RadialGradient(b.x, b.y, b.radius + GRADIENT_HALO, Color.WHITE,
-					Color.TRANSPARENT, TileMode.CLAMP);
+			RadialGradient gradient = new RadialGradient(b.getX(), b.getY(), b.getRadius() + GRADIENT_HALO,
+					Color.WHITE, Color.TRANSPARENT, TileMode.CLAMP);
 			Paint p = new Paint();
 			p.setDither(true);
 			p.setShader(gradient);
-			c.drawCircle(b.x, b.y, b.radius + GRADIENT_HALO, p);
+			c.drawCircle(b.getX(), b.getY(), b.getRadius() + GRADIENT_HALO, p);
 		}
 	}
 
-	private void calculateSize(Canvas c) {
-		maxX = c.getWidth();
-		maxY = c.getHeight();
-
-		int x = 1;
-		int sizeFactor = 2;
-		while ((x * ZOOM_DOWN_TO * sizeFactor) < maxX) {
-			SideSlot s = new SideSlot();
-			s.x = ((x * ZOOM_DOWN_TO * sizeFactor) + ((x - 1) * ZOOM_DOWN_TO));
-			s.y = ZOOM_DOWN_TO * sizeFactor;
-
-			synchronized (freeSlotList) {
-				freeSlotList.add(s);
-			}
-			x += 1;
+	/**
+	 * Lay out side slots and command slots for the given surface size. Called
+	 * once per surface change.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	private void calculateSize(int width, int height) {
+		synchronized (commandSlotList) {
+			commandSlotList.clear();
 		}
 
-		int y = 2;
-		float ySize = maxY - getResources().getDimension(R.dimen.command_circle);
-		while ((y * ZOOM_DOWN_TO * sizeFactor) < ySize) {
-			SideSlot s = new SideSlot();
-			s.x = maxX - (ZOOM_DOWN_TO * sizeFactor);
-			s.y = ((y * ZOOM_DOWN_TO * sizeFactor) + ((y - 2) * ZOOM_DOWN_TO));
-
-			synchronized (freeSlotList) {
-				freeSlotList.add(s);
-			}
-			y += 1;
-		}
-		freeSlotList.remove(freeSlotList.size() - 1);
+		maxX = width;
+		maxY = height;
+		physics.setBounds(0, 0, width, height);
+		sideSlots.layout(width, height, getResources().getDimension(R.dimen.command_circle), ZOOM_DOWN_TO);
 
 		CommandSlot delete = new CommandSlot();
 		delete.x = maxX;
@@ -231,23 +565,143 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 		delete.textPaint.setTextSize((getResources().getDimension(R.dimen.text_normal)));
 		delete.textX = (maxX - (delete.size * 2 / 3));
 		delete.textY = (maxY - (delete.size / 3));
-		commandSlotList.add(delete);
+		addCommandSlot(delete);
 
 	}
 
+	private void addCommandSlot(CommandSlot cs) {
+		synchronized (commandSlotList) {
+			commandSlotList.add(cs);
+		}
+		staticLayerValid = false;
+	}
+
+	/**
+	 * Draw background and command slots. They do not change between frames so
+	 * they are composited once into an opaque bitmap that is copied to the
+	 * canvas in one call.
+	 * 
+	 * @param c
+	 */
 	private void clearCanvas(Canvas c) {
-		c.drawBitmap(background, c.getMatrix(), null);
+		c.drawBitmap(getStaticLayer(c.getWidth(), c.getHeight()), 0, 0, null);
+	}
+
+	/**
+	 * Get background and command slots composited to one bitmap. The bitmap
+	 * is rebuilt if it is out of date. Called from the graphic thread only.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return Static layer of the given size
+	 */
+	Bitmap getStaticLayer(int width, int height) {
+		if (!staticLayerValid || staticLayer == null || staticLayer.getWidth() != width
+				|| staticLayer.getHeight() != height) {
+			buildStaticLayer(width, height);
+		}
+		return staticLayer;
+	}
+
+	/**
+	 * @return Number that changes every time the static layer is rebuilt.
+	 */
+	int getStaticLayerVersion() {
+		return staticLayerVersion;
+	}
+
+	private void buildStaticLayer(int width, int height) {
+		if (staticLayer == null || staticLayer.getWidth() != width || staticLayer.getHeight() != height) {
+			if (staticLayer != null) {
+				staticLayer.recycle();
+			}
+			staticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+		}
+
+		Canvas layer = new Canvas(staticLayer);
+		layer.drawBitmap(background, 0, 0, null);
+		synchronized (commandSlotList) {
+			for (CommandSlot cs : commandSlotList) {
+				cs.onDraw(layer);
+			}
+		}
+		staticLayerValid = true;
+		staticLayerVersion += 1;
+		Log.d(TAG, "Static layer built " + width + "x" + height);
+	}
+
+	/**
+	 * Draw with software {@link Canvas}.
+	 */
+	public static final int RENDERER_CANVAS = 0;
+	/**
+	 * Draw with OpenGL ES 2.0. Falls back to {@link #RENDERER_CANVAS} if
+	 * OpenGL ES 2.0 can not be used.
+	 */
+	public static final int RENDERER_GL = 1;
+
+	private volatile int rendererType = RENDERER_CANVAS;
+
+	/**
+	 * Select how the surface is drawn. A surface that has been drawn with
+	 * Canvas can not be connected to OpenGL and vice versa, so the surface is
+	 * recreated if it already exists.
+	 * 
+	 * @param renderer
+	 *            {@link #RENDERER_CANVAS} or {@link #RENDERER_GL}
+	 */
+	public void setRenderer(int renderer) {
+		if (rendererType == renderer) {
+			return;
+		}
+		rendererType = renderer;
+
+		if (surfaceReady) {
+			post(new Runnable() {
+
+				@Override
+				public void run() {
+					setVisibility(INVISIBLE);
+					setVisibility(VISIBLE);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return Renderer selected with {@link #setRenderer(int)}.
+	 */
+	public int getRenderer() {
+		return rendererType;
+	}
+
+	private SurfaceRenderer createRenderer(SurfaceHolder holder) {
+		if (rendererType == RENDERER_GL) {
+			GLRenderer gl = new GLRenderer(this, metrics, greenBubble, blueBubble, linePaint);
+			if (gl.start(holder)) {
+				return gl;
+			}
+			Log.w(TAG, "OpenGL ES 2.0 not available, using Canvas");
+			rendererType = RENDERER_CANVAS;
+		}
+
+		CanvasRenderer canvas = new CanvasRenderer(this, metrics);
+		canvas.start(holder);
+		return canvas;
 	}
 
 	/**
-	 * Start movement and graphic threads if they have been stopped.
+	 * Start movement and graphic threads if they have been stopped. Graphics
+	 * are started only when the surface exists.
 	 */
 	public void startThreads() {
-		startGraphics();
+		startSimulation();
+		if (surfaceReady) {
+			startGraphics();
+		}
 	}
 
 	private void startGraphics() {
-		handler.removeCallbacks(pauseDrawing);
 		if (graphicThread == null) {
 			graphicThread = new GraphicThread(getHolder(), this);
 			graphicThread.setRunning(true);
@@ -256,58 +710,274 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 		}
 	}
 
+	private void startSimulation() {
+		if (simulationThread == null) {
+			simulationThread = new SimulationThread();
+			simulationThread.setRunning(true);
+			simulationThread.start();
+			Log.d(TAG, "Simulation started");
+		}
+	}
+
+	/**
+	 * Wake up the simulation and ask for a new frame. Threads sleep when
+	 * nothing moves, so anything changing the bubbles from outside of the
+	 * simulation has to call this.
+	 */
+	public void requestFrame() {
+		requestFrame(0);
+	}
+
+	/**
+	 * Wake up the simulation and keep it running for at least the given time.
+	 * Used by animations that move bubbles without the simulation knowing
+	 * about it.
+	 * 
+	 * @param duration
+	 *            Time in milliseconds to keep simulating
+	 */
+	public void requestFrame(long duration) {
+		SimulationThread simulation = simulationThread;
+		if (simulation != null) {
+			simulation.wakeUp(physics.getClock().now() + duration);
+		}
+		requestRender();
+	}
+
+	private void requestRender() {
+		GraphicThread graphics = graphicThread;
+		if (graphics != null) {
+			graphics.requestRender();
+		}
+	}
+
 	@Override
 	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		calculateSize(width, height);
+		staticLayerValid = false;
+		fullRedraw = true;
+		requestFrame();
 	}
 
 	@Override
 	public void surfaceCreated(SurfaceHolder holder) {
-
 		holder.setFormat(PixelFormat.RGBA_8888);
-		Canvas c = holder.lockCanvas();
-		if (maxX == 0 || maxY == 0) {
-			calculateSize(c);
-		}
-		holder.unlockCanvasAndPost(c);
 
-		startGraphics();
+		surfaceReady = true;
+		fullRedraw = true;
+		startThreads();
 	}
 
 	/**
 	 * Stop graphic and movement threads. Use this when putting the activity to
-	 * pause.
+	 * pause. Returns when both threads have finished.
 	 */
 	public void stopThreads() {
 		stopGraphics();
+		stopSimulation();
+		physics.shutdown();
 	}
 
 	@Override
 	public void surfaceDestroyed(SurfaceHolder holder) {
+		surfaceReady = false;
+		// Surface is invalid after this returns so drawing must have stopped
 		stopThreads();
 	}
 
 	private void stopGraphics() {
 		if (graphicThread != null) {
 			graphicThread.setRunning(false);
+			join(graphicThread);
 			graphicThread = null;
 			Log.d(TAG, "Graphics stopped");
 		}
 	}
 
+	private void stopSimulation() {
+		if (simulationThread != null) {
+			simulationThread.setRunning(false);
+			join(simulationThread);
+			simulationThread = null;
+			Log.d(TAG, "Simulation stopped");
+		}
+	}
+
+	private void join(Thread thread) {
+		boolean retry = true;
+		while (retry) {
+			try {
+				thread.join();
+				retry = false;
+			} catch (InterruptedException e) {
+				// keep waiting
+			}
+		}
+	}
+
+	/**
+	 * Advances {@link #physics} and publishes the resulting positions for
+	 * {@link GraphicThread}. Simulation is the only thread moving bubbles in
+	 * response to touch and collisions.
+	 * 
+	 * When no bubble is moving the thread waits until
+	 * {@link BubbleSurface#requestFrame()} is called.
+	 */
+	class SimulationThread extends Thread {
+
+		private volatile boolean run = false;
+		private boolean wakeRequested = false;
+		private long activeUntil = 0;
+
+		public synchronized void setRunning(boolean run) {
+			this.run = run;
+			notify();
+		}
+
+		public synchronized void wakeUp(long until) {
+			wakeRequested = true;
+			if (until > activeUntil) {
+				activeUntil = until;
+			}
+			notify();
+		}
+
+		private synchronized boolean waitForWork() throws InterruptedException {
+			while (run && !wakeRequested) {
+				wait();
+			}
+			wakeRequested = false;
+			return run;
+		}
+
+		private synchronized boolean keepRunning() {
+			return physics.getClock().now() < activeUntil;
+		}
+
+		@Override
+		public void run() {
+			physics.resume();
+			while (run) {
+				try {
+					long start = System.nanoTime();
+					boolean animating = physics.advance();
+					boolean active = publishSnapshot() || keepRunning() || animating;
+					if (metricsEnabled) {
+						metrics.recordSimulation(System.nanoTime() - start, physics.getQueuedPushes());
+					}
+					requestRender();
+
+					if (active) {
+						sleep(physics.getTimeToNextStep());
+					} else if (waitForWork()) {
+						physics.resume();
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					Log.e(TAG, "Error in simulation!", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Search collision candidates only in the simulation thread instead of
+	 * using all cores.
+	 * 
+	 * @param sequential
+	 */
+	public void setSequentialCollisions(boolean sequential) {
+		physics.setSequential(sequential);
+	}
+
+	/**
+	 * Bring the grid and the bubble store up to date with the bubble
+	 * registry. Called at the start of each tick and before publishing. Only
+	 * the simulation thread writes to the grid and allocates store slots, so
+	 * a bubble removed by another thread can not be put back by a late
+	 * position update.
+	 * 
+	 * @param current
+	 */
+	private void syncGrid(BodyRegistry.Snapshot<Bubble> current) {
+		if (current.version() == gridContents.version()) {
+			return;
+		}
+		// Free slots before allocating, a bubble may have been replaced by
+		// another one with the same id
+		for (int i = 0; i < gridContents.size(); i++) {
+			Bubble b = gridContents.body(i);
+			if (current.get(b.getID()) != b) {
+				if (!current.contains(b.getID())) {
+					physics.forget(b.getID());
+				}
+				b.detach();
+			}
+		}
+		for (int i = 0; i < current.size(); i++) {
+			current.body(i).attach(store);
+		}
+		gridContents = current;
+	}
+
+	/**
+	 * Copy current bubble positions to a snapshot and hand it over to the
+	 * render thread.
+	 * 
+	 * @return True if something is still awake and the simulation should keep
+	 *         running.
+	 */
+	private boolean publishSnapshot() {
+		PositionSnapshot<Bubble> snapshot = snapshots.getBackBuffer();
+		BodyRegistry.Snapshot<Bubble> current = bubbles.snapshot();
+		syncGrid(current);
+		for (int i = 0; i < current.size(); i++) {
+			int slot = current.body(i).getSlot();
+			// Animations move bubbles without going through the simulation,
+			// this wakes them up
+			physics.moved(slot);
+			snapshot.add(current.id(i), current.body(i), store.getX(slot), store.getY(slot), store.getRadius(slot));
+		}
+		snapshots.publish();
+		return physics.isBusy();
+	}
+
+	/**
+	 * Draws a frame when one has been requested. Frames are spaced at least
+	 * {@link BubbleSurface#MAX_REFRESH_RATE} apart and posting blocks until the
+	 * surface has a free buffer, which keeps drawing in step with the display.
+	 * Between requests the thread waits without using any CPU.
+	 */
 	class GraphicThread extends Thread {
 		private final SurfaceHolder holder;
 		private final BubbleSurface surface;
-		private long lastUpdate = 0;
+		private long nextFrame = 0;
 
-		private boolean run = false;
+		private volatile boolean run = false;
+		private boolean renderRequested = true;
 
 		public GraphicThread(SurfaceHolder surfaceHolder, BubbleSurface surface) {
 			holder = surfaceHolder;
 			this.surface = surface;
 		}
 
-		public void setRunning(boolean run) {
+		public synchronized void setRunning(boolean run) {
 			this.run = run;
+			notify();
+		}
+
+		public synchronized void requestRender() {
+			renderRequested = true;
+			notify();
+		}
+
+		private synchronized boolean waitForRequest() throws InterruptedException {
+			while (run && !renderRequested) {
+				wait();
+			}
+			renderRequested = false;
+			return run;
 		}
 
 		public SurfaceHolder getSurfaceHolder() {
@@ -316,32 +986,31 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 
 		@Override
 		public void run() {
-			Canvas c;
-			while (run) {
-				c = null;
-				try {
-					if (lastUpdate + MAX_REFRESH_RATE <= System.currentTimeMillis()) {
-						if (holder != null) {
-							c = holder.lockCanvas(null);
-							if (c != null && surface != null) {
-								calculateSize(c);
-								surface.onDraw(c);
-								lastUpdate = System.currentTimeMillis();
-							}
+			// Renderer is created here since OpenGL context belongs to the
+			// thread that made it current
+			SurfaceRenderer renderer = surface.createRenderer(holder);
+			try {
+				while (run) {
+					try {
+						if (!waitForRequest()) {
+							return;
 						}
-					} else {
-						synchronized (this) {
-							sleep(MAX_REFRESH_RATE / 2);
+
+						long wait = nextFrame - System.currentTimeMillis();
+						if (wait > 0) {
+							sleep(wait);
 						}
-					}
-				} catch (Exception e) {
-					Log.e(TAG, "Error drawing!", e);
-				} finally {
-					// make sure to always release canvas
-					if (c != null && holder != null) {
-						holder.unlockCanvasAndPost(c);
+						nextFrame = System.currentTimeMillis() + MAX_REFRESH_RATE;
+
+						renderer.drawFrame(holder, surface.prepareFrame());
+					} catch (InterruptedException e) {
+						return;
+					} catch (Exception e) {
+						Log.e(TAG, "Error drawing!", e);
 					}
 				}
+			} finally {
+				renderer.stop();
 			}
 		}
 	}
@@ -365,13 +1034,15 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	 * @param gesture
 	 */
 	public void setGesture(String event, GestureInterface<Bubble> gesture) {
-		gestureMap.put(event, gesture);
+		if (BubbleEvents.SINGLE_TOUCH.equals(event)) {
+			gestures.setSingleTouch(gesture);
+		} else if (BubbleEvents.LONG_CLICK.equals(event)) {
+			gestures.setLongClick(gesture);
+		} else if (BubbleEvents.DOUBLE_CLICK.equals(event)) {
+			gestures.setDoubleClick(gesture);
+		}
 	}
 
-	private LongClickGesture<Bubble> longClickGesture;
-
-	private long doubleClickFirstDown = 0;
-	private int doubleClickFirstClickID = -1;
 	private int zoomPointerIndex = -1;
 	private double firstZoomDistance = 0;
 	private Bubble zooming = null;
@@ -389,36 +1060,21 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 		switch (action) {
 		case MotionEvent.ACTION_DOWN:
 		case MotionEvent.ACTION_POINTER_DOWN:
-			startGraphics();
-			if (longClickGesture != null) {
-				longClickGesture.cancel();
-				longClickGesture = null;
-			}
+			startThreads();
+			requestFrame();
 
 			Bubble bHit = hitBubble((int) event.getX(pointerIndex), (int) event.getY(pointerIndex));
-			GestureInterface<Bubble> longClick = gestureMap.get(BubbleEvents.LONG_CLICK);
-			if (bHit != null && bHit.movement != BubbleMovement.MOVING) {
+			if (bHit != null && bHit.getMovement() != BubbleMovement.MOVING) {
+				animator.cancel(bHit);
 				removeBubbleFromFreeSlots(bHit.getID());
 				bHit.animateOnTouch();
 				bHit.setTouchOffset(((int) event.getX(pointerIndex)), (int) event.getY(pointerIndex));
-				GestureInterface<Bubble> doubleClick = gestureMap.get(BubbleEvents.DOUBLE_CLICK);
-				if (doubleClick != null) {
-					if (bHit.getID() == doubleClickFirstClickID
-							&& doubleClickFirstDown + DOUBLE_TAP_INTERVAL >= System.currentTimeMillis()) {
-						doubleClick.onGestureDetected(bHit, event);
-
-						doubleClickFirstDown = 0;
-						doubleClickFirstClickID = -1;
-					} else {
-						doubleClickFirstDown = System.currentTimeMillis();
-						doubleClickFirstClickID = bHit.getID();
-					}
-				}
-				bHit.movement = BubbleMovement.MOVING;
+				bHit.setMovement(BubbleMovement.MOVING);
 
 				synchronized (movingBubbles) {
 					movingBubbles.put(pointerIndex, bHit);
 				}
+				physics.drag(bHit.getID(), bHit.targetX, bHit.targetY);
 			} else {
 				// Bubble b = new Bubble(id);
 				// id += 1;
@@ -435,29 +1091,17 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 				zoomBack();
 			}
 
-			GestureInterface<Bubble> singleTouch = gestureMap.get(BubbleEvents.SINGLE_TOUCH);
-			if (singleTouch != null) {
-				SimpleTouchGesture<Bubble> gesture = new SimpleTouchGesture<Bubble>(singleTouch);
-				gesture.onTouchDown(bHit, event);
-				gestureList.put(pointerIndex, gesture);
-			}
-
-			if (longClick != null) {
-				longClickGesture = new LongClickGesture<Bubble>(longClick);
-				longClickGesture.onTouchDown(bHit, event);
-			}
+			gestures.onTouchEvent(event, pointerIndex, bHit);
 			break;
 		case MotionEvent.ACTION_MOVE:
+			gestures.onTouchEvent(event, pointerIndex, null);
 			synchronized (movingBubbles) {
 				for (Integer key : movingBubbles.keySet()) {
 					Bubble b = movingBubbles.get(key);
 					if (b != null && key < event.getPointerCount()) {
-						b.x = (int) event.getX(key) + b.offsetX;
-						b.y = (int) event.getY(key) + b.offsetY;
-
-						if (longClickGesture != null) {
-							longClickGesture.onMove(b, event);
-						}
+						b.targetX = (int) event.getX(key) + b.offsetX;
+						b.targetY = (int) event.getY(key) + b.offsetY;
+						physics.drag(b.getID(), b.targetX, b.targetY);
 
 						if (zoomPointerIndex != -1 && movingBubbles.size() == 1) {
 							// zoom happening
@@ -470,8 +1114,6 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 								b.zoom(d / firstZoomDistance);
 							}
 						}
-
-						moving(b);
 					}
 				}
 			}
@@ -479,21 +1121,21 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 			break;
 		case MotionEvent.ACTION_UP:
 		case MotionEvent.ACTION_POINTER_UP:
-			if (longClickGesture != null) {
-				longClickGesture.cancel();
-			}
-
-			final SimpleTouchGesture<Bubble> gesture = gestureList.remove(pointerIndex);
 			final Bubble b;
 			synchronized (movingBubbles) {
 				b = movingBubbles.remove(pointerIndex);
+				if (b != null) {
+					physics.release(b.getID());
+					// Apply the last touch position not yet seen by the
+					// simulation
+					b.setX(b.targetX);
+					b.setY(b.targetY);
+				}
 			}
-			if (gesture != null) {
-				gesture.onTouchUp(b, event);
-			}
+			gestures.onTouchEvent(event, pointerIndex, b);
 			if (b != null) {
-				b.linkStatusChanged = false;
-				b.movement = BubbleMovement.INERT;
+				b.setLinkStatusChanged(false);
+				b.setMovement(BubbleMovement.INERT);
 				b.animateOnUp();
 				checkCommands(b);
 			}
@@ -508,24 +1150,8 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 				synchronized (movingBubbles) {
 					movingBubbles.clear();
 				}
-
-				ws.postWork(new Runnable() {
-
-					@Override
-					public void run() {
-						if (changingLists) {
-							movementChange = false;
-							return;
-						}
-						movementChange = true;
-						for (Bubble b : bubbles.values()) {
-							b.movement = BubbleMovement.INERT;
-						}
-						movementChange = false;
-					}
-				});
-
-				handler.postDelayed(pauseDrawing, DRAW_PAUSE_DELAY);
+				physics.releaseAll();
+				physics.settle();
 			}
 			break;
 		}
@@ -545,22 +1171,9 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	}
 
 	private boolean commandHit(CommandSlot cs, Bubble b) {
-		double a = b.radius + cs.size;
-		double dx = b.x - cs.x;
-		double dy = b.y - cs.y;
-		return a * a > (dx * dx + dy * dy);
+		return PhysicsWorld.overlaps(b.getX(), b.getY(), b.getRadius(), cs.x, cs.y, cs.size);
 	}
 
-	private final int DRAW_PAUSE_DELAY = 3000;
-
-	private Runnable pauseDrawing = new Runnable() {
-
-		@Override
-		public void run() {
-			stopGraphics();
-		}
-	};
-
 	private void zoomBack() {
 		if (zooming != null) {
 			zooming.endZoom();
@@ -576,30 +1189,34 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	private final double ANIMATION_DURATION = 300;
 
 	/**
-	 * Moves all bubbles down.
+	 * Keep bubbles out of a band along the top of the surface, for example
+	 * the area under a popup. The band grows to its height during
+	 * {@link #ANIMATION_DURATION} and bubbles move out of its way as part of
+	 * the normal simulation.
 	 * 
-	 * @param to
+	 * @param height
+	 * @return Reserved region, give it to
+	 *         {@link #releaseRegion(ReservedRegion)} when the area is free
+	 *         again.
 	 */
-	public void pushBubblesVertically(final int to) {
-		ws.postWork(new Runnable() {
-
-			@Override
-			public void run() {
-				long start = System.currentTimeMillis();
-				int top = 0;
-				while (top < to) {
-					long pulse = System.currentTimeMillis() - start;
-
-					top = (int) (to * pulse / ANIMATION_DURATION);
+	public ReservedRegion reserveTop(int height) {
+		ReservedRegion region = new ReservedRegion(0, 0, maxX, 0);
+		physics.reserve(region);
+		animator.start(region.resizeTo(0, 0, maxX, height, (long) ANIMATION_DURATION, Animator.EASE_OUT));
+		startThreads();
+		return region;
+	}
 
-					for (Bubble b : bubbles.values()) {
-						if (b.y < top) {
-							b.y = top;
-						}
-					}
-				}
-			}
-		});
+	/**
+	 * Let bubbles into a reserved region again.
+	 * 
+	 * @param region
+	 *            Region from {@link #reserveTop(int)}
+	 */
+	public void releaseRegion(ReservedRegion region) {
+		animator.cancel(region);
+		physics.unreserve(region);
+		requestFrame();
 	}
 
 	private double distance(float x, float y, float x2, float y2) {
@@ -610,132 +1227,53 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	}
 
 	/**
-	 * Move bubble and react to collisions.
+	 * Link two dragged bubbles that touched, or unlink them if they were
+	 * linked already. Called from the simulation thread.
 	 * 
-	 * @param bubble
+	 * @param first
+	 *            Id of the bubble moved into the other one
+	 * @param second
 	 */
-	private void moving(final Bubble bubble) {
-		if (changingLists) {
-			return;
-		}
-		ws.postWork(new Runnable() {
-
-			@Override
-			public void run() {
-				for (Bubble b : bubbles.values()) {
-					if (changingLists) {
-						return;
-					}
-
-					if (b.getID() != bubble.getID()) {
-						if (b.movement != BubbleMovement.MOVING && isCollision(bubble, b)) {
-							autoMove(bubble, b);
-							if (b.lockedToPlase) {
-								removeBubbleFromFreeSlots(b.getID());
-								b.lockedToPlase = false;
-							}
-						} else if (b.movement == BubbleMovement.MOVING && bubble.movement == BubbleMovement.MOVING
-								&& isCollision(bubble, b)) {
-							if (!bubble.linkStatusChanged && !bubble.getLinks().contains(b.getID())) {
-								Log.d(TAG, "created link");
-								bubble.linkStatusChanged = true;
-								b.linkStatusChanged = true;
-								b.addLink(bubble.getID());
-								bubble.addLink(b.getID());
-
-								db.storeBubble(bubble);
-								db.storeBubble(b);
-							} else if (!bubble.linkStatusChanged) {
-								Log.d(TAG, "removed link");
-								bubble.linkStatusChanged = true;
-								b.linkStatusChanged = true;
-								b.removeLink(bubble.getID());
-								bubble.removeLink(b.getID());
-
-								db.storeBubble(bubble);
-								db.storeBubble(b);
-							}
-						}
-					}
-				}
-			}
-		});
-	}
-
-	private void autoMove(Bubble moving, Bubble pushed) {
-		double distance = distance(moving, pushed);
-
-		if (distance == 0 || moving.movement == BubbleMovement.INERT
-				|| (moving.movement == BubbleMovement.MOVING && pushed.movement == BubbleMovement.MOVING)) {
+	private void toggleLink(int first, int second) {
+		Bubble bubble = bubbles.get(first);
+		Bubble b = bubbles.get(second);
+		if (bubble == null || b == null) {
 			return;
 		}
-		double dx = moving.x - pushed.x;
-		double dy = moving.y - pushed.y;
-		float radius = pushed.radius > moving.radius ? pushed.radius : moving.radius;
-		double move = Math.abs(distance - radius);
-
-		double factor = 1;
-		if (dx > 0 && dy > 0) {
-			factor = dx < dy ? Math.abs(dx / dy) : 1 - Math.abs(dy / dx);
-		} else if (dx > 0 && dy < 0) {
-			factor = dx < Math.abs(dy) ? Math.abs(dx / dy) : 1 - Math.abs(dy / dx);
-		} else if (dx < 0 && dy > 0) {
-			factor = Math.abs(dx) < dy ? Math.abs(dx / dy) : 1 - Math.abs(dy / dx);
+		boolean linked = !bubble.hasLink(b.getID());
+		if (linked) {
+			Log.d(TAG, "created link");
+			Bubble.link(bubble, b);
 		} else {
-			factor = dx > dy ? Math.abs(dx / dy) : 1 - Math.abs(dy / dx);
-		}
-
-		if (dx > 0) {
-			pushed.x -= move * factor;
-		} else if (dx < 0) {
-			pushed.x += move * factor;
-		}
-
-		double rFactor = 1 - factor;
-		if (dy > 0) {
-			pushed.y -= move * rFactor;
-		} else if (dy < 0) {
-			pushed.y += move * rFactor;
-		}
-
-		// Don't let it go over
-		if (pushed.x + pushed.radius > maxX) {
-			pushed.x = (int) (maxX - pushed.radius);
-		} else if (pushed.x - pushed.radius < minX) {
-			pushed.x = minX + (int) pushed.radius;
+			Log.d(TAG, "removed link");
+			Bubble.unlink(bubble, b);
 		}
-
-		if (pushed.y + pushed.radius > maxY) {
-			pushed.y = (int) (maxY - pushed.radius);
-		} else if (pushed.y - pushed.radius < minY) {
-			pushed.y = minY + (int) pushed.radius;
-		}
-
-		pushed.movement = BubbleMovement.AUTOMATIC;
-		moving(pushed);
+		storeLink(first, second, linked);
+		fullRedraw = true;
 	}
 
-	private Bubble hitBubble(int x, int y) {
-		if (changingLists) {
-			hitDetection = false;
-			return null;
-		}
-		hitDetection = true;
-		for (Bubble b : bubbles.values()) {
-			if (distance(x, y, b.x, b.y) < b.radius) {
-				hitDetection = false;
-				return b;
-			}
+	/**
+	 * Store link in both directions. Only the link rows are written, on the
+	 * database writer thread in the order the links changed.
+	 * 
+	 * @param first
+	 * @param second
+	 * @param linked
+	 *            True if the link was created, false if removed
+	 */
+	private void storeLink(int first, int second, boolean linked) {
+		if (linked) {
+			db.addLink(first, second);
+			db.addLink(second, first);
+		} else {
+			db.removeLink(first, second);
+			db.removeLink(second, first);
 		}
-		hitDetection = false;
-		return null;
 	}
 
-	private boolean isCollision(Bubble b1, Bubble b2) {
-		final double a = b1.radius + b2.radius;
-		final double dx = b1.x - b2.x;
-		final double dy = b1.y - b2.y;
-		return a * a > (dx * dx + dy * dy);
+	private Bubble hitBubble(int x, int y) {
+		int id = physics.bodyAt(x, y);
+		return id != -1 ? bubbles.get(id) : null;
 	}
 
 	/**
@@ -750,53 +1288,63 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 
 	public void clear() {
 		stopThreads();
+		for (Bubble b : bubbles.snapshot()) {
+			b.setOnLinksChangedListener(null);
+		}
+		// Threads are stopped, safe to free the store slots here
+		for (Bubble b : gridContents) {
+			b.detach();
+		}
 		bubbles.clear();
+		synchronized (edges) {
+			edges.clear();
+		}
+		physics.clear();
+		gridContents = bubbles.snapshot();
+		fullRedraw = true;
 	}
 
 	/**
-	 * Inform BubbleSurface that this Bubble should be removed.
+	 * Inform BubbleSurface that this Bubble should be removed. Removal never
+	 * waits for drawing or the simulation; they see the bubble until they
+	 * pick up the next registry version.
 	 * 
 	 * @param removed
 	 *            Bubble to be removed
 	 */
 	public void removeBubble(final int removed) {
-		ws.postWork(new Runnable() {
-
-			@Override
-			public void run() {
-				removeBubbleFromFreeSlots(removed);
-				changingLists = true;
-				Random r = new Random();
-				while (changingLists) {
-					if (!hitDetection && !drawing && !movementChange) {
-						synchronized (bubbles) {
-							bubbles.remove(removed);
-						}
-						changingLists = false;
-					} else {
-						synchronized (this) {
-							try {
-								Log.d(TAG, "Waiting remove bubble");
-								Thread.sleep(r.nextInt(50));
-							} catch (InterruptedException e) {
-								e.printStackTrace();
-							}
-						}
-					}
-				}
-				startGraphics();
-			}
-		});
+		removeBubbleFromFreeSlots(removed);
+		detachLinks(bubbles.remove(removed));
+		startThreads();
+		requestFrame();
 	}
 
-	private void removeBubbleFromFreeSlots(final Integer id) {
-		synchronized (freeSlotList) {
-			for (SideSlot s : freeSlotList) {
-				if (s.bubbleList.remove(id)) {
-					return;
-				}
+	/**
+	 * Remove several bubbles with one registry update.
+	 * 
+	 * @param removed
+	 *            Ids of bubbles to be removed
+	 */
+	public void removeBubbles(Collection<Integer> removed) {
+		BodyRegistry<Bubble>.Editor editor = bubbles.edit();
+		BodyRegistry.Snapshot<Bubble> before = bubbles.snapshot();
+		for (int id : removed) {
+			removeBubbleFromFreeSlots(id);
+			editor.remove(id);
+		}
+		editor.commit();
+		for (int id : removed) {
+			Bubble b = before.get(id);
+			if (b != null && bubbles.get(id) != b) {
+				detachLinks(b);
 			}
 		}
+		startThreads();
+		requestFrame();
+	}
+
+	private void removeBubbleFromFreeSlots(int id) {
+		sideSlots.release(id);
 	}
 
 	/**
@@ -805,49 +1353,58 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	 * @param b
 	 */
 	public void addBubble(final Bubble b) {
-		/*
-		 * Check that the bubble is not already in BubbleSpace.
-		 */
-		if (bubbles.containsKey(b.getID())) {
-			return;
-		}
+		addBubbles(Collections.singletonList(b));
+	}
 
-		if (b.x == 0 && b.y == 0) {
-			if (maxX != 0 || maxY != 0) {
-				b.x = (int) (maxX * Math.random());
-				b.y = (int) (maxY * Math.random());
-			} else {
-				b.x = (int) (400 * Math.random());
-				b.y = (int) (400 * Math.random());
+	/**
+	 * Add several bubbles with one registry update, so loading a space copies
+	 * the registry once instead of once per bubble. Bubbles with an id
+	 * already on the surface are skipped.
+	 * 
+	 * @param added
+	 */
+	public void addBubbles(Collection<Bubble> added) {
+		BodyRegistry<Bubble>.Editor editor = bubbles.edit();
+		BodyRegistry.Snapshot<Bubble> before = bubbles.snapshot();
+		for (Bubble b : added) {
+			if (b.getX() == 0 && b.getY() == 0) {
+				b.setX(physics.randomX());
+				b.setY(physics.randomY());
 			}
+			editor.putIfAbsent(b.getID(), b);
 		}
+		BodyRegistry.Snapshot<Bubble> after = editor.commit();
 
-		Random r = new Random();
-		while (changingLists) {
-			synchronized (this) {
-				try {
-					Log.d(TAG, "Waiting to add bubble");
-					Thread.sleep(r.nextInt(100));
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+		synchronized (edges) {
+			for (Bubble b : added) {
+				if (before.contains(b.getID()) || after.get(b.getID()) != b) {
+					continue;
+				}
+				for (int link : b.getLinks()) {
+					edges.addDirected(b.getID(), link);
 				}
+				b.setOnLinksChangedListener(linkTracker);
 			}
 		}
-
-		synchronized (bubbles) {
-			bubbles.put(b.getID(), b);
-		}
-	}
-
-	private double distance(int x, int y, int bx, int by) {
-		double dx2 = Math.pow(x - bx, 2);
-		double dy2 = Math.pow(y - by, 2);
-
-		return Math.sqrt(dx2 + dy2);
+		requestFrame();
 	}
 
-	private double distance(Bubble b1, Bubble b2) {
-		return distance(b1.x, b1.y, b2.x, b2.y);
+	/**
+	 * Stop tracking links of a bubble removed from the surface.
+	 * 
+	 * @param b
+	 *            Removed bubble or null
+	 */
+	private void detachLinks(Bubble b) {
+		if (b == null) {
+			return;
+		}
+		b.setOnLinksChangedListener(null);
+		synchronized (edges) {
+			for (int link : b.getLinks()) {
+				edges.removeDirected(b.getID(), link);
+			}
+		}
 	}
 
 	/**
@@ -869,53 +1426,27 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 	}
 
 	public void removeChildren(Bubble b) {
+		List<Integer> children = new ArrayList<Integer>();
 		for (int id : b.getLinks()) {
-			Bubble child = bubbles.get(id);
-			if (child != null && id != b.getID()) {
-				removeBubble(id);
+			if (id != b.getID() && bubbles.get(id) != null) {
+				children.add(id);
 			}
 		}
+		removeBubbles(children);
 	}
 
 	public void moveAllButTheseToCorner(List<Integer> links) {
-		synchronized (bubbles) {
-			Iterator<Bubble> iterator = bubbles.values().iterator();
-			while (iterator.hasNext()) {
-				Bubble b = iterator.next();
-				if (!links.contains(b.getID()) && !b.lockedToPlase) {
-					b.lockedToPlase = true;
-					SideSlot leastBubbles = getFreeSidePosition();
-					leastBubbles.bubbleList.add(b.getID());
-					b.moveAndScaleTo(leastBubbles.x, leastBubbles.y, ZOOM_DOWN_TO);
+		for (Bubble b : bubbles.snapshot()) {
+			if (!links.contains(b.getID()) && !b.isLockedToPlase()) {
+				int slot = sideSlots.park(b.getID());
+				if (slot != -1) {
+					b.setLockedToPlase(true);
+					animator.start(b.moveAndScaleTo(sideSlots.getX(slot), sideSlots.getY(slot), ZOOM_DOWN_TO));
 				}
 			}
 		}
 	}
 
-	private SideSlot getFreeSidePosition() {
-		SideSlot leastBubbles = null;
-		synchronized (freeSlotList) {
-			for (SideSlot s : freeSlotList) {
-				if (s.bubbleList.size() == 0) {
-					leastBubbles = s;
-					break;
-				} else if ((leastBubbles == null)
-						|| (leastBubbles != null && leastBubbles.bubbleList.size() > s.bubbleList.size())) {
-					leastBubbles = s;
-				}
-			}
-		}
-
-		return leastBubbles;
-	}
-
-	private class SideSlot {
-
-		public int x = 0, y = 0;
-		public List<Integer> bubbleList = new ArrayList<Integer>();
-
-	}
-
 	private class CommandSlot {
 
 		public Paint bgPaint, textPaint;
@@ -931,74 +1462,25 @@ public class BubbleSurface extends SurfaceView implements SurfaceHolder.Callback
 
 	}
 
+	/**
+	 * Same as {@link #removeBubble(int)}. Kept for callers that remove from
+	 * their own threads.
+	 * 
+	 * @param removed
+	 */
 	public void removeBubbleOutOfThread(int removed) {
-		removeBubbleFromFreeSlots(removed);
-		changingLists = true;
-		Random r = new Random();
-		while (changingLists) {
-			if (!hitDetection && !drawing && !movementChange) {
-				synchronized (bubbles) {
-					bubbles.remove(removed);
-				}
-				changingLists = false;
-			} else {
-				synchronized (this) {
-					try {
-						Log.d(TAG, "Waiting remove bubble out of thread");
-						Thread.sleep(r.nextInt(50));
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-			}
-		}
-		startGraphics();
+		removeBubble(removed);
 	}
 
 	private void deleteAnimate(final Bubble b) {
-		new Thread(new Runnable() {
+		animator.start(new BubbleTween(b, (long) (3 * Bubble.ANIMATION_TIME), Animator.EASE_IN)
+				.moveTo(maxX, maxY).scaleTo(0).whenFinished(new Runnable() {
 
-			@Override
-			public void run() {
-				final int dx = b.x - BubbleSurface.maxX;
-				final int dy = b.y - BubbleSurface.maxY;
-
-				long start = System.currentTimeMillis();
-				double pulse = 0;
-				b.movement = BubbleMovement.AUTOMATIC;
-
-				// Log.d(TAG, "[" + title + "]: (" + x + "," + y + ") to (" + nX
-				// + "," + nY + ") dx=" + dx + ", dy=" + dy
-				// + "");
-
-				int oldX = b.x;
-				int oldY = b.y;
-				Random r = new Random();
-				while (b.movement != BubbleMovement.MOVING && pulse <= 1) {
-					pulse = ((System.currentTimeMillis() - start) / (3 * Bubble.ANIMATION_TIME));
-
-					b.x = oldX - (int) Math.floor(dx * pulse);
-					b.y = oldY - (int) Math.floor(dy * pulse);
-
-					if (b.radius > 0) {
-						double scale = (1 - pulse);
-						b.zoom(scale);
-					}
-
-					try {
-						Thread.sleep(r.nextInt(50));
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+					@Override
+					public void run() {
+						removeBubble(b.getID());
 					}
-				}
-
-				BubbleSurface bubbleSurface = BubbleSurface.getInstance();
-				if (bubbleSurface != null && b.movement != BubbleMovement.MOVING) {
-					bubbleSurface.removeBubbleOutOfThread(b.getID());
-				}
-
-			}
-		}).start();
+				}));
 	}
 
 }
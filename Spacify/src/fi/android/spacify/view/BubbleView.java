@@ -1,6 +1,7 @@
 package fi.android.spacify.view;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -13,6 +14,7 @@ import android.database.Cursor;
 import android.util.Log;
 import android.widget.ArrayAdapter;
 import fi.android.spacify.db.BubbleDatabase.BubbleColumns;
+import fi.android.spacify.engine.IntSet;
 import fi.android.spacify.fragment.BubbleFragment;
 import fi.android.spacify.fragment.ControlAdapter;
 
@@ -58,7 +60,7 @@ public class BubbleView extends BaseBubbleView {
 	private int priority, id;
 	private String debugID = "", type = "", style = "", title = "", contents = "", titleImageUrl = "",
 			contentImageUrl = "";
-	private List<Integer> links = new ArrayList<Integer>();
+	private final IntSet links = new IntSet();
 	private long latitude = 0, longitude = 0;
 	private Set<String> contexts = new HashSet<String>();
 
@@ -72,7 +74,7 @@ public class BubbleView extends BaseBubbleView {
 		init();
 	}
 
-
+
 	public BubbleView(Context context, Cursor c) {
 		super(context);
 		super.setLayoutParams(new LayoutParams(100, 100));
@@ -90,11 +92,8 @@ public class BubbleView extends BaseBubbleView {
 		priority = c.getInt(c.getColumnIndex(BubbleColumns.PRIORITY));
 		titleImageUrl = c.getString(c.getColumnIndex(BubbleColumns.TITLE_IMAGE_URL));
 		try {
-			String linksJSON = c.getString(c.getColumnIndex(BubbleColumns.LINKS));
-			if(linksJSON != null) {
-				parseJsonLinks(new JSONArray(linksJSON));
-			}
-		} catch (JSONException e) {
+			links.set(IntSet.parse(c.getString(c.getColumnIndex(BubbleColumns.LINKS))));
+		} catch (NumberFormatException e) {
 			e.printStackTrace();
 		}
 
@@ -213,40 +212,37 @@ public class BubbleView extends BaseBubbleView {
 		this.contentImageUrl = contentImageUrl;
 	}
 
-	public List<Integer> getLinks() {
-		return links;
-	}
-
-	public void setLinks(List<Integer> links) {
-		this.links = links;
+	/**
+	 * Ids of the linked bubbles in ascending order. Do not modify.
+	 * 
+	 * @return Linked bubble ids.
+	 */
+	public int[] getLinks() {
+		return links.values();
 	}
 
-	public void addLink(int link) {
-		if (!links.contains(link)) {
-			this.links.add(link);
+	/**
+	 * @return Copy of the linked bubble ids for queries taking a list.
+	 */
+	public List<Integer> getLinkList() {
+		int[] values = links.values();
+		List<Integer> list = new ArrayList<Integer>(values.length);
+		for (int link : values) {
+			list.add(link);
 		}
+		return list;
 	}
 
-	public void removeLink(Integer link) {
-		this.links.remove(link);
+	public void setLinks(int[] links) {
+		this.links.set(links);
 	}
 
-	public JSONArray getLinksJSONArray() {
-		JSONArray jArray = new JSONArray();
-		for (int link : links) {
-			jArray.put(link);
-		}
-		return jArray;
+	public void addLink(int link) {
+		links.add(link);
 	}
 
-	public void parseJsonLinks(JSONArray jArray) {
-		for (int i = 0; i < jArray.length(); i++) {
-			try {
-				links.add(jArray.getInt(i));
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
-		}
+	public void removeLink(int link) {
+		links.remove(link);
 	}
 
 	public long getLattitude() {
@@ -282,6 +278,13 @@ public class BubbleView extends BaseBubbleView {
 		return json.toString();
 	}
 
+	/**
+	 * @return Contexts this bubble belongs to, not modifiable.
+	 */
+	public Set<String> getContexts() {
+		return Collections.unmodifiableSet(contexts);
+	}
+
 	public void translateContexts(String contextJson) {
 		try {
 			JSONArray json = new JSONArray(contextJson);
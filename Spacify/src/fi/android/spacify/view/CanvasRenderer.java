@@ -0,0 +1,67 @@
+package fi.android.spacify.view;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+/**
+ * Software renderer. Locks the dirty part of the surface and lets
+ * {@link BubbleSurface#onDraw(Canvas)} draw it.
+ */
+class CanvasRenderer implements SurfaceRenderer {
+
+	private final BubbleSurface surface;
+	private final FrameMetrics metrics;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param surface
+	 * @param metrics
+	 */
+	public CanvasRenderer(BubbleSurface surface, FrameMetrics metrics) {
+		this.surface = surface;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean start(SurfaceHolder holder) {
+		return true;
+	}
+
+	@Override
+	public void drawFrame(SurfaceHolder holder, Rect dirty) {
+		if (dirty != null && dirty.isEmpty()) {
+			return;
+		}
+
+		boolean measure = surface.isFrameMetricsEnabled();
+		Canvas c = null;
+		try {
+			if (measure) {
+				metrics.beginFrame();
+			}
+			c = holder.lockCanvas(dirty);
+			if (measure) {
+				metrics.mark(FrameMetrics.LOCK);
+			}
+			if (c != null) {
+				surface.onDraw(c);
+			}
+		} finally {
+			// make sure to always release canvas
+			if (c != null) {
+				holder.unlockCanvasAndPost(c);
+				if (measure) {
+					metrics.mark(FrameMetrics.POST);
+					metrics.endFrame();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+	}
+
+}
@@ -0,0 +1,132 @@
+package fi.android.spacify.view;
+
+import fi.android.spacify.model.Bubble;
+
+/**
+ * Level of detail used to draw a bubble, chosen by its radius on screen.
+ * Bubbles shrunk well below the normal size, by zooming out or by the delete
+ * animation, skip the title or are drawn as plain dots.
+ *
+ * By default the thresholds are fractions of the radius of a bubble without
+ * priority, {@link Bubble#DEFAULT_RADIUS}. The title stays whole until the
+ * bubble is zoomed to 80 % of that, its text is then about 9 pixels high.
+ */
+public class DetailLevels {
+
+	/**
+	 * Ball with the whole title.
+	 */
+	public static final int FULL = 0;
+	/**
+	 * Ball with the first line of the title.
+	 */
+	public static final int FIRST_LINE = 1;
+	/**
+	 * Ball without title.
+	 */
+	public static final int CIRCLE = 2;
+	/**
+	 * Flat colored dot.
+	 */
+	public static final int DOT = 3;
+
+	private static final float FULL_FRACTION = 0.8f;
+	private static final float FIRST_LINE_FRACTION = 0.5f;
+	private static final float CIRCLE_FRACTION = 0.2f;
+
+	private volatile float fullRadius;
+	private volatile float firstLineRadius;
+	private volatile float circleRadius;
+
+	/**
+	 * Constructor. Thresholds are derived from {@link Bubble#DEFAULT_RADIUS}.
+	 */
+	public DetailLevels() {
+		setBaseRadius(Bubble.DEFAULT_RADIUS);
+	}
+
+	/**
+	 * Derive thresholds from the radius of a normal bubble on screen. Whole
+	 * titles are drawn down to 80 %, the first line down to 50 % and a ball
+	 * down to 20 % of the radius.
+	 *
+	 * @param baseRadius
+	 *            Radius of a bubble drawn at normal size
+	 */
+	public void setBaseRadius(float baseRadius) {
+		setThresholds(baseRadius * FULL_FRACTION, baseRadius * FIRST_LINE_FRACTION, baseRadius * CIRCLE_FRACTION);
+	}
+
+	/**
+	 * Set radiuses in pixels from which each level is used. Bubbles smaller
+	 * than circleRadius are drawn as dots.
+	 *
+	 * @param fullRadius
+	 *            Smallest radius drawn with the whole title
+	 * @param firstLineRadius
+	 *            Smallest radius drawn with the first title line
+	 * @param circleRadius
+	 *            Smallest radius drawn as a ball
+	 */
+	public void setThresholds(float fullRadius, float firstLineRadius, float circleRadius) {
+		if (fullRadius < firstLineRadius || firstLineRadius < circleRadius || circleRadius < 0) {
+			throw new IllegalArgumentException("Thresholds must be descending and positive");
+		}
+		this.fullRadius = fullRadius;
+		this.firstLineRadius = firstLineRadius;
+		this.circleRadius = circleRadius;
+	}
+
+	/**
+	 * @param radius
+	 *            Radius on screen
+	 * @return Level of detail for the radius.
+	 */
+	public int levelOf(float radius) {
+		if (radius >= fullRadius) {
+			return FULL;
+		} else if (radius >= firstLineRadius) {
+			return FIRST_LINE;
+		} else if (radius >= circleRadius) {
+			return CIRCLE;
+		}
+		return DOT;
+	}
+
+	/**
+	 * @param level
+	 * @return Number of title lines drawn at the level.
+	 */
+	public static int titleLines(int level) {
+		switch (level) {
+		case FULL:
+			return Integer.MAX_VALUE;
+		case FIRST_LINE:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return Smallest radius drawn with the whole title.
+	 */
+	public float getFullRadius() {
+		return fullRadius;
+	}
+
+	/**
+	 * @return Smallest radius drawn with the first title line.
+	 */
+	public float getFirstLineRadius() {
+		return firstLineRadius;
+	}
+
+	/**
+	 * @return Smallest radius drawn as a ball.
+	 */
+	public float getCircleRadius() {
+		return circleRadius;
+	}
+
+}
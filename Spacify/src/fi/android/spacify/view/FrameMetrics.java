@@ -0,0 +1,228 @@
+package fi.android.spacify.view;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import fi.android.spacify.engine.RollingHistogram;
+
+/**
+ * Frame timing statistics of {@link BubbleSurface}.
+ *
+ * The render thread calls {@link #beginFrame()}, then {@link #mark(int)} at
+ * the end of each phase and finally {@link #endFrame()}. Time spent in each
+ * phase is kept in a rolling window from which p50/p95/p99 are reported. The
+ * simulation thread reports its step times and push backlog separately.
+ *
+ * Statistics can be drawn on the surface with {@link #drawOverlay(Canvas)} or
+ * written to a file with {@link #dump(File)}.
+ */
+public class FrameMetrics {
+
+	/**
+	 * Locking the canvas, including waiting for a free surface buffer.
+	 */
+	public static final int LOCK = 0;
+	/**
+	 * Drawing the static background layer.
+	 */
+	public static final int BACKGROUND = 1;
+	/**
+	 * Drawing the links.
+	 */
+	public static final int LINKS = 2;
+	/**
+	 * Drawing the bubbles.
+	 */
+	public static final int BUBBLES = 3;
+	/**
+	 * Unlocking the canvas and posting it to the display.
+	 */
+	public static final int POST = 4;
+	/**
+	 * Whole frame from lock to post.
+	 */
+	public static final int TOTAL = 5;
+
+	private static final String[] PHASE_NAMES = { "lock", "background", "links", "bubbles", "post", "total" };
+	private static final int WINDOW = 300;
+	private static final long NANOS_IN_MILLI = 1000000;
+
+	private final RollingHistogram[] phases = new RollingHistogram[PHASE_NAMES.length];
+	private final RollingHistogram simulation = new RollingHistogram(WINDOW);
+	private final long frameBudget;
+	private final Paint overlayBackground, overlayText;
+
+	private long frameStart, phaseStart;
+	private long frames = 0, droppedFrames = 0;
+	private int visibleBubbles = 0, visibleLinks = 0;
+	private int culledBubbles = 0, culledLinks = 0;
+	private int pushBacklog = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param frameBudget
+	 *            Target frame time in milliseconds. Frames taking longer are
+	 *            counted as dropped.
+	 */
+	public FrameMetrics(long frameBudget) {
+		this.frameBudget = frameBudget * NANOS_IN_MILLI;
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new RollingHistogram(WINDOW);
+		}
+
+		overlayBackground = new Paint();
+		overlayBackground.setColor(Color.argb(160, 0, 0, 0));
+		overlayBackground.setStyle(Style.FILL);
+
+		overlayText = new Paint();
+		overlayText.setAntiAlias(true);
+		overlayText.setColor(Color.WHITE);
+		overlayText.setTextSize(14);
+	}
+
+	/**
+	 * Start timing a frame. Called from the render thread before the canvas
+	 * is locked.
+	 */
+	public void beginFrame() {
+		frameStart = System.nanoTime();
+		phaseStart = frameStart;
+	}
+
+	/**
+	 * Mark the end of a phase started at the previous mark.
+	 *
+	 * @param phase
+	 *            One of {@link #LOCK}, {@link #BACKGROUND}, {@link #LINKS},
+	 *            {@link #BUBBLES} or {@link #POST}
+	 */
+	public void mark(int phase) {
+		long now = System.nanoTime();
+		synchronized (this) {
+			phases[phase].add(now - phaseStart);
+		}
+		phaseStart = now;
+	}
+
+	/**
+	 * End timing a frame started with {@link #beginFrame()}.
+	 */
+	public synchronized void endFrame() {
+		long total = System.nanoTime() - frameStart;
+		phases[TOTAL].add(total);
+		frames += 1;
+		if (total > frameBudget) {
+			droppedFrames += total / frameBudget;
+		}
+	}
+
+	/**
+	 * Set number of bubbles and links drawn and left out in the last frame.
+	 *
+	 * @param bubbles
+	 * @param links
+	 * @param culledBubbles
+	 * @param culledLinks
+	 */
+	public synchronized void setVisible(int bubbles, int links, int culledBubbles, int culledLinks) {
+		visibleBubbles = bubbles;
+		visibleLinks = links;
+		this.culledBubbles = culledBubbles;
+		this.culledLinks = culledLinks;
+	}
+
+	/**
+	 * Record one simulation tick. Called from the simulation thread.
+	 *
+	 * @param nanos
+	 *            Time spent simulating
+	 * @param backlog
+	 *            Bubbles still waiting to be pushed
+	 */
+	public synchronized void recordSimulation(long nanos, int backlog) {
+		simulation.add(nanos);
+		pushBacklog = backlog;
+	}
+
+	/**
+	 * Forget all collected statistics.
+	 */
+	public synchronized void reset() {
+		for (RollingHistogram h : phases) {
+			h.clear();
+		}
+		simulation.clear();
+		frames = 0;
+		droppedFrames = 0;
+	}
+
+	/**
+	 * Draw statistics to the top left corner of the canvas.
+	 *
+	 * @param c
+	 */
+	public void drawOverlay(Canvas c) {
+		String[] lines = report();
+		float lineHeight = overlayText.getTextSize() + 2;
+		float width = 0;
+		for (String line : lines) {
+			width = Math.max(width, overlayText.measureText(line));
+		}
+
+		c.drawRect(0, 0, width + 8, lines.length * lineHeight + 6, overlayBackground);
+		for (int i = 0; i < lines.length; i++) {
+			c.drawText(lines[i], 4, (i + 1) * lineHeight, overlayText);
+		}
+	}
+
+	/**
+	 * Append statistics to a file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void dump(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file, true));
+		try {
+			out.println("Frame metrics " + new Date());
+			for (String line : report()) {
+				out.println(line);
+			}
+			out.println();
+		} finally {
+			out.close();
+		}
+	}
+
+	private synchronized String[] report() {
+		String[] lines = new String[PHASE_NAMES.length + 5];
+		int l = 0;
+		lines[l++] = "frames " + frames + ", dropped " + droppedFrames;
+		lines[l++] = "phase p50/p95/p99 ms";
+		for (int i = 0; i < phases.length; i++) {
+			lines[l++] = PHASE_NAMES[i] + " " + percentiles(phases[i]);
+		}
+		lines[l++] = "simulation " + percentiles(simulation) + ", backlog " + pushBacklog;
+		lines[l++] = "visible bubbles " + visibleBubbles + ", links " + visibleLinks;
+		lines[l++] = "culled bubbles " + culledBubbles + ", links " + culledLinks;
+		return lines;
+	}
+
+	private static String percentiles(RollingHistogram h) {
+		return millis(h.percentile(50)) + "/" + millis(h.percentile(95)) + "/" + millis(h.percentile(99));
+	}
+
+	private static String millis(long nanos) {
+		long hundredths = nanos / (NANOS_IN_MILLI / 100);
+		return (hundredths / 100) + "." + (hundredths % 100 < 10 ? "0" : "") + (hundredths % 100);
+	}
+
+}
@@ -0,0 +1,424 @@
+package fi.android.spacify.view;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetrics;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import fi.android.spacify.engine.PositionSnapshot;
+import fi.android.spacify.model.Bubble;
+
+/**
+ * OpenGL ES 2.0 renderer. Draws to the surface of {@link BubbleSurface} trough
+ * EGL from the graphic thread.
+ *
+ * Every frame is drawn with four draw calls: the static background layer, all
+ * links as one line batch, all bubbles as textured quads from a ball atlas and
+ * all titles as quads from a glyph atlas. OpenGL ES 2.0 has no instancing so
+ * quads are batched into a single client side vertex array instead, see
+ * {@link QuadBatch} and {@link GlyphAtlas}. Each vertex carries the alpha of
+ * its bubble, so fading bubbles look the same as with {@link CanvasRenderer}.
+ */
+class GLRenderer implements SurfaceRenderer {
+
+	private static final String TAG = "GLRenderer";
+
+	private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+	private static final int EGL_OPENGL_ES2_BIT = 4;
+
+	private static final int BALL_SIZE = 128;
+
+	private static final String VERTEX_SHADER = "uniform vec2 uScreen;\n" //
+			+ "attribute vec4 aVertex;\n" //
+			+ "attribute float aAlpha;\n" //
+			+ "varying vec2 vTexCoord;\n" //
+			+ "varying float vAlpha;\n" //
+			+ "void main() {\n" //
+			+ "  vTexCoord = aVertex.zw;\n" //
+			+ "  vAlpha = aAlpha;\n" //
+			+ "  gl_Position = vec4(aVertex.x / uScreen.x * 2.0 - 1.0, 1.0 - aVertex.y / uScreen.y * 2.0, 0.0, 1.0);\n" //
+			+ "}\n";
+
+	private static final String FRAGMENT_SHADER = "precision mediump float;\n" //
+			+ "uniform sampler2D uTexture;\n" //
+			+ "uniform vec4 uColor;\n" //
+			+ "varying vec2 vTexCoord;\n" //
+			+ "varying float vAlpha;\n" //
+			+ "void main() {\n" //
+			+ "  gl_FragColor = texture2D(uTexture, vTexCoord) * uColor * vAlpha;\n" //
+			+ "}\n";
+
+	private final BubbleSurface surface;
+	private final FrameMetrics metrics;
+	private final Bitmap greenBall, blueBall;
+	private final int lineColor;
+	private final float lineWidth;
+
+	private EGL10 egl;
+	private EGLDisplay display = EGL10.EGL_NO_DISPLAY;
+	private EGLContext context = EGL10.EGL_NO_CONTEXT;
+	private EGLSurface eglSurface = EGL10.EGL_NO_SURFACE;
+
+	private int program, screenHandle, vertexHandle, alphaHandle, textureHandle, colorHandle;
+	private int whiteTexture, ballTexture, glyphTexture, backgroundTexture;
+	private int backgroundVersion = -1;
+
+	private final GlyphAtlas glyphs = new GlyphAtlas();
+	private final QuadBatch batch = new QuadBatch();
+	private FloatBuffer vertexBuffer;
+	private final Rect screen = new Rect();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param surface
+	 * @param metrics
+	 * @param greenBall
+	 *            Ball image for green bubbles
+	 * @param blueBall
+	 *            Ball image for all other bubbles
+	 * @param linePaint
+	 *            Paint used for links with the Canvas renderer
+	 */
+	public GLRenderer(BubbleSurface surface, FrameMetrics metrics, Bitmap greenBall, Bitmap blueBall,
+			Paint linePaint) {
+		this.surface = surface;
+		this.metrics = metrics;
+		this.greenBall = greenBall;
+		this.blueBall = blueBall;
+		this.lineColor = linePaint.getColor();
+		this.lineWidth = linePaint.getStrokeWidth();
+	}
+
+	@Override
+	public boolean start(SurfaceHolder holder) {
+		egl = (EGL10) EGLContext.getEGL();
+		display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+		if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, new int[2])) {
+			Log.w(TAG, "No EGL display");
+			return false;
+		}
+
+		int[] attributes = { EGL10.EGL_RED_SIZE, 8, EGL10.EGL_GREEN_SIZE, 8, EGL10.EGL_BLUE_SIZE, 8,
+				EGL10.EGL_ALPHA_SIZE, 8, EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT, EGL10.EGL_NONE };
+		EGLConfig[] configs = new EGLConfig[1];
+		int[] count = new int[1];
+		if (!egl.eglChooseConfig(display, attributes, configs, 1, count) || count[0] == 0) {
+			Log.w(TAG, "No OpenGL ES 2.0 config");
+			stop();
+			return false;
+		}
+
+		context = egl.eglCreateContext(display, configs[0], EGL10.EGL_NO_CONTEXT, new int[] {
+				EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE });
+		if (context == EGL10.EGL_NO_CONTEXT) {
+			Log.w(TAG, "Could not create context: " + egl.eglGetError());
+			stop();
+			return false;
+		}
+
+		eglSurface = egl.eglCreateWindowSurface(display, configs[0], holder, null);
+		if (eglSurface == EGL10.EGL_NO_SURFACE || !egl.eglMakeCurrent(display, eglSurface, eglSurface, context)) {
+			Log.w(TAG, "Could not use window surface: " + egl.eglGetError());
+			stop();
+			return false;
+		}
+
+		program = createProgram();
+		if (program == 0) {
+			stop();
+			return false;
+		}
+		screenHandle = GLES20.glGetUniformLocation(program, "uScreen");
+		textureHandle = GLES20.glGetUniformLocation(program, "uTexture");
+		colorHandle = GLES20.glGetUniformLocation(program, "uColor");
+		vertexHandle = GLES20.glGetAttribLocation(program, "aVertex");
+		alphaHandle = GLES20.glGetAttribLocation(program, "aAlpha");
+
+		whiteTexture = createWhiteTexture();
+		ballTexture = createBallAtlas();
+		glyphTexture = createGlyphAtlas();
+		backgroundVersion = -1;
+
+		GLES20.glEnable(GLES20.GL_BLEND);
+		// Bitmaps are uploaded with premultiplied alpha
+		GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+
+		Log.d(TAG, "OpenGL renderer started");
+		return true;
+	}
+
+	@Override
+	public void drawFrame(SurfaceHolder holder, Rect dirty) {
+		if (dirty != null && dirty.isEmpty()) {
+			return;
+		}
+
+		boolean measure = surface.isFrameMetricsEnabled();
+		if (measure) {
+			metrics.beginFrame();
+			metrics.mark(FrameMetrics.LOCK);
+		}
+
+		screen.set(holder.getSurfaceFrame());
+		int width = screen.width(), height = screen.height();
+		GLES20.glViewport(0, 0, width, height);
+		GLES20.glUseProgram(program);
+		GLES20.glUniform2f(screenHandle, width, height);
+		GLES20.glUniform1i(textureHandle, 0);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		GLES20.glEnableVertexAttribArray(vertexHandle);
+		GLES20.glEnableVertexAttribArray(alphaHandle);
+
+		drawBackground(width, height);
+		if (measure) {
+			metrics.mark(FrameMetrics.BACKGROUND);
+		}
+
+		PositionSnapshot<Bubble> frame = surface.getFrame();
+		int links = drawLinks(frame);
+		if (measure) {
+			metrics.mark(FrameMetrics.LINKS);
+		}
+
+		int visible = drawBubbles(frame);
+		drawTitles(frame);
+		if (measure) {
+			metrics.setVisible(visible, links, frame.size() - visible, surface.getCulledLinks());
+			metrics.mark(FrameMetrics.BUBBLES);
+		}
+
+		if (!egl.eglSwapBuffers(display, eglSurface)) {
+			Log.w(TAG, "Swap failed: " + egl.eglGetError());
+		}
+		if (measure) {
+			metrics.mark(FrameMetrics.POST);
+			metrics.endFrame();
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (display != EGL10.EGL_NO_DISPLAY) {
+			egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+			if (eglSurface != EGL10.EGL_NO_SURFACE) {
+				egl.eglDestroySurface(display, eglSurface);
+			}
+			if (context != EGL10.EGL_NO_CONTEXT) {
+				egl.eglDestroyContext(display, context);
+			}
+			egl.eglTerminate(display);
+		}
+		display = EGL10.EGL_NO_DISPLAY;
+		context = EGL10.EGL_NO_CONTEXT;
+		eglSurface = EGL10.EGL_NO_SURFACE;
+	}
+
+	private void drawBackground(int width, int height) {
+		Bitmap layer = surface.getStaticLayer(width, height);
+		int version = surface.getStaticLayerVersion();
+		if (version != backgroundVersion) {
+			if (backgroundTexture != 0) {
+				GLES20.glDeleteTextures(1, new int[] { backgroundTexture }, 0);
+			}
+			backgroundTexture = loadTexture(layer);
+			backgroundVersion = version;
+		}
+
+		batch.clear();
+		batch.addQuad(0, 0, width, height, 0, 0, 1, 1, 1);
+		draw(GLES20.GL_TRIANGLES, backgroundTexture, Color.WHITE);
+	}
+
+	private int drawLinks(PositionSnapshot<Bubble> frame) {
+		int count = surface.collectLinks(frame, screen);
+		float[] points = surface.getLinkPoints();
+
+		batch.clear();
+		for (int i = 0; i < count; i += 2) {
+			batch.addVertex(points[i], points[i + 1], 0, 0, 1);
+		}
+		GLES20.glLineWidth(lineWidth);
+		draw(GLES20.GL_LINES, whiteTexture, lineColor);
+		return count / 4;
+	}
+
+	private int drawBubbles(PositionSnapshot<Bubble> frame) {
+		batch.clear();
+		int visible = 0;
+		for (int i = 0; i < frame.size(); i++) {
+			float x = frame.x(i), y = frame.y(i), r = frame.radius(i);
+			if (x + r < 0 || y + r < 0 || x - r > screen.right || y - r > screen.bottom) {
+				continue;
+			}
+			Bubble b = frame.body(i);
+			// Green ball is on the left half of the atlas, blue on the right
+			float u = b.isGreenStyle() ? 0 : 0.5f;
+			batch.addQuad(x - r, y - r, x + r, y + r, u, 0, u + 0.5f, 1, b.alpha / 255f);
+			visible += 1;
+		}
+		draw(GLES20.GL_TRIANGLES, ballTexture, Color.WHITE);
+		return visible;
+	}
+
+	/**
+	 * Lay out titles the same way {@link BubbleSpriteCache} does and draw them
+	 * from the glyph atlas. Titles are left out or cut to the first line
+	 * according to {@link DetailLevels}. Dots and circles are both plain
+	 * quads here so they cost the same.
+	 */
+	private void drawTitles(PositionSnapshot<Bubble> frame) {
+		DetailLevels levels = surface.getDetailLevels();
+		batch.clear();
+		for (int i = 0; i < frame.size(); i++) {
+			float x = frame.x(i), y = frame.y(i), r = frame.radius(i);
+			Bubble b = frame.body(i);
+			String title = b.getTitle();
+			if (title == null || title.length() == 0 || x + r < 0 || y + r < 0 || x - r > screen.right
+					|| y - r > screen.bottom) {
+				continue;
+			}
+			int maxLines = DetailLevels.titleLines(levels.levelOf(r));
+			if (maxLines == 0) {
+				continue;
+			}
+			glyphs.addTitle(batch, title, x, y, r, maxLines, b.alpha / 255f);
+		}
+		draw(GLES20.GL_TRIANGLES, glyphTexture, Color.WHITE);
+	}
+
+	private void draw(int mode, int texture, int color) {
+		int floats = batch.size();
+		if (floats == 0) {
+			return;
+		}
+		if (vertexBuffer == null || vertexBuffer.capacity() < floats) {
+			vertexBuffer = ByteBuffer.allocateDirect(batch.array().length * 4).order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+		}
+		vertexBuffer.clear();
+		vertexBuffer.put(batch.array(), 0, floats);
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+		GLES20.glUniform4f(colorHandle, Color.red(color) / 255f, Color.green(color) / 255f,
+				Color.blue(color) / 255f, Color.alpha(color) / 255f);
+		// Position and texture coordinates, then alpha, from the same array
+		int stride = QuadBatch.VERTEX_SIZE * 4;
+		vertexBuffer.position(0);
+		GLES20.glVertexAttribPointer(vertexHandle, 4, GLES20.GL_FLOAT, false, stride, vertexBuffer);
+		vertexBuffer.position(4);
+		GLES20.glVertexAttribPointer(alphaHandle, 1, GLES20.GL_FLOAT, false, stride, vertexBuffer);
+		GLES20.glDrawArrays(mode, 0, batch.vertexCount());
+	}
+
+	private int createWhiteTexture() {
+		Bitmap white = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+		white.eraseColor(Color.WHITE);
+		int texture = loadTexture(white);
+		white.recycle();
+		return texture;
+	}
+
+	private int createBallAtlas() {
+		Bitmap atlas = Bitmap.createBitmap(BALL_SIZE * 2, BALL_SIZE, Bitmap.Config.ARGB_8888);
+		Canvas c = new Canvas(atlas);
+		Paint paint = new Paint();
+		paint.setFilterBitmap(true);
+		c.drawBitmap(greenBall, null, new Rect(0, 0, BALL_SIZE, BALL_SIZE), paint);
+		c.drawBitmap(blueBall, null, new Rect(BALL_SIZE, 0, BALL_SIZE * 2, BALL_SIZE), paint);
+
+		int texture = loadTexture(atlas);
+		atlas.recycle();
+		return texture;
+	}
+
+	private int createGlyphAtlas() {
+		Bitmap atlas = Bitmap.createBitmap(GlyphAtlas.SIZE, GlyphAtlas.SIZE, Bitmap.Config.ARGB_8888);
+		Canvas c = new Canvas(atlas);
+		Paint paint = new Paint();
+		paint.setAntiAlias(true);
+		paint.setColor(Color.WHITE);
+		paint.setTextSize(GlyphAtlas.TEXT_SIZE);
+
+		FontMetrics fm = paint.getFontMetrics();
+		glyphs.setBaseline((GlyphAtlas.CELL - (fm.descent - fm.ascent)) / 2 - fm.ascent);
+
+		char[] glyph = new char[1];
+		for (char ch = GlyphAtlas.FIRST; ch <= GlyphAtlas.LAST; ch++) {
+			int i = GlyphAtlas.index(ch);
+			glyph[0] = ch;
+			glyphs.setWidth(ch, paint.measureText(glyph, 0, 1));
+			c.drawText(glyph, 0, 1, GlyphAtlas.cellLeft(i), GlyphAtlas.cellTop(i) + glyphs.getBaseline(), paint);
+		}
+
+		int texture = loadTexture(atlas);
+		atlas.recycle();
+		return texture;
+	}
+
+	private static int loadTexture(Bitmap bitmap) {
+		int[] textures = new int[1];
+		GLES20.glGenTextures(1, textures, 0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+		return textures[0];
+	}
+
+	private static int createProgram() {
+		int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+		int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+		if (vertexShader == 0 || fragmentShader == 0) {
+			return 0;
+		}
+
+		int program = GLES20.glCreateProgram();
+		GLES20.glAttachShader(program, vertexShader);
+		GLES20.glAttachShader(program, fragmentShader);
+		GLES20.glLinkProgram(program);
+
+		int[] status = new int[1];
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+		if (status[0] != GLES20.GL_TRUE) {
+			Log.w(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
+			GLES20.glDeleteProgram(program);
+			return 0;
+		}
+		return program;
+	}
+
+	private static int loadShader(int type, String source) {
+		int shader = GLES20.glCreateShader(type);
+		GLES20.glShaderSource(shader, source);
+		GLES20.glCompileShader(shader);
+
+		int[] status = new int[1];
+		GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+		if (status[0] == 0) {
+			Log.w(TAG, "Could not compile shader: " + GLES20.glGetShaderInfoLog(shader));
+			GLES20.glDeleteShader(shader);
+			return 0;
+		}
+		return shader;
+	}
+
+}
@@ -0,0 +1,136 @@
+package fi.android.spacify.view;
+
+/**
+ * Layout of the glyph atlas used by {@link GLRenderer} for titles. Latin-1
+ * glyphs are drawn in a grid of equal cells, other characters are shown as
+ * '?'. The renderer draws the atlas bitmap and records the glyph widths here,
+ * titles are then laid out into a {@link QuadBatch} the same way
+ * {@link BubbleSpriteCache} lays them out on bitmaps.
+ *
+ * Has no Android or GL dependencies, the layout is tested on a plain JVM.
+ */
+class GlyphAtlas {
+
+	/**
+	 * Text size the glyphs are drawn with.
+	 */
+	static final int TEXT_SIZE = 24;
+
+	/**
+	 * Width and height of a glyph cell in pixels.
+	 */
+	static final int CELL = 32;
+
+	/**
+	 * Width and height of the atlas in pixels.
+	 */
+	static final int SIZE = 512;
+
+	static final char FIRST = 32, LAST = 255;
+
+	private static final int PER_ROW = SIZE / CELL;
+
+	private final float[] widths = new float[LAST - FIRST + 1];
+	private float baseline;
+
+	/**
+	 * @param c
+	 * @return Index of the cell of the character.
+	 */
+	static int index(char c) {
+		if (c < FIRST || c > LAST) {
+			c = '?';
+		}
+		return c - FIRST;
+	}
+
+	/**
+	 * @param index
+	 * @return Left edge of the cell in pixels.
+	 */
+	static int cellLeft(int index) {
+		return (index % PER_ROW) * CELL;
+	}
+
+	/**
+	 * @param index
+	 * @return Top edge of the cell in pixels.
+	 */
+	static int cellTop(int index) {
+		return (index / PER_ROW) * CELL;
+	}
+
+	/**
+	 * @param c
+	 * @param width
+	 *            Advance of the glyph at {@link #TEXT_SIZE}
+	 */
+	void setWidth(char c, float width) {
+		widths[index(c)] = width;
+	}
+
+	/**
+	 * @param baseline
+	 *            Distance of the baseline from the top of a cell
+	 */
+	void setBaseline(float baseline) {
+		this.baseline = baseline;
+	}
+
+	/**
+	 * @return Distance of the baseline from the top of a cell.
+	 */
+	float getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 * Lay out a title inside a bubble. Text size follows the radius, lines
+	 * wrap at the width of the square inscribed in the bubble and stop at
+	 * its bottom or after the given number of lines.
+	 *
+	 * @param batch
+	 * @param title
+	 * @param x
+	 *            Center of the bubble
+	 * @param y
+	 *            Center of the bubble
+	 * @param radius
+	 * @param maxLines
+	 * @param alpha
+	 *            Between 0 and 1
+	 * @return Number of glyphs added.
+	 */
+	int addTitle(QuadBatch batch, String title, float x, float y, float radius, int maxLines, float alpha) {
+		float textSize = radius / 2.75f;
+		float scale = textSize / TEXT_SIZE;
+		float textFactor = (float) (radius / Math.sqrt(2));
+		float maxWidth = textFactor * 2;
+		float cell = (float) CELL / SIZE;
+
+		float penX = 0;
+		int line = 0;
+		int glyphs = 0;
+		for (int c = 0; c < title.length(); c++) {
+			int glyph = index(title.charAt(c));
+			float advance = widths[glyph] * scale;
+			if (penX + advance >= maxWidth) {
+				line += 1;
+				penX = 0;
+				if (line * textSize >= maxWidth || line >= maxLines) {
+					break;
+				}
+			}
+
+			float left = x - textFactor + penX;
+			float top = y - textFactor / 2 + line * textSize - baseline * scale;
+			float u = (float) cellLeft(glyph) / SIZE;
+			float v = (float) cellTop(glyph) / SIZE;
+			batch.addQuad(left, top, left + CELL * scale, top + CELL * scale, u, v, u + cell, v + cell, alpha);
+			penX += advance;
+			glyphs += 1;
+		}
+		return glyphs;
+	}
+
+}
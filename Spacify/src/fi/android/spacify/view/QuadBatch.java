@@ -0,0 +1,115 @@
+package fi.android.spacify.view;
+
+/**
+ * Client side vertex array for {@link GLRenderer}. Each vertex is x, y, u, v
+ * and alpha, so every quad or line can fade on its own within one draw call.
+ * OpenGL ES 2.0 has no instancing, quads are written out as two triangles.
+ *
+ * Has no Android or GL dependencies, the batching is tested on a plain JVM.
+ */
+class QuadBatch {
+
+	/**
+	 * Floats in one vertex.
+	 */
+	static final int VERTEX_SIZE = 5;
+
+	/**
+	 * Floats in one quad.
+	 */
+	static final int QUAD_SIZE = 6 * VERTEX_SIZE;
+
+	private float[] vertices = new float[QUAD_SIZE * 64];
+	private int size = 0;
+
+	/**
+	 * Remove all vertices. The array is kept for the next frame.
+	 */
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return Number of floats written.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of vertices written.
+	 */
+	int vertexCount() {
+		return size / VERTEX_SIZE;
+	}
+
+	/**
+	 * @return Vertex array, valid up to {@link #size()}. Replaced when the
+	 *         batch grows.
+	 */
+	float[] array() {
+		return vertices;
+	}
+
+	/**
+	 * Add one vertex, for example an end of a line.
+	 *
+	 * @param x
+	 * @param y
+	 * @param u
+	 * @param v
+	 * @param alpha
+	 *            Between 0 and 1
+	 */
+	void addVertex(float x, float y, float u, float v, float alpha) {
+		ensureCapacity(VERTEX_SIZE);
+		put(x, y, u, v, alpha);
+	}
+
+	/**
+	 * Add an axis aligned textured quad.
+	 *
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 * @param u0
+	 *            Texture coordinate of the left edge
+	 * @param v0
+	 *            Texture coordinate of the top edge
+	 * @param u1
+	 *            Texture coordinate of the right edge
+	 * @param v1
+	 *            Texture coordinate of the bottom edge
+	 * @param alpha
+	 *            Between 0 and 1
+	 */
+	void addQuad(float left, float top, float right, float bottom, float u0, float v0, float u1, float v1,
+			float alpha) {
+		ensureCapacity(QUAD_SIZE);
+		put(left, top, u0, v0, alpha);
+		put(right, top, u1, v0, alpha);
+		put(left, bottom, u0, v1, alpha);
+		put(right, top, u1, v0, alpha);
+		put(right, bottom, u1, v1, alpha);
+		put(left, bottom, u0, v1, alpha);
+	}
+
+	private void put(float x, float y, float u, float v, float alpha) {
+		vertices[size++] = x;
+		vertices[size++] = y;
+		vertices[size++] = u;
+		vertices[size++] = v;
+		vertices[size++] = alpha;
+	}
+
+	private void ensureCapacity(int floats) {
+		int needed = size + floats;
+		if (vertices.length < needed) {
+			float[] grown = new float[Math.max(needed, vertices.length * 2)];
+			System.arraycopy(vertices, 0, grown, 0, size);
+			vertices = grown;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package fi.android.spacify.view;
+
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+/**
+ * Draws frames of {@link BubbleSurface} to its surface. All methods are
+ * called from the graphic thread.
+ */
+interface SurfaceRenderer {
+
+	/**
+	 * Prepare the renderer for drawing to the surface.
+	 *
+	 * @param holder
+	 * @return False if the renderer can not draw to this surface.
+	 */
+	public boolean start(SurfaceHolder holder);
+
+	/**
+	 * Draw the frame prepared by {@link BubbleSurface#prepareFrame()}.
+	 *
+	 * @param holder
+	 * @param dirty
+	 *            Area that changed since the last frame, empty if nothing
+	 *            changed or null if the whole surface should be drawn.
+	 */
+	public void drawFrame(SurfaceHolder holder, Rect dirty);
+
+	/**
+	 * Release everything allocated in {@link #start(SurfaceHolder)}.
+	 */
+	public void stop();
+
+}
@@ -0,0 +1,140 @@
+package fi.android.spacify.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import fi.android.spacify.db.BubbleDatabase.BubbleColumns;
+import fi.android.spacify.db.BubbleDatabase.LinkColumns;
+import fi.android.spacify.model.Bubble;
+
+/**
+ * Times re-importing 10k bubbles that are already stored, the case of a
+ * catalog re-sync. Compares the statements compiled once per transaction with
+ * the earlier path that built ContentValues for every row, called
+ * insertOrThrow and updated after the constraint failure. Runs against an
+ * in-memory database, the data of the app is not touched. Needs the Android
+ * SQLite, so it is run on a device with both packages installed:
+ *
+ * <pre>
+ * adb shell CLASSPATH=/data/app/fi.android.spacify-1.apk:/data/app/fi.android.spacify.test-1.apk \
+ *     app_process /system/bin fi.android.spacify.db.BubbleDatabaseBenchmark
+ * </pre>
+ */
+public class BubbleDatabaseBenchmark {
+
+	private static final int BUBBLES = 10000;
+	private static final int ROUNDS = 3;
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		// No name means an in-memory database, the context is not used then
+		BubbleDatabase db = new BubbleDatabase(null, null);
+		try {
+			List<Bubble> bubbles = createBubbles();
+			db.storeBubbles(bubbles);
+			db.flush();
+
+			long old = Long.MAX_VALUE, compiled = Long.MAX_VALUE;
+			for(int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				storeWithContentValues(db.getWritableDatabase(), bubbles);
+				old = Math.min(old, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				db.storeBubbles(bubbles);
+				db.flush();
+				compiled = Math.min(compiled, System.nanoTime() - start);
+			}
+			System.out.println("Re-import of " + BUBBLES + " bubbles, best of " + ROUNDS + " (ms)");
+			System.out.println("ContentValues        " + old / 1000000);
+			System.out.println("compiled statements  " + compiled / 1000000);
+
+			check(BUBBLES, count(db, BubbleDatabase.BUBBLE_TABLE), "bubbles");
+			check(2 * BUBBLES, count(db, BubbleDatabase.LINK_TABLE), "links");
+		} finally {
+			db.close();
+		}
+	}
+
+	private static List<Bubble> createBubbles() {
+		List<Bubble> bubbles = new ArrayList<Bubble>(BUBBLES);
+		for(int id = 1; id <= BUBBLES; id++) {
+			Bubble b = new Bubble(id);
+			b.setTitle("Bubble " + id);
+			b.setContents("Contents of bubble " + id);
+			b.setPriority(id % 5);
+			b.setType("text");
+			b.setStyle("default");
+			b.setLinks(new int[] { id % BUBBLES + 1, (id + 1) % BUBBLES + 1 });
+			bubbles.add(b);
+		}
+		return bubbles;
+	}
+
+	private static void check(int expected, int actual, String what) {
+		if(expected != actual) {
+			throw new AssertionError(what + ": expected " + expected + " rows, got " + actual);
+		}
+	}
+
+	/**
+	 * The write path used before the statements were compiled, in one
+	 * transaction like the current one.
+	 */
+	private static void storeWithContentValues(SQLiteDatabase sql, List<Bubble> bubbles) {
+		sql.beginTransaction();
+		try {
+			for(Bubble bubble : bubbles) {
+				ContentValues values = new ContentValues();
+				values.put(BubbleColumns.ID, bubble.getID());
+				values.put(BubbleColumns.TITLE, bubble.getTitle());
+				values.put(BubbleColumns.STYLE, bubble.getStyle());
+				values.put(BubbleColumns.CONTENTS, bubble.getContents());
+				values.put(BubbleColumns.PRIORITY, bubble.getPriority());
+				values.put(BubbleColumns.TITLE_IMAGE_URL, bubble.getTitleImageUrl());
+				values.put(BubbleColumns.TYPE, bubble.getType());
+				values.put(BubbleColumns.DEBUG_ID, bubble.getDebugID());
+				values.put(BubbleColumns.CONTENT_IMAGE_URL, bubble.getContentImageUrl());
+				values.put(BubbleColumns.LATITUDE, bubble.getLattitude());
+				values.put(BubbleColumns.LONGITUDE, bubble.getLongitude());
+				values.put(BubbleColumns.X, bubble.getX());
+				values.put(BubbleColumns.Y, bubble.getY());
+				try {
+					sql.insertOrThrow(BubbleDatabase.BUBBLE_TABLE, null, values);
+				} catch(SQLException e) {
+					String where = BubbleColumns.ID + " = " + bubble.getID();
+					sql.update(BubbleDatabase.BUBBLE_TABLE, values, where, null);
+				}
+
+				sql.delete(BubbleDatabase.LINK_TABLE, LinkColumns.FROM_ID + " = " + bubble.getID(), null);
+				for(int link : bubble.getLinks()) {
+					ContentValues linkValues = new ContentValues();
+					linkValues.put(LinkColumns.FROM_ID, bubble.getID());
+					linkValues.put(LinkColumns.TO_ID, link);
+					sql.insert(BubbleDatabase.LINK_TABLE, null, linkValues);
+				}
+			}
+			sql.setTransactionSuccessful();
+		} finally {
+			sql.endTransaction();
+		}
+	}
+
+	private static int count(BubbleDatabase db, String table) {
+		Cursor c = db.getReadableDatabase().rawQuery("SELECT count(*) FROM " + table, null);
+		try {
+			c.moveToFirst();
+			return c.getInt(0);
+		} finally {
+			c.close();
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package fi.android.spacify.db;
+
+/**
+ * Tests for {@link SearchQuery}. Runs on a plain JVM, from the Spacify
+ * directory:
+ *
+ * <pre>
+ * javac -d /tmp/db src/fi/android/spacify/db/SearchQuery.java test/src/fi/android/spacify/db/SearchQueryTest.java
+ * java -cp /tmp/db fi.android.spacify.db.SearchQueryTest
+ * </pre>
+ */
+public class SearchQueryTest {
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		asciiIsFolded();
+		finnishTitles();
+		separators();
+		empty();
+		System.out.println("SearchQueryTest passed");
+	}
+
+	private static void asciiIsFolded() {
+		check("Spacify", "spacify*");
+		check("SMART space 2012", "smart* space* 2012*");
+	}
+
+	/**
+	 * The simple tokenizer only folds ASCII, so capital A and O with
+	 * diaeresis and A with ring must stay as typed (\u00c4iti, not \u00e4iti).
+	 */
+	private static void finnishTitles() {
+		check("\u00c4iti", "\u00c4iti*");
+		check("\u00c4ITI", "\u00c4iti*");
+		check("\u00e4iti", "\u00e4iti*");
+		check("Kes\u00e4p\u00e4iv\u00e4 \u00d6ljyll\u00e4", "kes\u00e4p\u00e4iv\u00e4* \u00d6ljyll\u00e4*");
+		check("Hyv\u00e4\u00e4 y\u00f6t\u00e4, \u00c5bo!", "hyv\u00e4\u00e4* y\u00f6t\u00e4* \u00c5bo*");
+		check("P\u00e4iv\u00e4koti-\u00c4\u00e4nestys", "p\u00e4iv\u00e4koti* \u00c4\u00e4nestys*");
+	}
+
+	private static void separators() {
+		check("\"kissa\" OR koira", "kissa* or* koira*");
+		check("  -kala*  ", "kala*");
+		check("a_b", "a* b*");
+	}
+
+	private static void empty() {
+		check(null, null);
+		check("", null);
+		check(" .,;'\"* ", null);
+	}
+
+	private static void check(String constraint, String expected) {
+		String actual = SearchQuery.toMatch(constraint);
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError(constraint + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+}
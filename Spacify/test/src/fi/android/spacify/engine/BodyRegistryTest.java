@@ -0,0 +1,61 @@
+package fi.android.spacify.engine;
+
+/**
+ * Tests for {@link BodyRegistry}.
+ */
+public class BodyRegistryTest {
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		batchPutIfAbsent();
+		batchOrder();
+		snapshotsAreImmutable();
+		System.out.println("BodyRegistryTest passed");
+	}
+
+	private static void batchPutIfAbsent() {
+		BodyRegistry<String> registry = new BodyRegistry<String>();
+		registry.putIfAbsent(1, "one");
+		long version = registry.snapshot().version();
+
+		BodyRegistry.Snapshot<String> after = registry.edit().putIfAbsent(1, "other one").putIfAbsent(2, "two")
+				.putIfAbsent(2, "other two").putIfAbsent(3, "three").commit();
+		Check.equal("one version per batch", version + 1, after.version());
+		Check.equal("size", 3, after.size());
+		Check.equal("existing kept", "one", after.get(1));
+		Check.equal("first in batch wins", "two", after.get(2));
+		Check.equal("added", "three", after.get(3));
+
+		// Removed earlier in the same batch, so the id is free again
+		after = registry.edit().remove(1).putIfAbsent(1, "new one").commit();
+		Check.equal("added after remove", "new one", after.get(1));
+
+		Check.isTrue("single put of existing id", !registry.putIfAbsent(3, "again"));
+		Check.isTrue("single put of new id", registry.putIfAbsent(4, "four"));
+	}
+
+	private static void batchOrder() {
+		BodyRegistry<String> registry = new BodyRegistry<String>();
+		BodyRegistry.Snapshot<String> snapshot = registry.edit().putIfAbsent(5, "a").putIfAbsent(3, "b")
+				.putIfAbsent(9, "c").commit();
+		Check.equal("first", 5, snapshot.id(0));
+		Check.equal("second", 3, snapshot.id(1));
+		Check.equal("third", 9, snapshot.id(2));
+	}
+
+	private static void snapshotsAreImmutable() {
+		BodyRegistry<String> registry = new BodyRegistry<String>();
+		registry.putIfAbsent(1, "one");
+		BodyRegistry.Snapshot<String> old = registry.snapshot();
+		registry.edit().putIfAbsent(2, "two").remove(1).commit();
+
+		Check.equal("old size", 1, old.size());
+		Check.equal("old body", "one", old.get(1));
+		Check.equal("new size", 1, registry.snapshot().size());
+		Check.isTrue("removed", !registry.snapshot().contains(1));
+	}
+
+}
@@ -0,0 +1,91 @@
+package fi.android.spacify.engine;
+
+import java.util.Random;
+
+/**
+ * Measures one broad phase batch, every body querying its own circle, at 100,
+ * 1k and 10k bodies with different thread counts. The thread counts are given
+ * as arguments and default to 1, 2, 4 and 8. Counts above the number of cores
+ * only show the cost of handing chunks over. Run like {@link EngineTests}:
+ *
+ * <pre>
+ * java -cp /tmp/engine fi.android.spacify.engine.BroadPhaseBenchmark 1 2 4
+ * </pre>
+ */
+public class BroadPhaseBenchmark {
+
+	private static final int[] SIZES = { 100, 1000, 10000 };
+	private static final int[] DEFAULT_THREADS = { 1, 2, 4, 8 };
+	private static final int BATCHES = 50;
+	private static final int ROUNDS = 5;
+
+	private static int sink;
+
+	/**
+	 * @param args
+	 *            Thread counts to measure
+	 */
+	public static void main(String[] args) {
+		int[] threads = DEFAULT_THREADS;
+		if (args.length > 0) {
+			threads = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				threads[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores available");
+		StringBuilder header = new StringBuilder("bodies");
+		for (int t : threads) {
+			header.append(String.format("%12s", t + " threads"));
+		}
+		System.out.println(header.append("  (us/batch)"));
+		for (int size : SIZES) {
+			run(size, threads);
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private static void run(int count, int[] threads) {
+		Random random = new Random(count);
+		float side = (float) Math.sqrt(count) * 150;
+		SpatialGrid grid = new SpatialGrid(128);
+		float[] x = new float[count], y = new float[count], r = new float[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * side;
+			y[i] = random.nextFloat() * side;
+			r[i] = 30 + random.nextFloat() * 40;
+			grid.update(i, x[i], y[i], r[i]);
+		}
+
+		StringBuilder line = new StringBuilder(String.format("%6d", count));
+		for (int t : threads) {
+			BroadPhase phase = new BroadPhase(grid, t);
+			try {
+				long best = Long.MAX_VALUE;
+				// First round warms up the JIT and starts the workers, the
+				// best of the rest is reported
+				for (int round = 0; round <= ROUNDS; round++) {
+					long start = System.nanoTime();
+					for (int batch = 0; batch < BATCHES; batch++) {
+						phase.clear();
+						for (int i = 0; i < count; i++) {
+							phase.add(x[i], y[i], r[i]);
+						}
+						phase.run();
+						sink += phase.candidates(count - 1).size();
+					}
+					long time = System.nanoTime() - start;
+					best = round > 0 ? Math.min(best, time) : best;
+				}
+				line.append(String.format("%12d", best / BATCHES / 1000));
+			} finally {
+				phase.shutdown();
+			}
+		}
+		System.out.println(line);
+	}
+
+}
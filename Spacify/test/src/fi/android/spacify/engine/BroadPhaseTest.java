@@ -0,0 +1,133 @@
+package fi.android.spacify.engine;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link BroadPhase}.
+ */
+public class BroadPhaseTest {
+
+	private static final int[] THREADS = { 1, 2, 3, 4, 8 };
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		smallBatchIsSequential();
+		matchesSequentialAndQueryCircle();
+		reuseAfterClear();
+		System.out.println("BroadPhaseTest passed");
+	}
+
+	private static void smallBatchIsSequential() {
+		SpatialGrid grid = new SpatialGrid(64);
+		grid.update(1, 0, 0, 10);
+		grid.update(2, 15, 0, 10);
+		grid.update(3, 200, 200, 10);
+		BroadPhase phase = new BroadPhase(grid, 4);
+		try {
+			phase.add(0, 0, 10);
+			phase.add(200, 200, 5);
+			phase.add(-500, -500, 5);
+			phase.run();
+			Check.equal("queries", 3, phase.size());
+			Check.equal("first", new int[] { 1, 2 }, Check.sorted(phase.candidates(0)));
+			Check.equal("second", new int[] { 3 }, Check.sorted(phase.candidates(1)));
+			Check.equal("third", new int[0], Check.sorted(phase.candidates(2)));
+		} finally {
+			phase.shutdown();
+		}
+	}
+
+	/**
+	 * One solver iteration with 5000 bodies each querying its own circle. The
+	 * candidates must be identical, also in order, whatever the thread count,
+	 * and contain the same bodies as {@link SpatialGrid#queryCircle}.
+	 */
+	private static void matchesSequentialAndQueryCircle() {
+		int count = 5000;
+		Random random = new Random(5000);
+		float side = (float) Math.sqrt(count) * 150;
+		SpatialGrid grid = new SpatialGrid(128);
+		float[] x = new float[count], y = new float[count], r = new float[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * side;
+			y[i] = random.nextFloat() * side;
+			r[i] = 30 + random.nextFloat() * 40;
+			grid.update(i, x[i], y[i], r[i]);
+		}
+
+		BroadPhase sequential = new BroadPhase(grid, 1);
+		fill(sequential, x, y, r);
+		sequential.run();
+
+		IntList expected = new IntList();
+		int total = 0;
+		for (int q = 0; q < count; q++) {
+			grid.queryCircle(x[q], y[q], r[q], expected);
+			Check.equal("queryCircle " + q, Check.sorted(expected), Check.sorted(sequential.candidates(q)));
+			total += expected.size();
+		}
+		Check.isTrue("bodies overlap each other", total > count);
+
+		for (int threads : THREADS) {
+			BroadPhase parallel = new BroadPhase(grid, threads);
+			try {
+				fill(parallel, x, y, r);
+				parallel.run();
+				for (int q = 0; q < count; q++) {
+					Check.equal(threads + " threads, query " + q, values(sequential.candidates(q)),
+							values(parallel.candidates(q)));
+				}
+
+				parallel.setSequential(true);
+				parallel.run();
+				for (int q = 0; q < count; q++) {
+					Check.equal(threads + " threads forced sequential, query " + q,
+							values(sequential.candidates(q)), values(parallel.candidates(q)));
+				}
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+
+	private static void reuseAfterClear() {
+		SpatialGrid grid = new SpatialGrid(64);
+		for (int i = 0; i < 200; i++) {
+			grid.update(i, i * 10, 0, 8);
+		}
+		BroadPhase phase = new BroadPhase(grid, 2);
+		try {
+			for (int i = 0; i < 200; i++) {
+				phase.add(i * 10, 0, 8);
+			}
+			phase.run();
+			phase.clear();
+			Check.equal("cleared", 0, phase.size());
+
+			phase.add(1000, 0, 1);
+			phase.run();
+			Check.equal("after clear", new int[] { 100 }, Check.sorted(phase.candidates(0)));
+		} finally {
+			phase.shutdown();
+		}
+	}
+
+	private static void fill(BroadPhase phase, float[] x, float[] y, float[] r) {
+		phase.clear();
+		for (int i = 0; i < x.length; i++) {
+			phase.add(x[i], y[i], r[i]);
+		}
+	}
+
+	private static int[] values(IntList list) {
+		int[] values = new int[list.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = list.get(i);
+		}
+		return values;
+	}
+
+}
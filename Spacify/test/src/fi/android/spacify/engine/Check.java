@@ -0,0 +1,52 @@
+package fi.android.spacify.engine;
+
+import java.util.Arrays;
+
+/**
+ * Assertions for the engine tests. They throw {@link AssertionError}
+ * themselves, so the tests fail also when the JVM runs without -ea.
+ */
+final class Check {
+
+	private Check() {
+	}
+
+	static void isTrue(String what, boolean condition) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	static void equal(String what, long expected, long actual) {
+		if (expected != actual) {
+			throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	static void equal(String what, Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	static void equal(String what, int[] expected, int[] actual) {
+		if (!Arrays.equals(expected, actual)) {
+			throw new AssertionError(what + ": expected " + Arrays.toString(expected) + " but was "
+					+ Arrays.toString(actual));
+		}
+	}
+
+	/**
+	 * @param list
+	 * @return Values of the list in ascending order.
+	 */
+	static int[] sorted(IntList list) {
+		int[] values = new int[list.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = list.get(i);
+		}
+		Arrays.sort(values);
+		return values;
+	}
+
+}
@@ -0,0 +1,32 @@
+package fi.android.spacify.engine;
+
+import java.io.IOException;
+
+/**
+ * Runs all engine tests. The engine has no Android dependencies, so the
+ * tests run on a plain JVM. From the Spacify directory:
+ *
+ * <pre>
+ * javac -d /tmp/engine src/fi/android/spacify/engine/*.java test/src/fi/android/spacify/engine/*.java
+ * java -cp /tmp/engine fi.android.spacify.engine.EngineTests
+ * </pre>
+ *
+ * A failing test throws and the JVM exits with a non-zero status.
+ */
+public class EngineTests {
+
+	/**
+	 * @param args
+	 *            Not used
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		SpatialGridTest.main(args);
+		BodyRegistryTest.main(args);
+		IntSetTest.main(args);
+		BroadPhaseTest.main(args);
+		ScenarioTest.main(args);
+		System.out.println("All engine tests passed");
+	}
+
+}
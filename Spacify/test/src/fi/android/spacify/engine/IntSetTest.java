@@ -0,0 +1,84 @@
+package fi.android.spacify.engine;
+
+/**
+ * Tests for {@link IntSet}.
+ */
+public class IntSetTest {
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		addAndRemove();
+		set();
+		parse();
+		parseInvalid();
+		valuesAreNotModified();
+		System.out.println("IntSetTest passed");
+	}
+
+	private static void addAndRemove() {
+		IntSet set = new IntSet();
+		Check.isTrue("add new", set.add(5));
+		Check.isTrue("add new", set.add(-1));
+		Check.isTrue("add new", set.add(3));
+		Check.isTrue("add existing", !set.add(5));
+		Check.equal("sorted", new int[] { -1, 3, 5 }, set.values());
+		Check.isTrue("contains", set.contains(3));
+		Check.isTrue("does not contain", !set.contains(4));
+
+		Check.isTrue("remove existing", set.remove(3));
+		Check.isTrue("remove missing", !set.remove(3));
+		Check.equal("after remove", new int[] { -1, 5 }, set.values());
+		Check.equal("size", 2, set.size());
+	}
+
+	private static void set() {
+		IntSet set = new IntSet();
+		set.add(1);
+		int[] old = set.set(new int[] { 9, 2, 9, 7, 2 });
+		Check.equal("old values", new int[] { 1 }, old);
+		Check.equal("sorted without duplicates", new int[] { 2, 7, 9 }, set.values());
+		set.set(new int[0]);
+		Check.equal("emptied", 0, set.size());
+	}
+
+	private static void parse() {
+		Check.equal("comma separated", new int[] { 1, 2 }, IntSet.parse("1,2"));
+		Check.equal("JSON array", new int[] { 1, 2 }, IntSet.parse("[1,2]"));
+		Check.equal("spaces and quotes", new int[] { 3, 10, 22 }, IntSet.parse("[ \"22\", 3 ,10 ]"));
+		Check.equal("unsorted with duplicates", new int[] { -4, 1, 8 }, IntSet.parse("8,1,8,-4"));
+		Check.equal("null", new int[0], IntSet.parse(null));
+		Check.equal("empty", new int[0], IntSet.parse(""));
+		Check.equal("empty array", new int[0], IntSet.parse("[]"));
+
+		IntSet set = new IntSet();
+		set.set(new int[] { 12, 4, 7 });
+		Check.equal("toString", "[4,7,12]", set.toString());
+		Check.equal("round trip", set.values(), IntSet.parse(set.toString()));
+	}
+
+	private static void parseInvalid() {
+		String[] invalid = { "1,a", "[1.5]", "{1}" };
+		for (String text : invalid) {
+			try {
+				IntSet.parse(text);
+				throw new AssertionError("Parsed invalid text " + text);
+			} catch (NumberFormatException e) {
+				// Expected
+			}
+		}
+	}
+
+	private static void valuesAreNotModified() {
+		IntSet set = new IntSet();
+		set.add(1);
+		set.add(2);
+		int[] before = set.values();
+		set.add(3);
+		set.remove(1);
+		Check.equal("returned array unchanged", new int[] { 1, 2 }, before);
+	}
+
+}
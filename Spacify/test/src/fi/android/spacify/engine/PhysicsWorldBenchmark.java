@@ -0,0 +1,78 @@
+package fi.android.spacify.engine;
+
+import java.util.Random;
+
+/**
+ * Measures {@link PhysicsWorld} ticks at 100, 1k and 10k bodies. Bodies are
+ * dropped at random positions and one in fifty of them is dragged across the
+ * crowd, so the ticks resolve chains of pushes. The area grows with the body
+ * count. Reports the average tick with collision candidates searched in the
+ * calling thread and on all cores, and how many bodies the drags woke up. Run
+ * like {@link EngineTests}:
+ *
+ * <pre>
+ * java -cp /tmp/engine fi.android.spacify.engine.PhysicsWorldBenchmark
+ * </pre>
+ */
+public class PhysicsWorldBenchmark {
+
+	private static final int[] SIZES = { 100, 1000, 10000 };
+	private static final int TICKS = 120;
+	private static final int ROUNDS = 5;
+
+	private static int awake;
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores available");
+		System.out.println("bodies   sequential     parallel        awake  (us/tick)");
+		for (int size : SIZES) {
+			long sequential = Long.MAX_VALUE, parallel = Long.MAX_VALUE;
+			// First round warms up the JIT, the best of the rest is reported
+			for (int round = 0; round <= ROUNDS; round++) {
+				long time = run(size, true);
+				sequential = round > 0 ? Math.min(sequential, time) : sequential;
+				time = run(size, false);
+				parallel = round > 0 ? Math.min(parallel, time) : parallel;
+			}
+			System.out.println(String.format("%6d %12d %12d %12d", size, sequential / TICKS / 1000, parallel / TICKS
+					/ 1000, awake));
+		}
+	}
+
+	/**
+	 * @return Nanoseconds taken by the ticks.
+	 */
+	private static long run(int count, boolean sequential) {
+		int side = (int) (Math.sqrt(count) * 100);
+		PhysicsWorld world = new PhysicsWorld(new BodyStore(), new Animator());
+		world.setSequential(sequential);
+		world.setSeed(count);
+		world.setBounds(0, 0, side, side);
+		BodyStore store = world.getStore();
+		Random random = new Random(count);
+		for (int id = 0; id < count; id++) {
+			world.add(id, world.randomX(), world.randomY(), 30 + random.nextInt(30));
+		}
+		int drags = Math.max(count / 50, 1);
+		for (int id = 0; id < drags; id++) {
+			store.setState(store.slotOf(id), PhysicsWorld.MOVING);
+		}
+
+		long start = System.nanoTime();
+		for (int tick = 0; tick < TICKS; tick++) {
+			for (int id = 0; id < drags; id++) {
+				world.drag(id, side * tick / TICKS, side * (2 * id + 1) / (2 * drags));
+			}
+			world.step();
+		}
+		long time = System.nanoTime() - start;
+		awake = world.getAwakeCount();
+		world.shutdown();
+		return time;
+	}
+
+}
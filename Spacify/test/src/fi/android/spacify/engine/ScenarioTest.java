@@ -0,0 +1,125 @@
+package fi.android.spacify.engine;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Tests for {@link Scenario}.
+ */
+public class ScenarioTest {
+
+	/**
+	 * @param args
+	 *            Not used
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		roundTrip();
+		replayIsDeterministic();
+		expect();
+		invalidLines();
+		System.out.println("ScenarioTest passed");
+	}
+
+	/**
+	 * Pushes, random placement, a drag across other bodies and a removal.
+	 */
+	private static Scenario crowd() {
+		Scenario scenario = new Scenario().seed(42).bounds(0, 0, 480, 800);
+		for (int id = 1; id <= 6; id++) {
+			scenario.body(id, 200 + id * 10, 300 + id * 5, 30);
+		}
+		for (int id = 7; id <= 30; id++) {
+			scenario.place(id, 30 + id % 3 * 10);
+		}
+		return scenario.waitFor(500).drag(1, 100, 600).waitFor(300).drag(1, 400, 100).waitFor(300).release(1)
+				.remove(7).waitFor(1000).settle().waitFor(100);
+	}
+
+	private static void roundTrip() throws IOException {
+		Scenario scenario = crowd();
+		String text = toText(scenario);
+		Scenario parsed = Scenario.parse(new StringReader(text));
+		Check.equal("commands", scenario.size(), parsed.size());
+		Check.equal("written again", text, toText(parsed));
+		Check.equal("same positions", positions(scenario.play(), 30), positions(parsed.play(), 30));
+
+		String commented = "# Crowd\n\n  seed 1 # comment\nbounds 0 0 480 800\r\n\tbody 1 10.0 20 30\nsettle\n";
+		parsed = Scenario.parse(new StringReader(commented));
+		Check.equal("comments and blank lines skipped", 4, parsed.size());
+		Check.equal("normalised", "seed 1\nbounds 0 0 480 800\nbody 1 10.0 20 30\nsettle\n", toText(parsed));
+	}
+
+	private static void replayIsDeterministic() {
+		Scenario scenario = crowd();
+		int[] first = positions(scenario.play(), 30);
+		int[] second = positions(scenario.play(), 30);
+		Check.equal("replay", first, second);
+
+		// Bodies must actually have been moved for the comparison to mean
+		// anything
+		Check.isTrue("dragged", first[0] != 210 || first[1] != 305);
+		Check.equal("removed", BodyStore.NO_SLOT, first[2 * 6]);
+
+		int[] otherSeed = positions(new Scenario().seed(43).bounds(0, 0, 480, 800).place(1, 30).play(), 1);
+		int[] sameSeed = positions(new Scenario().seed(42).bounds(0, 0, 480, 800).place(1, 30).play(), 1);
+		Check.equal("seeded placement", sameSeed,
+				positions(new Scenario().seed(42).bounds(0, 0, 480, 800).place(1, 30).play(), 1));
+		Check.isTrue("seed changes placement", otherSeed[0] != sameSeed[0] || otherSeed[1] != sameSeed[1]);
+	}
+
+	private static void expect() {
+		int[] end = positions(crowd().play(), 30);
+		Scenario passing = crowd().expect(1, end[0], end[1]).expect(30, end[58], end[59]);
+		passing.play();
+
+		try {
+			crowd().expect(1, end[0] + 1, end[1]).play();
+			throw new AssertionError("Wrong position passed");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			crowd().expect(7, 0, 0).play();
+			throw new AssertionError("Removed body passed");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	private static void invalidLines() throws IOException {
+		String[] invalid = { "jump 1", "seed", "seed 1.5", "body 1 2 3", "drag 1 2 x", "settle now", "wait 10 20" };
+		for (String line : invalid) {
+			try {
+				Scenario.parse(new StringReader("seed 1\n" + line + "\n"));
+				throw new AssertionError("Parsed invalid line " + line);
+			} catch (IllegalArgumentException e) {
+				Check.isTrue("line number in " + e.getMessage(), e.getMessage().contains("line 2"));
+			}
+		}
+	}
+
+	private static String toText(Scenario scenario) throws IOException {
+		StringWriter writer = new StringWriter();
+		scenario.write(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * @return X and y of bodies 1 to count, {@link BodyStore#NO_SLOT} for
+	 *         both if removed.
+	 */
+	private static int[] positions(PhysicsWorld world, int count) {
+		BodyStore store = world.getStore();
+		int[] positions = new int[count * 2];
+		for (int id = 1; id <= count; id++) {
+			int slot = store.slotOf(id);
+			positions[(id - 1) * 2] = slot == BodyStore.NO_SLOT ? BodyStore.NO_SLOT : store.getX(slot);
+			positions[(id - 1) * 2 + 1] = slot == BodyStore.NO_SLOT ? BodyStore.NO_SLOT : store.getY(slot);
+		}
+		world.shutdown();
+		return positions;
+	}
+
+}
@@ -0,0 +1,117 @@
+package fi.android.spacify.engine;
+
+import java.util.Random;
+
+/**
+ * Compares {@link SpatialGrid} queries to the linear scan over all bubbles
+ * that hit testing and collision checks used before, at 100, 1k and 10k
+ * bodies. Bodies are spread over an area growing with their count, so each
+ * body has about the same number of neighbours at every size. Run like
+ * {@link EngineTests}:
+ *
+ * <pre>
+ * java -cp /tmp/engine fi.android.spacify.engine.SpatialGridBenchmark
+ * </pre>
+ */
+public class SpatialGridBenchmark {
+
+	private static final int[] SIZES = { 100, 1000, 10000 };
+	private static final int QUERIES = 20000;
+	private static final int ROUNDS = 5;
+
+	private static int sink;
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		System.out.println("bodies   scan point   grid point   scan circle  grid circle  (ns/query)");
+		for (int size : SIZES) {
+			run(size);
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private static void run(int count) {
+		Random random = new Random(count);
+		float side = (float) Math.sqrt(count) * 150;
+		float[] x = new float[count];
+		float[] y = new float[count];
+		float[] r = new float[count];
+		SpatialGrid grid = new SpatialGrid(128);
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * side;
+			y[i] = random.nextFloat() * side;
+			r[i] = 30 + random.nextFloat() * 40;
+			grid.update(i, x[i], y[i], r[i]);
+		}
+		float[] qx = new float[QUERIES];
+		float[] qy = new float[QUERIES];
+		for (int q = 0; q < QUERIES; q++) {
+			qx[q] = random.nextFloat() * side;
+			qy[q] = random.nextFloat() * side;
+		}
+
+		long scanPoint = Long.MAX_VALUE, gridPoint = Long.MAX_VALUE;
+		long scanCircle = Long.MAX_VALUE, gridCircle = Long.MAX_VALUE;
+		IntList result = new IntList();
+		// First round warms up the JIT, the best of the rest is reported
+		for (int round = 0; round <= ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int q = 0; q < QUERIES; q++) {
+				sink += scanPoint(x, y, r, qx[q], qy[q]);
+			}
+			long time = System.nanoTime() - start;
+			scanPoint = round > 0 ? Math.min(scanPoint, time) : scanPoint;
+
+			start = System.nanoTime();
+			for (int q = 0; q < QUERIES; q++) {
+				sink += grid.queryPoint(qx[q], qy[q]);
+			}
+			time = System.nanoTime() - start;
+			gridPoint = round > 0 ? Math.min(gridPoint, time) : gridPoint;
+
+			start = System.nanoTime();
+			for (int q = 0; q < QUERIES; q++) {
+				sink += scanCircle(x, y, r, qx[q], qy[q], 50, result);
+			}
+			time = System.nanoTime() - start;
+			scanCircle = round > 0 ? Math.min(scanCircle, time) : scanCircle;
+
+			start = System.nanoTime();
+			for (int q = 0; q < QUERIES; q++) {
+				sink += grid.queryCircle(qx[q], qy[q], 50, result);
+			}
+			time = System.nanoTime() - start;
+			gridCircle = round > 0 ? Math.min(gridCircle, time) : gridCircle;
+		}
+
+		System.out.println(String.format("%6d %12d %12d %12d %12d", count, scanPoint / QUERIES, gridPoint / QUERIES,
+				scanCircle / QUERIES, gridCircle / QUERIES));
+	}
+
+	private static int scanPoint(float[] x, float[] y, float[] r, float px, float py) {
+		for (int i = 0; i < x.length; i++) {
+			float dx = px - x[i];
+			float dy = py - y[i];
+			if (dx * dx + dy * dy < r[i] * r[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int scanCircle(float[] x, float[] y, float[] r, float qx, float qy, float qr, IntList result) {
+		result.clear();
+		for (int i = 0; i < x.length; i++) {
+			if (PhysicsWorld.overlaps(qx, qy, qr, x[i], y[i], r[i])) {
+				result.add(i);
+			}
+		}
+		return result.size();
+	}
+
+}
@@ -0,0 +1,140 @@
+package fi.android.spacify.engine;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link SpatialGrid}. Query results are compared against a
+ * linear scan over the same bodies.
+ */
+public class SpatialGridTest {
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		queryPoint();
+		queryCircle();
+		queryCircleAcrossCells();
+		queryCircleMatchesScan();
+		queryCircleConcurrentMatchesQueryCircle();
+		updateAndRemove();
+		System.out.println("SpatialGridTest passed");
+	}
+
+	private static void queryPoint() {
+		SpatialGrid grid = new SpatialGrid(128);
+		grid.update(1, 100, 100, 30);
+		grid.update(2, 300, 100, 30);
+
+		Check.equal("point inside", 1, grid.queryPoint(110, 90));
+		Check.equal("point inside other", 2, grid.queryPoint(300, 129));
+		Check.equal("point outside", -1, grid.queryPoint(200, 100));
+		Check.equal("point on the edge is outside", -1, grid.queryPoint(130, 100));
+	}
+
+	private static void queryCircle() {
+		SpatialGrid grid = new SpatialGrid(128);
+		grid.update(1, 0, 0, 10);
+		grid.update(2, 15, 0, 10);
+		grid.update(3, 45, 0, 10);
+
+		IntList result = new IntList();
+		Check.equal("count", 2, grid.queryCircle(0, 0, 10, result));
+		Check.equal("overlapping", new int[] { 1, 2 }, Check.sorted(result));
+
+		// Circles touching exactly at one point do not overlap
+		grid.queryCircle(65, 0, 10, result);
+		Check.equal("touching", new int[0], Check.sorted(result));
+
+		grid.queryCircle(-1000, -1000, 10, result);
+		Check.equal("far away", 0, result.size());
+	}
+
+	private static void queryCircleAcrossCells() {
+		// A large body covers many cells but is reported only once
+		SpatialGrid grid = new SpatialGrid(16);
+		grid.update(1, 0, 0, 200);
+		grid.update(2, -150, -150, 5);
+
+		IntList result = new IntList();
+		grid.queryCircle(-100, -100, 150, result);
+		Check.equal("large body once", new int[] { 1, 2 }, Check.sorted(result));
+
+		grid.queryCircle(500, 0, 310, result);
+		Check.equal("reaching the edge", new int[] { 1 }, Check.sorted(result));
+	}
+
+	private static void queryCircleMatchesScan() {
+		Random random = new Random(1);
+		int count = 2000;
+		float[] x = new float[count];
+		float[] y = new float[count];
+		float[] r = new float[count];
+		SpatialGrid grid = new SpatialGrid(64);
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * 4000 - 2000;
+			y[i] = random.nextFloat() * 4000 - 2000;
+			r[i] = 5 + random.nextFloat() * 100;
+			grid.update(i, x[i], y[i], r[i]);
+		}
+
+		IntList result = new IntList();
+		IntList expected = new IntList();
+		for (int q = 0; q < 500; q++) {
+			float qx = random.nextFloat() * 4400 - 2200;
+			float qy = random.nextFloat() * 4400 - 2200;
+			float qr = random.nextFloat() * 150;
+			expected.clear();
+			for (int i = 0; i < count; i++) {
+				if (PhysicsWorld.overlaps(qx, qy, qr, x[i], y[i], r[i])) {
+					expected.add(i);
+				}
+			}
+			grid.queryCircle(qx, qy, qr, result);
+			Check.equal("query " + q, Check.sorted(expected), Check.sorted(result));
+		}
+	}
+
+	private static void queryCircleConcurrentMatchesQueryCircle() {
+		Random random = new Random(2);
+		SpatialGrid grid = new SpatialGrid(32);
+		for (int i = 0; i < 1000; i++) {
+			grid.update(i, random.nextFloat() * 2000, random.nextFloat() * 2000, 5 + random.nextFloat() * 80);
+		}
+
+		IntList result = new IntList();
+		IntList concurrent = new IntList();
+		for (int q = 0; q < 500; q++) {
+			float qx = random.nextFloat() * 2000;
+			float qy = random.nextFloat() * 2000;
+			float qr = random.nextFloat() * 120;
+			grid.queryCircle(qx, qy, qr, result);
+			grid.queryCircleConcurrent(qx, qy, qr, concurrent);
+			Check.equal("query " + q, Check.sorted(result), Check.sorted(concurrent));
+		}
+	}
+
+	private static void updateAndRemove() {
+		SpatialGrid grid = new SpatialGrid(128);
+		IntList result = new IntList();
+		grid.update(1, 0, 0, 10);
+		grid.update(1, 1000, 1000, 10);
+		Check.equal("size after move", 1, grid.size());
+
+		grid.queryCircle(0, 0, 20, result);
+		Check.equal("old position is empty", 0, result.size());
+		grid.queryCircle(1000, 1000, 20, result);
+		Check.equal("new position", new int[] { 1 }, Check.sorted(result));
+
+		grid.remove(1);
+		grid.queryCircle(1000, 1000, 20, result);
+		Check.equal("removed", 0, result.size());
+		Check.equal("size after remove", 0, grid.size());
+
+		grid.update(2, 0, 0, 10);
+		grid.clear();
+		Check.equal("point after clear", -1, grid.queryPoint(0, 0));
+	}
+
+}
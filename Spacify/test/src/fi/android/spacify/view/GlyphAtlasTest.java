@@ -0,0 +1,104 @@
+package fi.android.spacify.view;
+
+/**
+ * Tests for {@link GlyphAtlas}.
+ */
+public class GlyphAtlasTest {
+
+	/**
+	 * Radius giving text at the atlas text size, glyphs are not scaled.
+	 */
+	private static final float UNSCALED = GlyphAtlas.TEXT_SIZE * 2.75f;
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		cells();
+		wrapping();
+		placement();
+		scaling();
+		System.out.println("GlyphAtlasTest passed");
+	}
+
+	/**
+	 * Atlas where every glyph is 10 pixels wide.
+	 */
+	private static GlyphAtlas fixedWidth() {
+		GlyphAtlas atlas = new GlyphAtlas();
+		for (char c = GlyphAtlas.FIRST; c <= GlyphAtlas.LAST; c++) {
+			atlas.setWidth(c, 10);
+		}
+		atlas.setBaseline(20);
+		return atlas;
+	}
+
+	private static void cells() {
+		ViewTests.equal("space", 0, GlyphAtlas.index(' '));
+		ViewTests.equal("A", 'A' - 32, GlyphAtlas.index('A'));
+		ViewTests.equal("outside Latin-1", GlyphAtlas.index('?'), GlyphAtlas.index('\u20ac'));
+		ViewTests.equal("control", GlyphAtlas.index('?'), GlyphAtlas.index('\n'));
+		ViewTests.equal("last", GlyphAtlas.LAST - GlyphAtlas.FIRST, GlyphAtlas.index('\u00ff'));
+
+		int perRow = GlyphAtlas.SIZE / GlyphAtlas.CELL;
+		ViewTests.equal("second row left", 0, GlyphAtlas.cellLeft(perRow));
+		ViewTests.equal("second row top", GlyphAtlas.CELL, GlyphAtlas.cellTop(perRow));
+		int last = GlyphAtlas.index(GlyphAtlas.LAST);
+		ViewTests.isTrue("all cells fit", GlyphAtlas.cellTop(last) + GlyphAtlas.CELL <= GlyphAtlas.SIZE);
+	}
+
+	/**
+	 * The inscribed square of the unscaled radius is about 93 pixels wide, so
+	 * nine 10 pixel glyphs fit on a line.
+	 */
+	private static void wrapping() {
+		GlyphAtlas atlas = fixedWidth();
+		String title = "abcdefghijklmnopqrst";
+
+		QuadBatch batch = new QuadBatch();
+		ViewTests.equal("one line", 9, atlas.addTitle(batch, title, 100, 100, UNSCALED, 1, 1));
+		ViewTests.equal("quads", 9 * 6, batch.vertexCount());
+
+		batch.clear();
+		ViewTests.equal("two lines", 18, atlas.addTitle(batch, title, 100, 100, UNSCALED, 2, 1));
+
+		batch.clear();
+		ViewTests.equal("all lines", 20, atlas.addTitle(batch, title, 100, 100, UNSCALED, 3, 1));
+
+		batch.clear();
+		ViewTests.equal("empty", 0, atlas.addTitle(batch, "", 100, 100, UNSCALED, 3, 1));
+		ViewTests.equal("nothing added", 0, batch.size());
+	}
+
+	private static void placement() {
+		GlyphAtlas atlas = fixedWidth();
+		QuadBatch batch = new QuadBatch();
+		atlas.addTitle(batch, "ab", 100, 100, UNSCALED, 1, 0.5f);
+
+		float[] v = batch.array();
+		float textFactor = (float) (UNSCALED / Math.sqrt(2));
+		float top = 100 - textFactor / 2 - 20;
+		ViewTests.equal("first left", 100 - textFactor, v[0]);
+		ViewTests.equal("first top", top, v[1]);
+		ViewTests.equal("second left", 100 - textFactor + 10, v[QuadBatch.QUAD_SIZE]);
+
+		int b = GlyphAtlas.index('b');
+		ViewTests.equal("u of b", (float) GlyphAtlas.cellLeft(b) / GlyphAtlas.SIZE, v[QuadBatch.QUAD_SIZE + 2]);
+		ViewTests.equal("v of b", (float) GlyphAtlas.cellTop(b) / GlyphAtlas.SIZE, v[QuadBatch.QUAD_SIZE + 3]);
+		ViewTests.equal("alpha", 0.5f, v[4]);
+		ViewTests.equal("alpha of second", 0.5f, v[QuadBatch.QUAD_SIZE + 4]);
+	}
+
+	private static void scaling() {
+		GlyphAtlas atlas = fixedWidth();
+		QuadBatch batch = new QuadBatch();
+		atlas.addTitle(batch, "a", 0, 0, UNSCALED / 2, 1, 1);
+		float[] v = batch.array();
+		// Bottom right vertex of the quad is the fifth one
+		int br = 4 * QuadBatch.VERTEX_SIZE;
+		ViewTests.equal("half size quad", GlyphAtlas.CELL / 2f, v[br] - v[0]);
+		ViewTests.equal("half size quad height", GlyphAtlas.CELL / 2f, v[br + 1] - v[1]);
+	}
+
+}
@@ -0,0 +1,73 @@
+package fi.android.spacify.view;
+
+/**
+ * Tests for {@link QuadBatch}.
+ */
+public class QuadBatchTest {
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		quad();
+		lines();
+		growKeepsVertices();
+		clear();
+		System.out.println("QuadBatchTest passed");
+	}
+
+	private static void quad() {
+		QuadBatch batch = new QuadBatch();
+		batch.addQuad(10, 20, 30, 40, 0.5f, 0, 1, 1, 0.25f);
+		ViewTests.equal("vertices", 6, batch.vertexCount());
+		ViewTests.equal("floats", QuadBatch.QUAD_SIZE, batch.size());
+
+		// Two triangles: top left, top right, bottom left, top right, bottom
+		// right, bottom left
+		float[][] expected = { { 10, 20, 0.5f, 0 }, { 30, 20, 1, 0 }, { 10, 40, 0.5f, 1 }, { 30, 20, 1, 0 },
+				{ 30, 40, 1, 1 }, { 10, 40, 0.5f, 1 } };
+		float[] v = batch.array();
+		for (int i = 0; i < expected.length; i++) {
+			int at = i * QuadBatch.VERTEX_SIZE;
+			for (int j = 0; j < 4; j++) {
+				ViewTests.equal("vertex " + i + " component " + j, expected[i][j], v[at + j]);
+			}
+			ViewTests.equal("alpha of vertex " + i, 0.25f, v[at + 4]);
+		}
+	}
+
+	private static void lines() {
+		QuadBatch batch = new QuadBatch();
+		batch.addVertex(1, 2, 0, 0, 1);
+		batch.addVertex(3, 4, 0, 0, 0.5f);
+		ViewTests.equal("vertices", 2, batch.vertexCount());
+		ViewTests.equal("second x", 3, batch.array()[QuadBatch.VERTEX_SIZE]);
+		ViewTests.equal("second alpha", 0.5f, batch.array()[QuadBatch.VERTEX_SIZE + 4]);
+	}
+
+	private static void growKeepsVertices() {
+		QuadBatch batch = new QuadBatch();
+		int quads = 1000;
+		for (int i = 0; i < quads; i++) {
+			batch.addQuad(i, i, i + 1, i + 1, 0, 0, 1, 1, i / (float) quads);
+		}
+		ViewTests.equal("vertices", quads * 6, batch.vertexCount());
+		float[] v = batch.array();
+		for (int i = 0; i < quads; i++) {
+			int at = i * QuadBatch.QUAD_SIZE;
+			ViewTests.equal("left of quad " + i, i, v[at]);
+			ViewTests.equal("alpha of quad " + i, i / (float) quads, v[at + 4]);
+		}
+	}
+
+	private static void clear() {
+		QuadBatch batch = new QuadBatch();
+		batch.addQuad(0, 0, 1, 1, 0, 0, 1, 1, 1);
+		batch.clear();
+		ViewTests.equal("cleared", 0, batch.size());
+		batch.addVertex(5, 6, 0, 0, 1);
+		ViewTests.equal("written from start", 5, batch.array()[0]);
+	}
+
+}
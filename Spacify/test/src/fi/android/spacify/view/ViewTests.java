@@ -0,0 +1,38 @@
+package fi.android.spacify.view;
+
+/**
+ * Runs the tests of the view classes that have no Android dependencies. From
+ * the Spacify directory:
+ *
+ * <pre>
+ * javac -d /tmp/view src/fi/android/spacify/view/QuadBatch.java src/fi/android/spacify/view/GlyphAtlas.java test/src/fi/android/spacify/view/*.java
+ * java -cp /tmp/view fi.android.spacify.view.ViewTests
+ * </pre>
+ *
+ * A failing test throws and the JVM exits with a non-zero status.
+ */
+public class ViewTests {
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		QuadBatchTest.main(args);
+		GlyphAtlasTest.main(args);
+		System.out.println("All view tests passed");
+	}
+
+	static void equal(String what, float expected, float actual) {
+		if (Math.abs(expected - actual) > 0.001f) {
+			throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	static void isTrue(String what, boolean condition) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+}